@@ -0,0 +1,60 @@
+package ch.redelmann.polymorph.benchmarks;
+
+import ch.redelmann.polymorph.library.crypto.BlockMix;
+import ch.redelmann.polymorph.library.crypto.SCrypt;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Compares the scalar and vector implementations of BlockMix, alone and within SCrypt.
+ *
+ * Each combination of parameters runs in a fork of its own, in which the implementation used
+ * by {@link SCrypt} is chosen by setting its system property before the class is loaded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class BlockMixBenchmark {
+
+    @Param({"scalar", "vector"})
+    public String implementation;
+
+    @Param({"1", "8"})
+    public int r;
+
+    private BlockMix _blockMix;
+    private int[] _in;
+    private int[] _out;
+    private final int[] _x = new int[16];
+    private final byte[] _password = "pony1234AGDE2-DGXA4-33DLQ-WEDAP-GYPQ9".getBytes();
+    private final byte[] _salt = "github".getBytes();
+    private final byte[] _output = new byte[64];
+
+    @Setup
+    public void setup() {
+        System.setProperty("polymorph.scrypt.blockmix", implementation);
+        _blockMix = SCrypt.getBlockMix();
+        if (!_blockMix.getName().equals(implementation)) {
+            throw new IllegalStateException("BlockMix " + implementation + " is not available.");
+        }
+        _in = new Random(42).ints(32 * r).toArray();
+        _out = new int[32 * r];
+        _blockMix.toLayout(_in, 0, 2 * r);
+    }
+
+    @Benchmark
+    public int[] blockMix() {
+        _blockMix.blockMix(_in, 0, _out, 0, _x, r);
+        return _out;
+    }
+
+    @Benchmark
+    public byte[] scrypt() {
+        SCrypt.scrypt(_password, _salt, 1 << 14, r, 1, _output);
+        return _output;
+    }
+}
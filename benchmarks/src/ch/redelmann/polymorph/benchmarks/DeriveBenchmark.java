@@ -0,0 +1,50 @@
+package ch.redelmann.polymorph.benchmarks;
+
+import ch.redelmann.polymorph.library.Configuration;
+import ch.redelmann.polymorph.library.Polymorph;
+import ch.redelmann.polymorph.library.schema.Safe;
+import ch.redelmann.polymorph.library.schema.Schema;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Measures {@link Polymorph#derive} over a matrix of configurations. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DeriveBenchmark {
+
+    @Param({"10", "12", "14"})
+    public int logN;
+
+    @Param({"1", "2", "8"})
+    public int r;
+
+    @Param({"1", "2"})
+    public int p;
+
+    private Configuration _configuration;
+    private Schema _schema;
+    private char[] _output;
+
+    @Setup
+    public void setup() {
+        _configuration = new Configuration(logN, r, p, "AGDE2-DGXA4-33DLQ-WEDAP-GYPQ9");
+        _schema = new Safe();
+        _output = new char[_schema.getSize()];
+    }
+
+    @Benchmark
+    public String deriveString() {
+        return Polymorph.derive(_schema, "github", "pony1234", _configuration);
+    }
+
+    @Benchmark
+    public char[] deriveChars() {
+        Polymorph.derive(_schema, "github".toCharArray(), "pony1234".toCharArray(), _configuration, _output);
+        return _output;
+    }
+}
@@ -0,0 +1,92 @@
+package ch.redelmann.polymorph.benchmarks;
+
+import ch.redelmann.polymorph.library.Entry;
+import ch.redelmann.polymorph.library.History;
+import ch.redelmann.polymorph.library.schema.Alphanumeric;
+import ch.redelmann.polymorph.library.schema.Safe;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Measures {@link History#loadFrom} and {@link History#saveTo} on synthetic histories. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class HistoryBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int entries;
+
+    private History _history;
+    private byte[] _json;
+
+    /** Builds a history with random domains, schemas and versions.
+     *
+     * @param size   The number of entries.
+     * @param random The source of randomness.
+     * @return the synthetic history.
+     */
+    static History synthetic(int size, Random random) {
+        List<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            StringBuilder domain = new StringBuilder();
+            int length = 4 + random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                domain.append((char) ('a' + random.nextInt(26)));
+            }
+            domain.append(random.nextBoolean() ? ".com" : ".org");
+            int schemaSize = 8 + random.nextInt(24);
+            entries.add(new Entry(
+                    domain.toString(),
+                    random.nextBoolean() ? new Safe(schemaSize) : new Alphanumeric(schemaSize),
+                    random.nextInt(4)));
+        }
+        return new History(entries);
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        _history = synthetic(entries, new Random(42));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        _history.saveTo(output);
+        _json = output.toByteArray();
+    }
+
+    @Benchmark
+    public History loadFrom() throws IOException {
+        return History.loadFrom(new ByteArrayInputStream(_json));
+    }
+
+    @Benchmark
+    public long saveTo() throws IOException {
+        CountingOutputStream output = new CountingOutputStream();
+        _history.saveTo(output);
+        return output.count;
+    }
+
+    /** Output stream that only counts the bytes written. */
+    private static final class CountingOutputStream extends OutputStream {
+
+        long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
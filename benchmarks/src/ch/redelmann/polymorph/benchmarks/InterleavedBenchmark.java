@@ -0,0 +1,50 @@
+package ch.redelmann.polymorph.benchmarks;
+
+import ch.redelmann.polymorph.library.crypto.SCrypt;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Measures the throughput of a single thread deriving a batch of keys, depending on how many are interleaved. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InterleavedBenchmark {
+
+    /** Number of derivations of each batch. */
+    private static final int BATCH = 8;
+
+    @Param({"1", "2", "4", "8"})
+    public int interleaved;
+
+    @Param({"10", "14"})
+    public int logN;
+
+    @Param({"1", "8"})
+    public int r;
+
+    private byte[][] _passwords;
+    private byte[][] _salts;
+    private byte[][] _outputs;
+
+    @Setup
+    public void setup() {
+        _passwords = new byte[BATCH][];
+        _salts = new byte[BATCH][];
+        _outputs = new byte[BATCH][64];
+        for (int i = 0; i < BATCH; i++) {
+            _passwords[i] = "pony1234AGDE2-DGXA4-33DLQ-WEDAP-GYPQ9".getBytes();
+            _salts[i] = ("domain" + i).getBytes();
+        }
+    }
+
+    /** Derives a batch of keys. Scores are in batches per second. */
+    @Benchmark
+    public byte[][] batch() {
+        SCrypt.scrypt(_passwords, _salts, 1 << logN, r, 1, _outputs, interleaved);
+        return _outputs;
+    }
+}
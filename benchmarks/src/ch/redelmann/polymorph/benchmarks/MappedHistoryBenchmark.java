@@ -0,0 +1,64 @@
+package ch.redelmann.polymorph.benchmarks;
+
+import ch.redelmann.polymorph.library.Entry;
+import ch.redelmann.polymorph.library.History;
+import ch.redelmann.polymorph.library.MappedHistory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Compares the first lookup in a {@link MappedHistory} with the JSON {@link History#loadFrom}. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class MappedHistoryBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int entries;
+
+    private Path _file;
+    private byte[] _json;
+    private String _domain;
+
+    @Setup
+    public void setup() throws IOException {
+        History history = HistoryBenchmark.synthetic(entries, new Random(42));
+        List<Entry> all = history.getAll();
+        _domain = all.get(all.size() / 2).domain;
+
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        history.saveTo(json);
+        _json = json.toByteArray();
+
+        _file = Files.createTempFile("history", ".bin");
+        try (OutputStream output = Files.newOutputStream(_file)) {
+            MappedHistory.write(all, output);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(_file);
+    }
+
+    @Benchmark
+    public List<Entry> openAndFind() throws IOException {
+        return MappedHistory.open(_file).find(_domain);
+    }
+
+    @Benchmark
+    public List<Entry> loadAndFind() throws IOException {
+        return History.loadFrom(new ByteArrayInputStream(_json)).findByPrefix(_domain, 1);
+    }
+}
@@ -0,0 +1,50 @@
+package ch.redelmann.polymorph.benchmarks;
+
+import ch.redelmann.polymorph.library.Generator;
+import ch.redelmann.polymorph.library.Permutation;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Measures {@link Generator#nextPermutation} and {@link Permutation#getKthPermutation}. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PermutationBenchmark {
+
+    @Param({"18", "100", "1000"})
+    public int size;
+
+    private String _string;
+    private byte[] _seed;
+    private BigInteger _k;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            builder.append((char) ('!' + random.nextInt(94)));
+        }
+        _string = builder.toString();
+        _seed = new byte[64];
+        random.nextBytes(_seed);
+        _k = new BigInteger(Permutation.factorial(size).bitLength(), random).mod(Permutation.factorial(size));
+    }
+
+    @Benchmark
+    public String nextPermutation() {
+        // Extended, so that long strings do not exhaust the seed.
+        return new Generator(_seed, true).nextPermutation(_string);
+    }
+
+    @Benchmark
+    public String getKthPermutation() {
+        return Permutation.getKthPermutation(_string, _k);
+    }
+}
@@ -0,0 +1,47 @@
+package ch.redelmann.polymorph.benchmarks;
+
+import ch.redelmann.polymorph.library.schema.Schema;
+import ch.redelmann.polymorph.library.schema.SchemaRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Measures {@link Schema#generate} for the built-in schemas, from a 512-bit seed. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SchemaBenchmark {
+
+    @Param({"safe", "alpha"})
+    public String schema;
+
+    @Param({"8", "18", "32", "64"})
+    public int size;
+
+    private Schema _schema;
+    private byte[] _seed;
+    private char[] _output;
+
+    @Setup
+    public void setup() {
+        _schema = SchemaRegistry.getDefault().get(schema, size);
+        _seed = new byte[64];
+        new Random(42).nextBytes(_seed);
+        _output = new char[size];
+    }
+
+    @Benchmark
+    public String generateString() {
+        return _schema.generate(_seed);
+    }
+
+    @Benchmark
+    public char[] generateChars() {
+        _schema.generate(_seed, _output);
+        return _output;
+    }
+}
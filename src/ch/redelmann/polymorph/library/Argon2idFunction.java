@@ -0,0 +1,40 @@
+package ch.redelmann.polymorph.library;
+
+import ch.redelmann.polymorph.library.crypto.Argon2;
+
+/** Argon2id, with {@code 2^logN} KiB of memory, {@code r} passes, and {@code p} lanes.
+ *
+ * Unlike the reference implementation, salts shorter than 8 bytes, such as short domains, are accepted,
+ * as allowed by RFC 9106.
+ */
+final class Argon2idFunction implements KeyDerivationFunction {
+
+    @Override
+    public String getName() {
+        return "argon2id";
+    }
+
+    @Override
+    public boolean isValid(int logN, int r, int p) {
+        return logN > 0 && (1L << logN) <= Argon2.MAX_MEMORY && r > 0
+                && p > 0 && p <= Argon2.MAX_LANES && (1L << logN) >= 8L * p;
+    }
+
+    /** Returns the memory used by a derivation.
+     *
+     * @param configuration The configuration.
+     * @return the size in bytes of the blocks of Argon2id.
+     */
+    @Override
+    public long memoryBytes(Configuration configuration) {
+        long blocks = (1L << configuration.logN) / (4 * configuration.p) * (4 * configuration.p);
+        return 1024L * blocks;
+    }
+
+    @Override
+    public void derive(byte[] password, int passwordLength, byte[] salt, int saltLength,
+                       Configuration configuration, byte[] output) {
+        Argon2.argon2id(password, passwordLength, salt, saltLength,
+                1 << configuration.logN, configuration.r, configuration.p, output);
+    }
+}
@@ -0,0 +1,167 @@
+package ch.redelmann.polymorph.library;
+
+import ch.redelmann.polymorph.library.schema.Schema;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Derivations shared by concurrent identical requests.
+ *
+ * While a derivation is in flight, identical requests wait for it and receive its result,
+ * instead of running SCrypt again. Requests are identified by an HMAC-SHA256 of their parameters,
+ * under a key drawn at random for each process, so that in-flight requests are not indexed by
+ * their passwords. Requests are forgotten as soon as their derivation completes, and results are
+ * never cached.
+ */
+public class CoalescingDeriver {
+
+    /** Key of the HMAC identifying requests, drawn once per process. */
+    private static final SecretKeySpec KEY;
+
+    static {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        KEY = new SecretKeySpec(key, "HmacSHA256");
+        Arrays.fill(key, (byte) 0);
+    }
+
+    /** HMAC of each thread. */
+    private static final ThreadLocal<Mac> MACS = ThreadLocal.withInitial(() -> {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(KEY);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available.", e);
+        }
+    });
+
+    /** The in-flight derivations, by request. */
+    private final Map<ByteBuffer, CompletableFuture<String>> _inFlight = new ConcurrentHashMap<>();
+
+    /** Computes a password, as {@link Polymorph#derive(Schema, String, String, Configuration)}.
+     *
+     * If an identical derivation is in flight, waits for its result. Otherwise, computes the password
+     * in the calling thread, and shares it with the identical requests made in the meantime.
+     *
+     * @param schema        The schema used to derive the password.
+     * @param domain        The domain for which the derived password is used.
+     * @param password      The master password.
+     * @param configuration Configuration parameters for SCrypt.
+     * @return a password following the given {@code schema}.
+     */
+    public String derive(Schema schema, String domain, String password, Configuration configuration) {
+        ByteBuffer key = key(schema, domain, password, configuration);
+        CompletableFuture<String> shared = new CompletableFuture<>();
+        CompletableFuture<String> existing = _inFlight.putIfAbsent(key, shared);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            String result = Polymorph.derive(schema, domain, password, configuration);
+            _inFlight.remove(key, shared);
+            shared.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            _inFlight.remove(key, shared);
+            shared.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /** Computes a password asynchronously on a {@link DerivationService}.
+     *
+     * If an identical derivation is in flight, returns its result. Otherwise, submits the derivation
+     * to the {@code service}, and shares it with the identical requests made in the meantime.
+     * Cancelling the returned future does not cancel the shared derivation.
+     *
+     * @param schema        The schema used to derive the password.
+     * @param domain        The domain for which the derived password is used.
+     * @param password      The master password.
+     * @param configuration Configuration parameters for SCrypt.
+     * @param service       The service on which derivations run.
+     * @return the future password.
+     */
+    public CompletableFuture<String> submit(Schema schema, String domain, String password,
+                                            Configuration configuration, DerivationService service) {
+        ByteBuffer key = key(schema, domain, password, configuration);
+        CompletableFuture<String> shared = new CompletableFuture<>();
+        CompletableFuture<String> existing = _inFlight.putIfAbsent(key, shared);
+        if (existing != null) {
+            return existing.copy();
+        }
+
+        service.submit(schema, domain, password, configuration).whenComplete((result, e) -> {
+            _inFlight.remove(key, shared);
+            if (e != null) {
+                shared.completeExceptionally(e);
+            } else {
+                shared.complete(result);
+            }
+        });
+        return shared.copy();
+    }
+
+    /** Returns the number of distinct derivations in flight.
+     *
+     * @return the number of derivations in flight.
+     */
+    public int getInFlight() {
+        return _inFlight.size();
+    }
+
+    /** Identifies a request.
+     *
+     * @param schema        The schema used to derive the password.
+     * @param domain        The domain for which the derived password is used.
+     * @param password      The master password.
+     * @param configuration Configuration parameters for SCrypt.
+     * @return the HMAC of the parameters.
+     */
+    private static ByteBuffer key(Schema schema, String domain, String password, Configuration configuration) {
+        Mac mac = MACS.get();
+        update(mac, schema.getClass().getName());
+        update(mac, schema.getName());
+        update(mac, domain);
+        update(mac, password);
+        update(mac, configuration.code);
+        update(mac, configuration.kdf.getName());
+        mac.update(ByteBuffer.allocate(17)
+                .putInt(schema.getSize())
+                .putInt(configuration.logN)
+                .putInt(configuration.r)
+                .putInt(configuration.p)
+                .put((byte) (configuration.extended ? 1 : 0))
+                .array());
+        return ByteBuffer.wrap(mac.doFinal());
+    }
+
+    /** Adds a length-prefixed string to an HMAC, and wipes its encoding.
+     *
+     * @param mac    The HMAC.
+     * @param string The string.
+     */
+    private static void update(Mac mac, String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        mac.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        mac.update(bytes);
+        Arrays.fill(bytes, (byte) 0);
+    }
+}
@@ -0,0 +1,404 @@
+package ch.redelmann.polymorph.library;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Thread-safe variant of {@link History}.
+ *
+ * Entries are kept in an immutable treap, sorted by {@link History#ORDER}, whose root is swapped atomically.
+ * Updates copy the path to the modified nodes and publish the new root with a compare-and-set,
+ * retrying if another thread updated the history in the meantime.
+ * Readers never lock nor retry: they read the root once and then see a consistent point-in-time view.
+ */
+public class ConcurrentHistory {
+
+    /** Immutable node of the treap. */
+    private static final class Node {
+
+        /** The entry. */
+        final Entry entry;
+
+        /** Priority of the node, larger than the priorities of its children. */
+        final int priority;
+
+        /** Entries before {@link #entry}. */
+        final Node left;
+
+        /** Entries after {@link #entry}. */
+        final Node right;
+
+        Node(Entry entry, int priority, Node left, Node right) {
+            this.entry = entry;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+        }
+
+        /** Returns a copy of {@code this} node with other children.
+         *
+         * @param left  The new left child.
+         * @param right The new right child.
+         * @return the copied node, or {@code this} if the children are unchanged.
+         */
+        Node with(Node left, Node right) {
+            if (left == this.left && right == this.right) {
+                return this;
+            }
+            return new Node(entry, priority, left, right);
+        }
+    }
+
+    /** Root of the current treap, {@code null} when empty. */
+    private final AtomicReference<Node> _root;
+
+    /** Builds an empty {@code ConcurrentHistory}. */
+    public ConcurrentHistory() {
+        _root = new AtomicReference<>(null);
+    }
+
+    /** Builds a {@code ConcurrentHistory} from a list of entries.
+     *
+     * @param entries The list of entries. Does not need to be sorted.
+     */
+    public ConcurrentHistory(List<Entry> entries) {
+        this();
+        addAll(entries);
+    }
+
+    /** Builds a {@code ConcurrentHistory} sharing the given treap.
+     *
+     * @param root The root of the treap.
+     */
+    private ConcurrentHistory(Node root) {
+        _root = new AtomicReference<>(root);
+    }
+
+    /** Loads a {@code ConcurrentHistory} from a JSON {@code InputStream}.
+     *
+     * @param input The input stream, containing a JSON description of the {@code History}.
+     * @return the {@code ConcurrentHistory} loaded from the stream.
+     * @throws JSONException if the stream does not contain a valid representation.
+     * @throws IOException if the stream produces an {@code IOException}.
+     */
+    public static ConcurrentHistory loadFrom(InputStream input) throws JSONException, IOException {
+        Node root = null;
+        HistoryReader reader = new HistoryReader(input);
+        Entry entry;
+        while ((entry = reader.read()) != null) {
+            root = insert(root, entry);
+        }
+        return new ConcurrentHistory(root);
+    }
+
+    /** Saves the JSON representation of a snapshot of {@code this} history to an output stream.
+     *
+     * Concurrent updates do not affect the saved entries.
+     *
+     * @param output The output stream.
+     * @throws IOException if the output throws an {@code IOException} when written.
+     */
+    public void saveTo(OutputStream output) throws IOException {
+        HistoryWriter writer = new HistoryWriter(output);
+        for (Iterator<Entry> it = new EntryIterator(_root.get()); it.hasNext(); ) {
+            writer.write(it.next());
+        }
+        writer.finish();
+    }
+
+    /** Returns a point-in-time copy of {@code this} history, in constant time.
+     *
+     * The copy shares its nodes with {@code this} history. Later updates of either one
+     * are not visible in the other.
+     *
+     * @return the snapshot.
+     */
+    public ConcurrentHistory snapshot() {
+        return new ConcurrentHistory(_root.get());
+    }
+
+    /** Adds an {@code entry}. Has no effect if the entry already exists.
+     *
+     * @param entry The entry to add.
+     */
+    public void add(Entry entry) {
+        update(Collections.<Entry>emptyList(), Collections.singletonList(entry));
+    }
+
+    /** Removes an {@code entry}. Has no effect if the entry does not exist.
+     *
+     * @param entry The entry to remove.
+     */
+    public void remove(Entry entry) {
+        update(Collections.singletonList(entry), Collections.<Entry>emptyList());
+    }
+
+    /** Atomically adds entries. Entries that already exist are ignored.
+     *
+     * @param entries The entries to add.
+     */
+    public void addAll(Collection<Entry> entries) {
+        update(Collections.<Entry>emptyList(), entries);
+    }
+
+    /** Atomically removes entries. Entries that do not exist are ignored.
+     *
+     * @param entries The entries to remove.
+     */
+    public void removeAll(Collection<Entry> entries) {
+        update(entries, Collections.<Entry>emptyList());
+    }
+
+    /** Atomically removes and then adds entries.
+     *
+     * Readers either see all of the changes or none of them. Since entries that compare equal
+     * are the same entry, an entry can be replaced by a new version by removing and adding it.
+     *
+     * @param removed The entries to remove.
+     * @param added   The entries to add, after the removals.
+     */
+    public void update(Collection<Entry> removed, Collection<Entry> added) {
+        while (true) {
+            Node root = _root.get();
+            Node updated = root;
+            for (Entry entry : removed) {
+                updated = delete(updated, entry);
+            }
+            for (Entry entry : added) {
+                updated = insert(updated, entry);
+            }
+            if (updated == root || _root.compareAndSet(root, updated)) {
+                return;
+            }
+        }
+    }
+
+    /** Checks whether an entry exists.
+     *
+     * @param entry The entry.
+     * @return {@code true} if an entry that compares equal exists.
+     */
+    public boolean contains(Entry entry) {
+        return find(_root.get(), entry) != null;
+    }
+
+    /** Returns all entries.
+     *
+     * @return all entries, sorted.
+     */
+    public List<Entry> getAll() {
+        List<Entry> entries = new ArrayList<>();
+        for (Iterator<Entry> it = new EntryIterator(_root.get()); it.hasNext(); ) {
+            entries.add(it.next());
+        }
+        return entries;
+    }
+
+    /** Returns the first entries whose domain starts with {@code prefix}, ignoring case.
+     *
+     * @param prefix The prefix of the domains.
+     * @param limit  The maximal number of entries returned.
+     * @return the matching entries, sorted.
+     */
+    public List<Entry> findByPrefix(String prefix, int limit) {
+        List<Entry> found = new ArrayList<>();
+        collectPrefix(_root.get(), prefix, limit, found);
+        return found;
+    }
+
+    /** Returns the first entries whose domain contains {@code substring}, ignoring case.
+     *
+     * Unlike {@link History#findBySubstring(String, int)}, the entries are scanned linearly.
+     *
+     * @param substring The substring of the domains.
+     * @param limit     The maximal number of entries returned.
+     * @return the matching entries, sorted.
+     */
+    public List<Entry> findBySubstring(String substring, int limit) {
+        String folded = DomainIndex.fold(substring);
+        List<Entry> found = new ArrayList<>();
+        for (Iterator<Entry> it = new EntryIterator(_root.get()); it.hasNext() && found.size() < limit; ) {
+            Entry entry = it.next();
+            if (DomainIndex.fold(entry.domain).contains(folded)) {
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+
+    /** Collects, in order, the entries of a treap whose domain starts with {@code prefix}.
+     *
+     * @param node   The root of the treap.
+     * @param prefix The prefix of the domains.
+     * @param limit  The maximal number of collected entries.
+     * @param found  The collected entries.
+     * @return {@code false} if no later entry can match.
+     */
+    private static boolean collectPrefix(Node node, String prefix, int limit, List<Entry> found) {
+        if (node == null) {
+            return true;
+        }
+        String domain = node.entry.domain;
+        if (String.CASE_INSENSITIVE_ORDER.compare(domain, prefix) < 0) {
+            // This entry and the ones on its left are before the prefix.
+            return collectPrefix(node.right, prefix, limit, found);
+        }
+        if (!collectPrefix(node.left, prefix, limit, found) || found.size() >= limit) {
+            return false;
+        }
+        if (!domain.regionMatches(true, 0, prefix, 0, prefix.length())) {
+            // Matching domains are contiguous, so this entry and the ones on its right are after them.
+            return false;
+        }
+        found.add(node.entry);
+        return collectPrefix(node.right, prefix, limit, found);
+    }
+
+    /** Finds the node of an entry.
+     *
+     * @param node  The root of the treap.
+     * @param entry The entry.
+     * @return the node of the entry, or {@code null} if it does not exist.
+     */
+    private static Node find(Node node, Entry entry) {
+        while (node != null) {
+            int compare = History.ORDER.compare(entry, node.entry);
+            if (compare == 0) {
+                return node;
+            }
+            node = compare < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /** Inserts an entry in a treap.
+     *
+     * @param root  The root of the treap.
+     * @param entry The entry.
+     * @return the root of the new treap, or {@code root} if the entry already exists.
+     */
+    private static Node insert(Node root, Entry entry) {
+        if (find(root, entry) != null) {
+            return root;
+        }
+        return insert(root, entry, ThreadLocalRandom.current().nextInt());
+    }
+
+    /** Inserts an entry that does not exist in a treap.
+     *
+     * @param node     The root of the treap.
+     * @param entry    The entry.
+     * @param priority The priority of the new node.
+     * @return the root of the new treap.
+     */
+    private static Node insert(Node node, Entry entry, int priority) {
+        if (node == null) {
+            return new Node(entry, priority, null, null);
+        }
+        if (priority > node.priority) {
+            Node[] halves = split(node, entry);
+            return new Node(entry, priority, halves[0], halves[1]);
+        }
+        if (History.ORDER.compare(entry, node.entry) < 0) {
+            return node.with(insert(node.left, entry, priority), node.right);
+        }
+        return node.with(node.left, insert(node.right, entry, priority));
+    }
+
+    /** Splits a treap around an entry that it does not contain.
+     *
+     * @param node  The root of the treap.
+     * @param entry The entry.
+     * @return the treaps of the entries before and after {@code entry}.
+     */
+    private static Node[] split(Node node, Entry entry) {
+        if (node == null) {
+            return new Node[] { null, null };
+        }
+        if (History.ORDER.compare(entry, node.entry) < 0) {
+            Node[] halves = split(node.left, entry);
+            halves[1] = node.with(halves[1], node.right);
+            return halves;
+        }
+        Node[] halves = split(node.right, entry);
+        halves[0] = node.with(node.left, halves[0]);
+        return halves;
+    }
+
+    /** Deletes an entry from a treap.
+     *
+     * @param node  The root of the treap.
+     * @param entry The entry.
+     * @return the root of the new treap, or {@code node} if the entry does not exist.
+     */
+    private static Node delete(Node node, Entry entry) {
+        if (node == null) {
+            return null;
+        }
+        int compare = History.ORDER.compare(entry, node.entry);
+        if (compare == 0) {
+            return merge(node.left, node.right);
+        }
+        if (compare < 0) {
+            return node.with(delete(node.left, entry), node.right);
+        }
+        return node.with(node.left, delete(node.right, entry));
+    }
+
+    /** Merges two treaps.
+     *
+     * @param left  The treap of the first entries.
+     * @param right The treap of the last entries.
+     * @return the root of the merged treap.
+     */
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return left.with(left.left, merge(left.right, right));
+        }
+        return right.with(merge(left, right.left), right.right);
+    }
+
+    /** In-order iterator over the entries of an immutable treap. */
+    private static final class EntryIterator implements Iterator<Entry> {
+
+        /** Nodes whose entry and right subtree are still to visit. */
+        private final ArrayDeque<Node> _stack = new ArrayDeque<>();
+
+        EntryIterator(Node root) {
+            descend(root);
+        }
+
+        private void descend(Node node) {
+            while (node != null) {
+                _stack.push(node);
+                node = node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !_stack.isEmpty();
+        }
+
+        @Override
+        public Entry next() {
+            if (_stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node node = _stack.pop();
+            descend(node.right);
+            return node.entry;
+        }
+    }
+}
@@ -2,35 +2,93 @@ package ch.redelmann.polymorph.library;
 
 import org.json.JSONObject;
 
+import java.time.Duration;
+
 /** Configuration parameters for the hash function. */
 public class Configuration {
 
-    /** Base 2 logarithm of the parameter N used by SCrypt. Running time and memory is proportional to N. */
+    /** Base 2 logarithm of the parameter N used by SCrypt. Running time and memory is proportional to N.
+     *  For Argon2id, base 2 logarithm of the memory in KiB.
+     */
     public final int logN;
 
-    /** Memory cost r used by SCrypt. Running time and memory is proportional to r. */
+    /** Memory cost r used by SCrypt. Running time and memory is proportional to r.
+     *  For Argon2id, the number of passes over the memory, to which running time is proportional.
+     */
     public final int r;
 
-    /** Parallelization cost p used by SCrypt. Running time is proportional to p. Memory is not. */
+    /** Parallelization cost p used by SCrypt. Running time is proportional to p. Memory is not.
+     *  When a {@linkplain ch.redelmann.polymorph.library.crypto.SCrypt#setLaneExecutor lane executor}
+     *  is set, lanes run concurrently, trading memory for running time.
+     *  For Argon2id, the number of lanes, which share the memory and run concurrently
+     *  on the {@linkplain ch.redelmann.polymorph.library.crypto.Argon2#setLaneExecutor lane executor} of Argon2.
+     */
     public final int p;
 
     /** Salt concatenated to the master password to help prevent rainbow tables attacks. */
     public final String code;
 
+    /** Whether the seed of password generation is extended when it runs low on entropy.
+     *  This only changes passwords whose schema needs most of the bits of the hash,
+     *  and makes very long passwords as strong as short ones.
+     */
+    public final boolean extended;
+
+    /** Key derivation function hashing the master password. */
+    public final KeyDerivationFunction kdf;
+
     // Default set of parameters.
     public static final int DEFAULT_LOG_N = 14;
     public static final int DEFAULT_R = 2;
     public static final int DEFAULT_P = 1;
     public static final String DEFAULT_CODE = "";
+    public static final boolean DEFAULT_EXTENDED = false;
+    public static final KeyDerivationFunction DEFAULT_KDF = KeyDerivationFunction.SCRYPT;
 
     public Configuration(int logN, int r, int p, String code) {
+        this(logN, r, p, code, DEFAULT_EXTENDED);
+    }
+
+    public Configuration(int logN, int r, int p, String code, boolean extended) {
+        this(logN, r, p, code, extended, DEFAULT_KDF);
+    }
+
+    public Configuration(int logN, int r, int p, String code, boolean extended, KeyDerivationFunction kdf) {
         assert(logN > 0 && r > 0 && p > 0);
         assert(r * p < (1 << 30));
+        assert(kdf.isValid(logN, r, p));
 
         this.logN = logN;
         this.r = r;
         this.p = p;
         this.code = code;
+        this.extended = extended;
+        this.kdf = kdf;
+    }
+
+    /** Returns the strongest configuration that meets a latency and memory budget on the current host.
+     * This runs short timed SCrypt probes, and can thus take a fraction of a second.
+     * Only SCrypt is calibrated: the configuration returned uses SCrypt, and the cost model
+     * rejects configurations using other key derivation functions.
+     *
+     * @param targetLatency  The maximal running time of a derivation.
+     * @param maxMemoryBytes The maximal memory used by a derivation, in bytes.
+     * @return the strongest configuration meeting the budget, with the default code and SCrypt.
+     * @throws IllegalArgumentException if no configuration meets the budget.
+     * @see CostModel#strongest(Duration, long, String)
+     */
+    public static Configuration calibrate(Duration targetLatency, long maxMemoryBytes) {
+        return CostModel.measure().strongest(targetLatency, maxMemoryBytes, DEFAULT_CODE);
+    }
+
+    /** Returns the memory used by a derivation with this configuration,
+     *  when lanes of SCrypt are computed sequentially.
+     *
+     * @return the size in bytes of the memory of the key derivation function.
+     * @see KeyDerivationFunction#memoryBytes(Configuration)
+     */
+    public long memoryBytes() {
+        return kdf.memoryBytes(this);
     }
 
     // JSON parameter names.
@@ -38,19 +96,24 @@ public class Configuration {
     private static String KEY_R = "r";
     private static String KEY_P = "p";
     private static String KEY_CODE = "code";
+    private static String KEY_EXTENDED = "extended";
+    private static String KEY_KDF = "kdf";
 
     /** Gets a {@code Configuration} from its JSON representation.
      *
      * @param root The JSON object representing the configuration.
      * @return the configuration represented.
+     * @throws IllegalArgumentException if the key derivation function is unknown.
      */
     public static Configuration fromJSON(JSONObject root) {
         int logN = root.optInt(KEY_LOG_N, DEFAULT_LOG_N);
         int r = root.optInt(KEY_R, DEFAULT_R);
         int p = root.optInt(KEY_P, DEFAULT_P);
         String code = root.optString(KEY_CODE, DEFAULT_CODE);
+        boolean extended = root.optBoolean(KEY_EXTENDED, DEFAULT_EXTENDED);
+        KeyDerivationFunction kdf = KeyDerivationFunction.forName(root.optString(KEY_KDF, DEFAULT_KDF.getName()));
 
-        return new Configuration(logN, r, p, code);
+        return new Configuration(logN, r, p, code, extended, kdf);
     }
 
     /** Gets the JSON representation of this {@code Configuration}.
@@ -62,7 +125,9 @@ public class Configuration {
                 .put(KEY_LOG_N, logN)
                 .put(KEY_R, r)
                 .put(KEY_P, p)
-                .put(KEY_CODE, code);
+                .put(KEY_CODE, code)
+                .put(KEY_EXTENDED, extended)
+                .put(KEY_KDF, kdf.getName());
     }
 
     @Override
@@ -75,6 +140,8 @@ public class Configuration {
         if (logN != that.logN) return false;
         if (r != that.r) return false;
         if (p != that.p) return false;
+        if (extended != that.extended) return false;
+        if (!kdf.getName().equals(that.kdf.getName())) return false;
         return code.equals(that.code);
 
     }
@@ -85,6 +152,8 @@ public class Configuration {
         result = 31 * result + r;
         result = 31 * result + p;
         result = 31 * result + code.hashCode();
+        result = 31 * result + (extended ? 1 : 0);
+        result = 31 * result + kdf.getName().hashCode();
         return result;
     }
 }
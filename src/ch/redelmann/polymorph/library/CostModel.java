@@ -0,0 +1,170 @@
+package ch.redelmann.polymorph.library;
+
+import ch.redelmann.polymorph.library.crypto.SCrypt;
+import ch.redelmann.polymorph.library.crypto.Workspace;
+
+import java.time.Duration;
+
+/** Model of the running time of SCrypt on the current host.
+ *
+ * The running time of a derivation is modelled as a fixed overhead plus a cost
+ * proportional to {@code N * r * p}, the number of Salsa20/8 invocations up to a constant.
+ * Predictions assume that lanes are computed sequentially.
+ * Only configurations using {@linkplain KeyDerivationFunction#SCRYPT SCrypt} can be predicted.
+ */
+public class CostModel {
+
+    /** Parameters of the probes used to measure the model, as {@code {logN, r}}. */
+    private static final int[][] PROBES = { {10, 1}, {12, 2}, {14, 2} };
+
+    /** Number of timed runs of each probe. The fastest one is kept. */
+    private static final int RUNS = 3;
+
+    /** Largest base 2 logarithm of N considered when calibrating. */
+    private static final int MAX_LOG_N = 24;
+
+    /** Largest r considered when calibrating. */
+    private static final int MAX_R = 16;
+
+    /** Largest p considered when calibrating. */
+    private static final int MAX_P = 64;
+
+    /** Fixed cost of a derivation, in nanoseconds. */
+    public final double overheadNanos;
+
+    /** Cost of each unit of {@code N * r * p}, in nanoseconds. */
+    public final double nanosPerUnit;
+
+    /** Builds a cost model from its coefficients.
+     *
+     * @param overheadNanos Fixed cost of a derivation, in nanoseconds.
+     * @param nanosPerUnit  Cost of each unit of {@code N * r * p}, in nanoseconds.
+     */
+    public CostModel(double overheadNanos, double nanosPerUnit) {
+        assert(overheadNanos >= 0 && nanosPerUnit > 0);
+
+        this.overheadNanos = overheadNanos;
+        this.nanosPerUnit = nanosPerUnit;
+    }
+
+    /** Measures the cost model of the current host, by running short timed SCrypt probes.
+     *
+     * @return the cost model of the host.
+     */
+    public static CostModel measure() {
+        Workspace workspace = new Workspace();
+        byte[] password = new byte[16];
+        byte[] salt = new byte[16];
+        byte[] output = new byte[64];
+
+        double[] units = new double[PROBES.length];
+        double[] nanos = new double[PROBES.length];
+        for (int i = 0; i < PROBES.length; i++) {
+            int n = 1 << PROBES[i][0];
+            int r = PROBES[i][1];
+            units[i] = (double) n * r;
+
+            // The first run warms up the code and the workspace.
+            SCrypt.scrypt(password, salt, n, r, 1, output, workspace);
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                SCrypt.scrypt(password, salt, n, r, 1, output, workspace);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            nanos[i] = best;
+        }
+        workspace.wipe();
+
+        // Fitting a line through the two largest probes, which are the least affected by caches.
+        int last = PROBES.length - 1;
+        double slope = (nanos[last] - nanos[last - 1]) / (units[last] - units[last - 1]);
+        if (slope <= 0) {
+            slope = nanos[last] / units[last];
+        }
+        double overhead = Math.max(0, nanos[last] - slope * units[last]);
+        return new CostModel(overhead, slope);
+    }
+
+    /** Predicts the running time of a derivation with the given configuration.
+     *
+     * @param configuration The configuration.
+     * @return the predicted running time.
+     * @throws IllegalArgumentException if the configuration does not use SCrypt.
+     */
+    public Duration predictTime(Configuration configuration) {
+        checkSCrypt(configuration);
+        double units = Math.scalb((double) configuration.r * configuration.p, configuration.logN);
+        return Duration.ofNanos((long) Math.min(Long.MAX_VALUE, overheadNanos + nanosPerUnit * units));
+    }
+
+    /** Predicts the memory used by a derivation with the given configuration.
+     *
+     * @param configuration The configuration.
+     * @return the predicted memory, in bytes.
+     * @throws IllegalArgumentException if the configuration does not use SCrypt.
+     * @see Configuration#memoryBytes()
+     */
+    public long predictMemory(Configuration configuration) {
+        checkSCrypt(configuration);
+        return configuration.memoryBytes();
+    }
+
+    private static void checkSCrypt(Configuration configuration) {
+        if (configuration.kdf != KeyDerivationFunction.SCRYPT) {
+            throw new IllegalArgumentException("The cost model only predicts SCrypt, not "
+                    + configuration.kdf.getName() + ".");
+        }
+    }
+
+    /** Returns the strongest configuration that meets a latency and memory budget.
+     *
+     * Memory is maximised first, as it is what makes SCrypt expensive to attack,
+     * and the remaining time budget is then spent on the parallelization cost p.
+     *
+     * @param targetLatency  The maximal running time of a derivation.
+     * @param maxMemoryBytes The maximal memory used by a derivation, in bytes.
+     * @param code           The code of the returned configuration.
+     * @return the strongest configuration meeting the budget.
+     * @throws IllegalArgumentException if no configuration meets the budget.
+     */
+    public Configuration strongest(Duration targetLatency, long maxMemoryBytes, String code) {
+        Configuration best = null;
+        long bestUnits = 0;
+        for (int logN = 1; logN <= MAX_LOG_N; logN++) {
+            for (int r = 1; r <= MAX_R; r++) {
+                Configuration candidate = new Configuration(logN, r, 1, code);
+                long units = (long) r << logN;
+                // Ties are broken in favour of the smallest r, i.e. of the largest N.
+                if (units >= bestUnits && fits(candidate, targetLatency, maxMemoryBytes)) {
+                    best = candidate;
+                    bestUnits = units;
+                }
+            }
+        }
+
+        if (best == null) {
+            throw new IllegalArgumentException("No configuration meets the budget.");
+        }
+
+        int p = 1;
+        while (p < MAX_P && fits(new Configuration(best.logN, best.r, p + 1, code),
+                targetLatency, maxMemoryBytes)) {
+            p++;
+        }
+        return new Configuration(best.logN, best.r, p, code);
+    }
+
+    /** Checks whether a configuration meets a latency and memory budget.
+     *
+     * @param configuration  The configuration.
+     * @param targetLatency  The maximal running time of a derivation.
+     * @param maxMemoryBytes The maximal memory used by a derivation, in bytes.
+     * @return {@code true} if the configuration is predicted to meet the budget.
+     * @throws IllegalArgumentException if the configuration does not use SCrypt.
+     */
+    public boolean fits(Configuration configuration, Duration targetLatency, long maxMemoryBytes) {
+        return predictMemory(configuration) <= maxMemoryBytes
+                && predictTime(configuration).compareTo(targetLatency) <= 0;
+    }
+}
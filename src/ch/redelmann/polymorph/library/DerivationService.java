@@ -0,0 +1,357 @@
+package ch.redelmann.polymorph.library;
+
+import ch.redelmann.polymorph.library.schema.Schema;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Asynchronous derivations, admitted against a memory budget.
+ *
+ * Each derivation reserves the {@linkplain Configuration#memoryBytes() memory} of its configuration
+ * for its duration, and only starts when the reservation fits in the budget. Derivations that do
+ * not fit yet wait in a bounded queue, in order of submission. Derivations that fit may start before
+ * earlier ones that do not, so that small derivations keep flowing while large ones wait for memory.
+ * A waiting derivation can only be overtaken a bounded number of times, after which no later
+ * derivation starts before it, so that large derivations are not starved.
+ *
+ * When the queue is full, new derivations are either rejected or their submitter waits,
+ * depending on the {@link OverflowPolicy}.
+ */
+public class DerivationService implements AutoCloseable {
+
+    /** What happens to derivations submitted when the queue is full. */
+    public enum OverflowPolicy {
+        /** The future of the derivation fails with a {@link RejectedExecutionException}. */
+        REJECT,
+        /** The submitter waits until the queue has room. */
+        BLOCK
+    }
+
+    /** Number of times a waiting derivation can be overtaken by later ones. */
+    static final int MAX_OVERTAKES = 8;
+
+    /** A submitted derivation. */
+    private static final class Job {
+        final Schema schema;
+        final String domain;
+        final String password;
+        final Configuration configuration;
+        final long weight;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        /** Number of later derivations started before this one. */
+        int overtakes = 0;
+
+        Job(Schema schema, String domain, String password, Configuration configuration) {
+            this.schema = schema;
+            this.domain = domain;
+            this.password = password;
+            this.configuration = configuration;
+            this.weight = configuration.memoryBytes();
+        }
+    }
+
+    /** The executor on which derivations run. */
+    private final Executor _executor;
+
+    /** Whether the executor was created by, and is shut down with, {@code this} service. */
+    private final boolean _ownsExecutor;
+
+    /** The memory budget, in bytes. */
+    private final long _budget;
+
+    /** The maximal number of waiting derivations. */
+    private final int _maxQueued;
+
+    /** What happens to derivations submitted when the queue is full. */
+    private final OverflowPolicy _policy;
+
+    /** Lock guarding the state of the service. */
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    /** Signalled when the queue has room. */
+    private final Condition _notFull = _lock.newCondition();
+
+    /** Signalled when no derivation is waiting or running. */
+    private final Condition _idle = _lock.newCondition();
+
+    /** The waiting derivations, in order of submission. */
+    private final ArrayDeque<Job> _queue = new ArrayDeque<>();
+
+    /** The memory not reserved by running derivations. */
+    private long _available;
+
+    /** The number of running derivations. */
+    private int _running = 0;
+
+    /** Whether the service is closed. */
+    private boolean _closed = false;
+
+    /** Builds a service running derivations on a pool with one thread per processor.
+     *
+     * @param memoryBudget The memory available to concurrent derivations, in bytes.
+     * @param maxQueued    The maximal number of waiting derivations. Must be strictly positive.
+     * @param policy       What happens to derivations submitted when the queue is full.
+     */
+    public DerivationService(long memoryBudget, int maxQueued, OverflowPolicy policy) {
+        this(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "polymorph-derivation");
+            thread.setDaemon(true);
+            return thread;
+        }), true, memoryBudget, maxQueued, policy);
+    }
+
+    /** Builds a service running derivations on the given {@code executor}.
+     *
+     * @param executor     The executor on which derivations run. It is not shut down with the service.
+     * @param memoryBudget The memory available to concurrent derivations, in bytes.
+     * @param maxQueued    The maximal number of waiting derivations. Must be strictly positive.
+     * @param policy       What happens to derivations submitted when the queue is full.
+     */
+    public DerivationService(Executor executor, long memoryBudget, int maxQueued, OverflowPolicy policy) {
+        this(executor, false, memoryBudget, maxQueued, policy);
+    }
+
+    private DerivationService(Executor executor, boolean ownsExecutor, long memoryBudget, int maxQueued,
+                              OverflowPolicy policy) {
+        assert(memoryBudget > 0 && maxQueued > 0);
+
+        _executor = executor;
+        _ownsExecutor = ownsExecutor;
+        _budget = memoryBudget;
+        _available = memoryBudget;
+        _maxQueued = maxQueued;
+        _policy = policy;
+    }
+
+    /** Derives the password of an entry.
+     *
+     * @param entry         The entry.
+     * @param password      The master password.
+     * @param configuration Configuration parameters for SCrypt.
+     * @return the future password.
+     * @see #submit(Schema, String, String, Configuration)
+     */
+    public CompletableFuture<String> submit(Entry entry, String password, Configuration configuration) {
+        return submit(entry.schema, entry.domain, password, configuration);
+    }
+
+    /** Derives a password, as {@link Polymorph#derive(Schema, String, String, Configuration)}.
+     *
+     * The future fails with an {@link IllegalArgumentException} if the derivation needs more memory
+     * than the whole budget, and with a {@link RejectedExecutionException} if the service is closed
+     * or if the queue is full and the policy is {@link OverflowPolicy#REJECT}.
+     * Cancelling the future of a waiting derivation removes it from the queue.
+     *
+     * @param schema        The schema of the password.
+     * @param domain        The domain.
+     * @param password      The master password.
+     * @param configuration Configuration parameters for SCrypt.
+     * @return the future password.
+     */
+    public CompletableFuture<String> submit(Schema schema, String domain, String password,
+                                            Configuration configuration) {
+        Job job = new Job(schema, domain, password, configuration);
+        if (job.weight > _budget) {
+            job.future.completeExceptionally(
+                    new IllegalArgumentException("The derivation exceeds the memory budget."));
+            return job.future;
+        }
+
+        List<Job> started;
+        _lock.lock();
+        try {
+            while (!_closed && _queue.size() >= _maxQueued && _policy == OverflowPolicy.BLOCK) {
+                try {
+                    _notFull.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    job.future.completeExceptionally(e);
+                    return job.future;
+                }
+            }
+            if (_closed) {
+                job.future.completeExceptionally(new RejectedExecutionException("The service is closed."));
+                return job.future;
+            }
+            if (_queue.size() >= _maxQueued) {
+                job.future.completeExceptionally(new RejectedExecutionException("The queue is full."));
+                return job.future;
+            }
+            _queue.add(job);
+            job.future.whenComplete((derived, e) -> {
+                if (e != null) {
+                    // Cancelled, or failed, possibly while waiting.
+                    withdraw(job);
+                }
+            });
+            started = dispatch();
+        } finally {
+            _lock.unlock();
+        }
+        start(started);
+        return job.future;
+    }
+
+    /** Returns the memory not reserved by running derivations.
+     *
+     * @return the available memory, in bytes.
+     */
+    public long getAvailableMemory() {
+        _lock.lock();
+        try {
+            return _available;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /** Returns the number of waiting derivations.
+     *
+     * @return the number of waiting derivations.
+     */
+    public int getQueued() {
+        _lock.lock();
+        try {
+            return _queue.size();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /** Rejects new derivations, waits for the submitted ones, and shuts down the executor if owned. */
+    @Override
+    public void close() {
+        _lock.lock();
+        try {
+            _closed = true;
+            _notFull.signalAll();
+            _queue.removeIf(job -> job.future.isDone());
+            while (_running > 0 || !_queue.isEmpty()) {
+                _idle.awaitUninterruptibly();
+            }
+        } finally {
+            _lock.unlock();
+        }
+        if (_ownsExecutor) {
+            ((ExecutorService) _executor).shutdown();
+        }
+    }
+
+    /** Removes from the queue the derivations that can start, and reserves their memory.
+     *
+     * Must be called while holding the lock.
+     *
+     * @return the derivations to start, once the lock is released.
+     */
+    private List<Job> dispatch() {
+        int queued = _queue.size();
+        List<Job> started = new ArrayList<>();
+        List<Job> waiting = new ArrayList<>();
+        for (Iterator<Job> it = _queue.iterator(); it.hasNext(); ) {
+            Job job = it.next();
+            if (job.future.isDone()) {
+                // Cancelled while waiting.
+                it.remove();
+            } else if (job.weight <= _available) {
+                it.remove();
+                _available -= job.weight;
+                _running++;
+                started.add(job);
+                for (Job overtaken : waiting) {
+                    overtaken.overtakes++;
+                }
+            } else {
+                waiting.add(job);
+                if (job.overtakes >= MAX_OVERTAKES) {
+                    // The remaining memory is kept for this derivation.
+                    break;
+                }
+            }
+        }
+        if (_queue.size() < queued) {
+            _notFull.signalAll();
+        }
+        signalIfIdle();
+        return started;
+    }
+
+    /** Removes a derivation completed while waiting, such as a cancelled one, from the queue,
+     * and starts the waiting derivations that fit.
+     *
+     * @param job The completed derivation.
+     */
+    private void withdraw(Job job) {
+        List<Job> started;
+        _lock.lock();
+        try {
+            if (!_queue.remove(job)) {
+                return;
+            }
+            _notFull.signalAll();
+            started = dispatch();
+        } finally {
+            _lock.unlock();
+        }
+        start(started);
+    }
+
+    /** Runs derivations on the executor.
+     *
+     * @param jobs The derivations, whose memory is reserved.
+     */
+    private void start(List<Job> jobs) {
+        for (Job job : jobs) {
+            try {
+                _executor.execute(() -> run(job));
+            } catch (RejectedExecutionException e) {
+                job.future.completeExceptionally(e);
+                release(job);
+            }
+        }
+    }
+
+    /** Runs a derivation, and releases its memory.
+     *
+     * @param job The derivation.
+     */
+    private void run(Job job) {
+        try {
+            if (!job.future.isDone()) {
+                job.future.complete(Polymorph.derive(job.schema, job.domain, job.password, job.configuration));
+            }
+        } catch (Throwable e) {
+            job.future.completeExceptionally(e);
+        } finally {
+            release(job);
+        }
+    }
+
+    /** Releases the memory of a derivation, and starts the waiting derivations that fit.
+     *
+     * @param job The finished derivation.
+     */
+    private void release(Job job) {
+        List<Job> started;
+        _lock.lock();
+        try {
+            _available += job.weight;
+            _running--;
+            started = dispatch();
+        } finally {
+            _lock.unlock();
+        }
+        start(started);
+    }
+
+    private void signalIfIdle() {
+        if (_running == 0 && _queue.isEmpty()) {
+            _idle.signalAll();
+        }
+    }
+}
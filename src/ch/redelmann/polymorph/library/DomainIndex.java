@@ -0,0 +1,148 @@
+package ch.redelmann.polymorph.library;
+
+import java.util.*;
+
+/** Case-insensitive index of the domains of entries, supporting prefix and substring searches.
+ *
+ * Domains are folded to a canonical case, so that the natural order of folded domains
+ * matches the case-insensitive order of {@link History#ORDER}.
+ * Prefix searches use the sorted map of folded domains. Substring searches use the
+ * trigrams of the folded domains, and only check the domains that share the rarest
+ * trigram of the query.
+ */
+class DomainIndex {
+
+    /** Length of the n-grams of the substring index. */
+    private static final int GRAM = 3;
+
+    /** Entries, by folded domain. */
+    private final TreeMap<String, TreeSet<Entry>> _domains = new TreeMap<>();
+
+    /** Folded domains, by trigram. */
+    private final HashMap<String, TreeSet<String>> _grams = new HashMap<>();
+
+    /** Folds the case of a string, the same way {@code String.CASE_INSENSITIVE_ORDER} does.
+     *
+     * @param string The string.
+     * @return the folded string.
+     */
+    static String fold(String string) {
+        char[] chars = string.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /** Adds an entry to the index.
+     *
+     * @param entry The entry, not yet in the index.
+     */
+    void add(Entry entry) {
+        String domain = fold(entry.domain);
+        TreeSet<Entry> entries = _domains.get(domain);
+        if (entries == null) {
+            entries = new TreeSet<>(History.ORDER);
+            _domains.put(domain, entries);
+            for (int i = 0; i + GRAM <= domain.length(); i++) {
+                String gram = domain.substring(i, i + GRAM);
+                TreeSet<String> domains = _grams.get(gram);
+                if (domains == null) {
+                    domains = new TreeSet<>();
+                    _grams.put(gram, domains);
+                }
+                domains.add(domain);
+            }
+        }
+        entries.add(entry);
+    }
+
+    /** Removes an entry from the index.
+     *
+     * @param entry The entry, in the index.
+     */
+    void remove(Entry entry) {
+        String domain = fold(entry.domain);
+        TreeSet<Entry> entries = _domains.get(domain);
+        if (entries == null || !entries.remove(entry) || !entries.isEmpty()) {
+            return;
+        }
+        _domains.remove(domain);
+        for (int i = 0; i + GRAM <= domain.length(); i++) {
+            String gram = domain.substring(i, i + GRAM);
+            TreeSet<String> domains = _grams.get(gram);
+            if (domains != null) {
+                domains.remove(domain);
+                if (domains.isEmpty()) {
+                    _grams.remove(gram);
+                }
+            }
+        }
+    }
+
+    /** Returns the first entries whose domain starts with {@code prefix}, ignoring case.
+     *
+     * @param prefix The prefix of the domains.
+     * @param limit  The maximal number of entries returned.
+     * @return the matching entries, sorted.
+     */
+    List<Entry> findByPrefix(String prefix, int limit) {
+        String folded = fold(prefix);
+        List<Entry> result = new ArrayList<>(Math.min(limit, 16));
+        for (Map.Entry<String, TreeSet<Entry>> domain : _domains.tailMap(folded, true).entrySet()) {
+            if (result.size() >= limit || !domain.getKey().startsWith(folded)) {
+                break;
+            }
+            addAll(domain.getValue(), result, limit);
+        }
+        return result;
+    }
+
+    /** Returns the first entries whose domain contains {@code substring}, ignoring case.
+     *
+     * @param substring The substring of the domains.
+     * @param limit     The maximal number of entries returned.
+     * @return the matching entries, sorted.
+     */
+    List<Entry> findBySubstring(String substring, int limit) {
+        String folded = fold(substring);
+        List<Entry> result = new ArrayList<>(Math.min(limit, 16));
+
+        // Queries shorter than a trigram match most domains, so scanning in order stops early.
+        Collection<String> candidates = _domains.keySet();
+        for (int i = 0; i + GRAM <= folded.length(); i++) {
+            TreeSet<String> domains = _grams.get(folded.substring(i, i + GRAM));
+            if (domains == null) {
+                return result;
+            }
+            if (candidates == _domains.keySet() || domains.size() < candidates.size()) {
+                candidates = domains;
+            }
+        }
+
+        for (String domain : candidates) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (domain.contains(folded)) {
+                addAll(_domains.get(domain), result, limit);
+            }
+        }
+        return result;
+    }
+
+    /** Adds entries to a result list, up to a limit.
+     *
+     * @param entries The entries to add.
+     * @param result  The result list.
+     * @param limit   The maximal size of the result list.
+     */
+    private static void addAll(Collection<Entry> entries, List<Entry> result, int limit) {
+        for (Entry entry : entries) {
+            if (result.size() >= limit) {
+                return;
+            }
+            result.add(entry);
+        }
+    }
+}
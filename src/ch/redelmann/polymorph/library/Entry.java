@@ -1,8 +1,8 @@
 package ch.redelmann.polymorph.library;
 
-import ch.redelmann.polymorph.library.schema.Alphanumeric;
 import ch.redelmann.polymorph.library.schema.Safe;
 import ch.redelmann.polymorph.library.schema.Schema;
+import ch.redelmann.polymorph.library.schema.SchemaRegistry;
 import org.json.JSONObject;
 
 import java.util.Objects;
@@ -42,21 +42,10 @@ public class Entry {
         String schemaName = root.optString(KEY_SCHEMA, Safe.NAME);
         int version = root.optInt(KEY_VERSION, 0);
 
-        Schema schema;
-        switch (schemaName) {
-            case Safe.NAME: {
-                int schemaSize = root.optInt(KEY_SIZE, Safe.DEFAULT_SIZE);
-                schema = new Safe(schemaSize);
-                break;
-            }
-            case Alphanumeric.NAME: {
-                int schemaSize = root.optInt(KEY_SIZE, Alphanumeric.DEFAULT_SIZE);
-                schema = new Alphanumeric(schemaSize);
-                break;
-            }
-            default:
-                throw new IllegalArgumentException("Unknown schema name " + schemaName);
-        }
+        // Schemas are shared by all entries with the same name and size.
+        SchemaRegistry registry = SchemaRegistry.getDefault();
+        int schemaSize = root.optInt(KEY_SIZE, registry.getFactory(schemaName).getDefaultSize());
+        Schema schema = registry.get(schemaName, schemaSize);
 
         return new Entry(domain, schema, version);
     }
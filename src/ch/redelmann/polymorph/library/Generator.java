@@ -1,22 +1,138 @@
 package ch.redelmann.polymorph.library;
 
+import ch.redelmann.polymorph.library.metrics.Metrics;
+import ch.redelmann.polymorph.library.metrics.Stage;
+
 import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 /** Deterministic generator.
  *
  * Contains an inner state from which values can be consumed.
+ * The state is kept as an array of limbs which is divided in place,
+ * so that drawing values does not allocate.
+ *
+ * An extended generator never runs out of entropy: whenever the state becomes
+ * too small for the next draw, more bits derived from the seed are appended
+ * above the most significant limb.
  */
 public class Generator {
 
-    /** Current state of the generator. */
-    private BigInteger _value;
+    /** Number of bits of the state that must remain above the size of a draw for an extended generator. */
+    private static final int MARGIN = 64;
+
+    /** Current state of the generator, as 32-bit limbs, least significant first. */
+    private int[] _limbs;
+
+    /** Number of significant limbs of the state. */
+    private int _length;
+
+    /** The initial seed of an extended generator, or {@code null}. */
+    private byte[] _seed;
+
+    /** Number of times the state of an extended generator has been extended. */
+    private int _extensions;
 
     /** Builds a generator using an initial seed.
      *
-     * @param seed The initial seed.
+     * @param seed The initial seed. Must be non-negative.
      */
     public Generator(BigInteger seed) {
-        _value = seed;
+        assert(seed.signum() >= 0);
+
+        _limbs = new int[0];
+        setValue(seed);
+    }
+
+    /** Builds a generator using an initial seed given as bytes.
+     *
+     * @param seed The initial seed, as an unsigned integer in little-endian byte order.
+     */
+    public Generator(byte[] seed) {
+        this(seed, false);
+    }
+
+    /** Builds a generator using an initial seed given as bytes.
+     *
+     * @param seed     The initial seed, as an unsigned integer in little-endian byte order.
+     * @param extended Whether the state is extended with bits derived from the seed
+     *                 when it runs low. Draws are unchanged as long as the state is large enough.
+     */
+    public Generator(byte[] seed, boolean extended) {
+        _limbs = new int[(seed.length + 3) / 4];
+        _length = 0;
+        append(seed);
+        if (extended) {
+            _seed = seed.clone();
+        }
+    }
+
+    /** Overwrites the state of the generator with zeros. */
+    public void wipe() {
+        Arrays.fill(_limbs, 0);
+        _length = 0;
+        if (_seed != null) {
+            Arrays.fill(_seed, (byte) 0);
+        }
+    }
+
+    /** Returns the number of bits of the current state.
+     *
+     * @return the size in bits of the state.
+     */
+    private int bitLength() {
+        if (_length == 0) {
+            return 0;
+        }
+        return 32 * _length - Integer.numberOfLeadingZeros(_limbs[_length - 1]);
+    }
+
+    /** Makes sure the state has enough bits for a draw, if the generator is extended.
+     *
+     * @param bits The number of bits of the number of values of the draw.
+     */
+    private void ensureEntropy(int bits) {
+        while (_seed != null && bitLength() < bits + MARGIN) {
+            append(nextBlock());
+        }
+    }
+
+    /** Appends bytes above the most significant limb of the state.
+     *
+     * @param bytes The bytes, as an unsigned integer in little-endian byte order.
+     */
+    private void append(byte[] bytes) {
+        int offset = _length;
+        int length = offset + (bytes.length + 3) / 4;
+        if (_limbs.length < length) {
+            _limbs = Arrays.copyOf(_limbs, length);
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            _limbs[offset + (i >> 2)] |= (bytes[i] & 0xFF) << (8 * (i & 3));
+        }
+        _length = length;
+        while (_length > 0 && _limbs[_length - 1] == 0) {
+            _length--;
+        }
+    }
+
+    /** Derives the next block of bits from the seed, in counter mode.
+     *
+     * @return the SHA-512 hash of the seed followed by the big-endian counter.
+     */
+    private byte[] nextBlock() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-512");
+            digest.update(_seed);
+            int counter = _extensions++;
+            digest.update(new byte[]{
+                    (byte) (counter >>> 24), (byte) (counter >>> 16), (byte) (counter >>> 8), (byte) counter });
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-512 is not available.", e);
+        }
     }
 
     /** Generates an integer between 0 inclusive and {@code numberOfValues} exclusive.
@@ -25,7 +141,69 @@ public class Generator {
      * @return an integer between 0 inclusive and {@code numberOfValues} exclusive.
      */
     public int nextInt(int numberOfValues) {
-        return nextBigInteger(BigInteger.valueOf(numberOfValues)).intValue();
+        assert(numberOfValues > 0);
+
+        ensureEntropy(32 - Integer.numberOfLeadingZeros(numberOfValues));
+
+        // Dividing the state in place, from the most significant limb.
+        long divisor = numberOfValues;
+        long remainder = 0;
+        int[] limbs = _limbs;
+        for (int i = _length - 1; i >= 0; i--) {
+            long current = (remainder << 32) | (limbs[i] & 0xFFFFFFFFL);
+            long quotient = current / divisor;
+            limbs[i] = (int) quotient;
+            remainder = current - quotient * divisor;
+        }
+        while (_length > 0 && limbs[_length - 1] == 0) {
+            _length--;
+        }
+        return (int) remainder;
+    }
+
+    /** Generates {@code count} integers between 0 inclusive and {@code numberOfValues} exclusive.
+     *
+     * The integers are the ones that {@code count} successive calls to {@link #nextInt(int)} would return.
+     * Unless the generator is extended, as many of them as fit in an {@code int} are drawn
+     * with a single division of the state, as the digits of an integer in base {@code numberOfValues}.
+     *
+     * @param numberOfValues The number of values to choose from. Must be strictly positive.
+     * @param output         Receives the integers.
+     * @param offset         The index in {@code output} of the first integer.
+     * @param count          The number of integers to generate.
+     */
+    public void nextInts(int numberOfValues, int[] output, int offset, int count) {
+        assert(numberOfValues > 0 && count >= 0);
+
+        if (_seed != null || numberOfValues == 1) {
+            // Extended generators may extend their state between draws.
+            for (int i = 0; i < count; i++) {
+                output[offset + i] = nextInt(numberOfValues);
+            }
+            return;
+        }
+
+        int group = 1;
+        long divisor = numberOfValues;
+        while (divisor * numberOfValues <= Integer.MAX_VALUE) {
+            divisor *= numberOfValues;
+            group++;
+        }
+        while (count > 0) {
+            if (count < group) {
+                group = count;
+                divisor = 1;
+                for (int i = 0; i < group; i++) {
+                    divisor *= numberOfValues;
+                }
+            }
+            int digits = nextInt((int) divisor);
+            for (int i = 0; i < group; i++) {
+                output[offset++] = digits % numberOfValues;
+                digits /= numberOfValues;
+            }
+            count -= group;
+        }
     }
 
     /** Generates an integer between 0 inclusive and {@code numberOfValues} exclusive.
@@ -36,11 +214,49 @@ public class Generator {
     public BigInteger nextBigInteger(BigInteger numberOfValues) {
         assert(numberOfValues.compareTo(BigInteger.ZERO) > 0);
 
-        BigInteger[] divRem = _value.divideAndRemainder(numberOfValues);
-        _value = divRem[0];
+        if (numberOfValues.bitLength() < 32) {
+            return BigInteger.valueOf(nextInt(numberOfValues.intValue()));
+        }
+
+        ensureEntropy(numberOfValues.bitLength());
+
+        BigInteger[] divRem = getValue().divideAndRemainder(numberOfValues);
+        setValue(divRem[0]);
         return divRem[1];
     }
 
+    /** Returns the current state of the generator.
+     *
+     * @return the state, as a non-negative integer.
+     */
+    private BigInteger getValue() {
+        byte[] bytes = new byte[4 * _length + 1];
+        for (int i = 0; i < 4 * _length; i++) {
+            bytes[bytes.length - 1 - i] = (byte) (_limbs[i >> 2] >>> (8 * (i & 3)));
+        }
+        return new BigInteger(bytes);
+    }
+
+    /** Replaces the current state of the generator.
+     *
+     * @param value The new state, a non-negative integer.
+     */
+    private void setValue(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        int length = (bytes.length + 3) / 4;
+        if (_limbs.length < length) {
+            _limbs = new int[length];
+        }
+        Arrays.fill(_limbs, 0);
+        for (int i = 0; i < bytes.length; i++) {
+            _limbs[i >> 2] |= (bytes[bytes.length - 1 - i] & 0xFF) << (8 * (i & 3));
+        }
+        _length = length;
+        while (_length > 0 && _limbs[_length - 1] == 0) {
+            _length--;
+        }
+    }
+
     /** Generates an integer between {@code min} and {@code max} inclusive.
      *
      * @param min The minimal integer that can be generated.
@@ -116,19 +332,32 @@ public class Generator {
     /** Generates a permutation of the input {@code string}.
      *
      * @param string The string from which to take a permutation.
-     *               The size of the string must not exceed 20 characters.
+     *               Unless the generator is extended, the size of the string must not exceed 20 characters.
      * @return a permutation of the input {@code string}.
      */
     public String nextPermutation(String string) {
+        char[] chars = string.toCharArray();
+        nextPermutation(chars, chars.length);
+        return new String(chars);
+    }
 
-        // Computing the number of permutations.
-        BigInteger numberPermutations = BigInteger.ONE;
-        for (long i = 2; i <= string.length(); i++) {
-            numberPermutations = numberPermutations.multiply(BigInteger.valueOf(i));
-        }
+    /** Permutes the first {@code length} characters of {@code chars}, in place.
+     *
+     * @param chars  The characters to permute.
+     * @param length The number of characters to permute.
+     */
+    public void nextPermutation(char[] chars, int length) {
+        Metrics.Timing timing = Metrics.start(Stage.PERMUTATION);
 
-        // Picking one of those permutations.
-        BigInteger k = nextBigInteger(numberPermutations);
-        return Permutation.getKthPermutation(string, k);
+        // Picking one of the length! permutations, digit by digit.
+        // Drawing the digits in turn is the same as drawing a number below length!
+        // and then computing its mixed radix representation.
+        int[] radices = new int[length];
+        for (int i = 0; i < length; i++) {
+            radices[i] = nextInt(length - i);
+        }
+        Permutation.applyRadices(chars, length, radices);
+        Arrays.fill(radices, 0);
+        Metrics.stop(timing);
     }
 }
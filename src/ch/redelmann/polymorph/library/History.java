@@ -1,6 +1,8 @@
 package ch.redelmann.polymorph.library;
 
-import org.json.*;
+import ch.redelmann.polymorph.library.metrics.Metrics;
+import ch.redelmann.polymorph.library.metrics.Stage;
+import org.json.JSONException;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -11,30 +13,36 @@ import java.util.TreeSet;
 /** History contains a sorted collection of unique entries. */
 public class History {
 
+    /** Order of the entries. Entries that compare equal are considered the same entry. */
+    public static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            // Compare by name.
+            int compareDomain = String.CASE_INSENSITIVE_ORDER.compare(o1.domain, o2.domain);
+            if (compareDomain != 0) {
+                return compareDomain;
+            }
+
+            // And then by schema name.
+            int compareSchemaName = String.CASE_INSENSITIVE_ORDER.compare(o1.schema.getName(), o2.schema.getName());
+            if (compareSchemaName != 0) {
+                return compareSchemaName;
+            }
+
+            // And finally schema size.
+            return o1.schema.getSize() - o2.schema.getSize();
+        }
+    };
+
     /** The set of entries. */
     private final TreeSet<Entry> _entries;
 
+    /** Index of the domains, built on the first search. */
+    private DomainIndex _index = null;
+
     /** Builds an empty {@code History}. */
     public History() {
-        _entries = new TreeSet<>(new Comparator<Entry>() {
-            @Override
-            public int compare(Entry o1, Entry o2) {
-                // Compare by name.
-                int compareDomain = String.CASE_INSENSITIVE_ORDER.compare(o1.domain, o2.domain);
-                if (compareDomain != 0) {
-                    return compareDomain;
-                }
-
-                // And then by schema name.
-                int compareSchemaName = String.CASE_INSENSITIVE_ORDER.compare(o1.schema.getName(), o2.schema.getName());
-                if (compareSchemaName != 0) {
-                    return compareSchemaName;
-                }
-
-                // And finally schema size.
-                return o1.schema.getSize() - o2.schema.getSize();
-            }
-        });
+        _entries = new TreeSet<>(ORDER);
     }
 
     /** Builds an {@code History} from a list of entries.
@@ -54,22 +62,15 @@ public class History {
      * @throws IOException if the stream produces an {@code IOException}.
      */
     public static History loadFrom(InputStream input) throws JSONException, IOException {
-        ArrayList<Entry> entries = new ArrayList<>();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(input));
-        StringBuilder builder = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            builder.append(line);
-        }
-        JSONArray array = new JSONArray(new JSONTokener(builder.toString()));
-        for (int i = 0; i < array.length(); i++) {
-            JSONObject object = array.optJSONObject(i);
-            if (object != null) {
-                Entry entry = Entry.fromJSON(object);
-                entries.add(entry);
-            }
+        Metrics.Timing timing = Metrics.start(Stage.HISTORY_LOAD);
+        History history = new History();
+        HistoryReader reader = new HistoryReader(input);
+        Entry entry;
+        while ((entry = reader.read()) != null) {
+            history.add(entry);
         }
-        return new History(entries);
+        Metrics.stop(timing);
+        return history;
     }
 
     /** Saves the JSON representation of {@code this} {@code History} to an output stream.
@@ -78,13 +79,13 @@ public class History {
      * @throws IOException if the output throws an {@code IOException} when written.
      */
     public void saveTo(OutputStream output) throws IOException {
-        Writer writer = new OutputStreamWriter(output);
-        JSONArray json = new JSONArray();
+        Metrics.Timing timing = Metrics.start(Stage.HISTORY_SAVE);
+        HistoryWriter writer = new HistoryWriter(output);
         for (Entry entry : _entries) {
-            json.put(entry.toJSON());
+            writer.write(entry);
         }
-        writer.write(json.toString());
-        writer.flush();
+        writer.finish();
+        Metrics.stop(timing);
     }
 
     /** Adds an {@code entry}. Has no effect if the entry already exists.
@@ -92,7 +93,9 @@ public class History {
      * @param entry The entry to add.
      */
     public void add(Entry entry) {
-        _entries.add(entry);
+        if (_entries.add(entry) && _index != null) {
+            _index.add(entry);
+        }
     }
 
     /** Removes an {@code entry}. Has no effect if the entry does not exist.
@@ -100,7 +103,9 @@ public class History {
      * @param entry The entry to remove.
      */
     public void remove(Entry entry) {
-        _entries.remove(entry);
+        if (_entries.remove(entry) && _index != null) {
+            _index.remove(entry);
+        }
     }
 
     /** Returns all entries.
@@ -110,4 +115,38 @@ public class History {
     public List<Entry> getAll() {
         return new ArrayList<>(_entries);
     }
+
+    /** Returns the first entries whose domain starts with {@code prefix}, ignoring case.
+     *
+     * @param prefix The prefix of the domains.
+     * @param limit  The maximal number of entries returned.
+     * @return the matching entries, sorted.
+     */
+    public List<Entry> findByPrefix(String prefix, int limit) {
+        return index().findByPrefix(prefix, limit);
+    }
+
+    /** Returns the first entries whose domain contains {@code substring}, ignoring case.
+     *
+     * @param substring The substring of the domains.
+     * @param limit     The maximal number of entries returned.
+     * @return the matching entries, sorted.
+     */
+    public List<Entry> findBySubstring(String substring, int limit) {
+        return index().findBySubstring(substring, limit);
+    }
+
+    /** Returns the index of the domains, building it if needed.
+     *
+     * @return the index of the domains.
+     */
+    private DomainIndex index() {
+        if (_index == null) {
+            _index = new DomainIndex();
+            for (Entry entry : _entries) {
+                _index.add(entry);
+            }
+        }
+        return _index;
+    }
 }
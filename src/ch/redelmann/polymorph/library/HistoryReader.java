@@ -0,0 +1,110 @@
+package ch.redelmann.polymorph.library;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.*;
+
+/** Reads the entries of a JSON {@code History} one at a time.
+ *
+ * Only the entry being read is held in memory, so arbitrarily large histories can be processed.
+ * Accepts the same documents as {@link History#loadFrom(InputStream)}.
+ */
+public class HistoryReader implements Closeable {
+
+    /** The reader of the underlying stream. */
+    private final Reader _reader;
+
+    /** Tokenizer reading from {@code _reader}. */
+    private final JSONTokener _tokener;
+
+    /** Whether the opening bracket of the array has been read. */
+    private boolean _started = false;
+
+    /** Whether the closing bracket of the array has been read. */
+    private boolean _finished = false;
+
+    /** Builds a reader of the JSON representation of a {@code History}.
+     *
+     * @param input The input stream, containing a JSON description of a {@code History}.
+     */
+    public HistoryReader(InputStream input) {
+        _reader = new BufferedReader(new InputStreamReader(input));
+        _tokener = new JSONTokener(_reader);
+    }
+
+    /** Reads the next entry.
+     *
+     * @return the next entry, or {@code null} if all entries have been read.
+     * @throws JSONException if the stream does not contain a valid representation.
+     * @throws IOException if the stream produces an {@code IOException}.
+     */
+    public Entry read() throws JSONException, IOException {
+        try {
+            while (!_finished) {
+                JSONObject object = nextObject();
+                if (object != null) {
+                    return Entry.fromJSON(object);
+                }
+            }
+            return null;
+        } catch (JSONException e) {
+            // The tokenizer reports failures of the stream as JSON exceptions.
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /** Reads the next element of the array.
+     *
+     * @return the next element if it is an object, {@code null} otherwise.
+     * @throws JSONException if the stream does not contain a valid representation.
+     */
+    private JSONObject nextObject() throws JSONException {
+        if (!_started) {
+            if (_tokener.nextClean() != '[') {
+                throw _tokener.syntaxError("A JSONArray text must start with '['");
+            }
+            _started = true;
+            if (_tokener.nextClean() == ']') {
+                _finished = true;
+                return null;
+            }
+            _tokener.back();
+        }
+
+        // Empty elements, as in [a,,b], are ignored.
+        Object value = null;
+        if (_tokener.nextClean() == ',') {
+            _tokener.back();
+        } else {
+            _tokener.back();
+            value = _tokener.nextValue();
+        }
+
+        switch (_tokener.nextClean()) {
+            case ',':
+                if (_tokener.nextClean() == ']') {
+                    _finished = true;
+                } else {
+                    _tokener.back();
+                }
+                break;
+            case ']':
+                _finished = true;
+                break;
+            default:
+                throw _tokener.syntaxError("Expected a ',' or ']'");
+        }
+
+        return value instanceof JSONObject ? (JSONObject) value : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _reader.close();
+    }
+}
@@ -0,0 +1,71 @@
+package ch.redelmann.polymorph.library;
+
+import java.io.*;
+
+/** Writes the JSON representation of a {@code History} one entry at a time.
+ *
+ * The output is identical to the one of {@link History#saveTo(OutputStream)}
+ * when entries are written in the order of the history.
+ */
+public class HistoryWriter implements Closeable, Flushable {
+
+    /** The writer of the underlying stream. */
+    private final Writer _writer;
+
+    /** Number of entries written so far. */
+    private long _count = 0;
+
+    /** Whether the closing bracket of the array has been written. */
+    private boolean _finished = false;
+
+    /** Builds a writer of the JSON representation of a {@code History}.
+     *
+     * @param output The output stream.
+     */
+    public HistoryWriter(OutputStream output) {
+        _writer = new BufferedWriter(new OutputStreamWriter(output));
+    }
+
+    /** Writes an entry.
+     *
+     * @param entry The entry to write.
+     * @throws IOException if the output throws an {@code IOException} when written.
+     */
+    public void write(Entry entry) throws IOException {
+        assert(!_finished);
+
+        _writer.write(_count == 0 ? '[' : ',');
+        entry.toJSON().write(_writer);
+        _count++;
+    }
+
+    /** Completes the JSON representation and flushes it, without closing the output stream.
+     *
+     * @throws IOException if the output throws an {@code IOException} when written.
+     */
+    public void finish() throws IOException {
+        if (!_finished) {
+            _writer.write(_count == 0 ? "[]" : "]");
+            _finished = true;
+        }
+        _writer.flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        _writer.flush();
+    }
+
+    /** Completes the JSON representation and closes the output stream.
+     *
+     * @throws IOException if the output throws an {@code IOException} when written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            _writer.close();
+        }
+    }
+}
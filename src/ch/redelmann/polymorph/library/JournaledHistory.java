@@ -0,0 +1,626 @@
+package ch.redelmann.polymorph.library;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** {@link History} persisted in a directory as a JSON snapshot and an append-only journal.
+ *
+ * Each change is appended to the journal as a single line, so that its cost does not depend
+ * on the size of the history. When the journals grow past a threshold, a background thread
+ * starts a new journal, writes a snapshot of the history in the JSON format of
+ * {@link History#saveTo(OutputStream)} next to the previous one, atomically renames it over the
+ * previous one, and deletes the journals that the snapshot includes.
+ *
+ * Opening a directory loads the snapshot and replays the journals in order. Replaying a journal
+ * that is already included in the snapshot, as happens after a crash between the rename and the
+ * deletion, leaves the history unchanged. An incomplete last line, left by a crash during a write,
+ * is ignored.
+ *
+ * Reads are lock-free and see a consistent point-in-time view. Writers are serialized.
+ */
+public class JournaledHistory implements Closeable {
+
+    /** When changes are forced to the storage device. */
+    public enum Durability {
+        /** Changes are written to the operating system, and survive a crash of the process only. */
+        NONE,
+        /** Changes are forced to the device, each writer waiting for a single force shared with concurrent writers. */
+        GROUP,
+        /** Changes are forced to the device one by one. */
+        SYNC
+    }
+
+    /** Default size in bytes of the journals from which they are compacted. */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 1 << 20;
+
+    /** Name of the snapshot file. */
+    static final String SNAPSHOT = "history.json";
+
+    /** Name of the snapshot file being written. */
+    private static final String TEMPORARY = SNAPSHOT + ".tmp";
+
+    /** Names of the journal files, containing their generation. */
+    private static final Pattern JOURNAL = Pattern.compile("journal-(\\d+)\\.log");
+
+    /** Prefix of the lines that add an entry. */
+    private static final char ADD = '+';
+
+    /** Prefix of the lines that remove an entry. */
+    private static final char REMOVE = '-';
+
+    /** Prefix of the lines that remove and then add entries atomically. */
+    private static final char BATCH = '*';
+
+    private static final String KEY_ADD = "add";
+    private static final String KEY_REMOVE = "remove";
+
+    /** The directory of the snapshot and journals. */
+    private final Path _directory;
+
+    /** When changes are forced to the device. */
+    private final Durability _durability;
+
+    /** Size of the journals from which they are compacted. */
+    private final long _compactionThreshold;
+
+    /** The entries. Only modified while holding {@link #_lock}. */
+    private final ConcurrentHistory _history;
+
+    /** Lock of the writers, guarding the journal. */
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    /** Thread writing snapshots. */
+    private final ExecutorService _compactor;
+
+    /** The current journal, or {@code null} once closed. */
+    private FileChannel _journal;
+
+    /** Generation of the current journal. */
+    private long _generation;
+
+    /** Size of the journals not yet included in a snapshot. */
+    private long _journalSize;
+
+    /** Number of lines appended so far. */
+    private long _appended = 0;
+
+    /** Last compaction started. Compactions run one after the other, in order. */
+    private Future<?> _compaction = null;
+
+    /** Monitor of the group commits. */
+    private final Object _syncMonitor = new Object();
+
+    /** Number of lines known to be forced to the device. Guarded by {@link #_syncMonitor}. */
+    private long _synced = 0;
+
+    /** Whether a thread is currently forcing the journal. Guarded by {@link #_syncMonitor}. */
+    private boolean _syncing = false;
+
+    private JournaledHistory(Path directory, Durability durability, long compactionThreshold,
+                             ConcurrentHistory history, long generation, long journalSize) throws IOException {
+        _directory = directory;
+        _durability = durability;
+        _compactionThreshold = compactionThreshold;
+        _history = history;
+        _generation = generation;
+        _journalSize = journalSize;
+        _journal = openJournal(directory, generation);
+        _compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "polymorph-history-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Opens the history of a directory, with group commits and the default compaction threshold.
+     *
+     * @param directory The directory, created if needed.
+     * @return the history.
+     * @throws JSONException if the snapshot or a journal is not valid.
+     * @throws IOException if the directory can not be read or written.
+     */
+    public static JournaledHistory open(Path directory) throws JSONException, IOException {
+        return open(directory, Durability.GROUP, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /** Opens the history of a directory.
+     *
+     * @param directory           The directory, created if needed.
+     * @param durability          When changes are forced to the storage device.
+     * @param compactionThreshold Size in bytes of the journals from which they are compacted in the background.
+     * @return the history.
+     * @throws JSONException if the snapshot or a journal is not valid.
+     * @throws IOException if the directory can not be read or written.
+     */
+    public static JournaledHistory open(Path directory, Durability durability, long compactionThreshold)
+            throws JSONException, IOException {
+        assert(compactionThreshold > 0);
+
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(TEMPORARY));
+
+        ConcurrentHistory history;
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            try (InputStream input = new BufferedInputStream(Files.newInputStream(snapshot))) {
+                history = ConcurrentHistory.loadFrom(input);
+            }
+        } else {
+            history = new ConcurrentHistory();
+        }
+
+        long generation = 0;
+        long journalSize = 0;
+        for (Map.Entry<Long, Path> journal : journals(directory).entrySet()) {
+            replay(journal.getValue(), history);
+            generation = journal.getKey();
+            journalSize += Files.size(journal.getValue());
+        }
+
+        // Appending to a new journal, as the last one may end with an incomplete line.
+        return new JournaledHistory(directory, durability, compactionThreshold,
+                history, generation + 1, journalSize);
+    }
+
+    /** Adds an {@code entry}. Has no effect if the entry already exists.
+     *
+     * @param entry The entry to add.
+     * @throws IOException if the journal can not be written.
+     */
+    public void add(Entry entry) throws IOException {
+        long sequence;
+        _lock.lock();
+        try {
+            if (_history.contains(entry)) {
+                return;
+            }
+            sequence = append(ADD + entry.toJSON().toString(), () -> _history.add(entry));
+        } finally {
+            _lock.unlock();
+        }
+        awaitSync(sequence);
+    }
+
+    /** Removes an {@code entry}. Has no effect if the entry does not exist.
+     *
+     * @param entry The entry to remove.
+     * @throws IOException if the journal can not be written.
+     */
+    public void remove(Entry entry) throws IOException {
+        long sequence;
+        _lock.lock();
+        try {
+            if (!_history.contains(entry)) {
+                return;
+            }
+            sequence = append(REMOVE + entry.toJSON().toString(), () -> _history.remove(entry));
+        } finally {
+            _lock.unlock();
+        }
+        awaitSync(sequence);
+    }
+
+    /** Atomically removes and then adds entries.
+     *
+     * The batch is journaled as a single line, so that it is replayed entirely or not at all.
+     *
+     * @param removed The entries to remove.
+     * @param added   The entries to add, after the removals.
+     * @throws IOException if the journal can not be written.
+     * @see ConcurrentHistory#update(Collection, Collection)
+     */
+    public void update(Collection<Entry> removed, Collection<Entry> added) throws IOException {
+        JSONObject batch = new JSONObject();
+        batch.put(KEY_REMOVE, toJSON(removed));
+        batch.put(KEY_ADD, toJSON(added));
+
+        long sequence;
+        _lock.lock();
+        try {
+            sequence = append(BATCH + batch.toString(), () -> _history.update(removed, added));
+        } finally {
+            _lock.unlock();
+        }
+        awaitSync(sequence);
+    }
+
+    /** Checks whether an entry exists.
+     *
+     * @param entry The entry.
+     * @return {@code true} if an entry that compares equal exists.
+     */
+    public boolean contains(Entry entry) {
+        return _history.contains(entry);
+    }
+
+    /** Returns all entries.
+     *
+     * @return all entries, sorted.
+     */
+    public List<Entry> getAll() {
+        return _history.getAll();
+    }
+
+    /** Returns the first entries whose domain starts with {@code prefix}, ignoring case.
+     *
+     * @param prefix The prefix of the domains.
+     * @param limit  The maximal number of entries returned.
+     * @return the matching entries, sorted.
+     */
+    public List<Entry> findByPrefix(String prefix, int limit) {
+        return _history.findByPrefix(prefix, limit);
+    }
+
+    /** Returns the first entries whose domain contains {@code substring}, ignoring case.
+     *
+     * @param substring The substring of the domains.
+     * @param limit     The maximal number of entries returned.
+     * @return the matching entries, sorted.
+     */
+    public List<Entry> findBySubstring(String substring, int limit) {
+        return _history.findBySubstring(substring, limit);
+    }
+
+    /** Returns a point-in-time copy of the entries, in constant time.
+     *
+     * @return the snapshot, which is not persisted.
+     */
+    public ConcurrentHistory snapshot() {
+        return _history.snapshot();
+    }
+
+    /** Exports the JSON representation of a snapshot of the history to an output stream.
+     *
+     * @param output The output stream.
+     * @throws IOException if the output throws an {@code IOException} when written.
+     */
+    public void saveTo(OutputStream output) throws IOException {
+        _history.saveTo(output);
+    }
+
+    /** Writes a snapshot of the current entries and deletes the journals it includes.
+     *
+     * Waits for the snapshot to be written.
+     *
+     * @throws IOException if the snapshot can not be written.
+     */
+    public void compact() throws IOException {
+        Future<?> compaction;
+        _lock.lock();
+        try {
+            compaction = startCompaction();
+            _compaction = compaction;
+        } finally {
+            _lock.unlock();
+        }
+        await(compaction);
+    }
+
+    /** Waits for the pending compactions, forces and closes the journal.
+     *
+     * @throws IOException if the journal can not be closed, or if a pending compaction failed.
+     */
+    @Override
+    public void close() throws IOException {
+        Future<?> compaction;
+        _lock.lock();
+        try {
+            if (_journal == null) {
+                return;
+            }
+            compaction = _compaction;
+            _compactor.shutdown();
+            _journal.force(false);
+            _journal.close();
+            _journal = null;
+        } finally {
+            _lock.unlock();
+        }
+        if (compaction != null) {
+            await(compaction);
+        }
+    }
+
+    /** Appends a line to the journal, applies its change, and starts a compaction if the journals are large enough.
+     *
+     * Must be called while holding the lock.
+     *
+     * @param line   The line, without the line separator.
+     * @param change The change of the entries, applied once journaled.
+     * @return the sequence number of the line.
+     * @throws IOException if the journal can not be written.
+     */
+    private long append(String line, Runnable change) throws IOException {
+        if (_journal == null) {
+            throw new ClosedChannelException();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap((line + '\n').getBytes(StandardCharsets.UTF_8));
+        long position = _journal.position();
+        try {
+            while (buffer.hasRemaining()) {
+                _journal.write(buffer);
+            }
+            if (_durability == Durability.SYNC) {
+                _journal.force(false);
+            }
+        } catch (IOException e) {
+            // The change is not applied, so any part of its line written is removed, lest the next lines follow it.
+            try {
+                _journal.truncate(position);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        _journalSize += buffer.capacity();
+        long sequence = ++_appended;
+        change.run();
+
+        if (_journalSize >= _compactionThreshold && (_compaction == null || _compaction.isDone())) {
+            _compaction = startCompaction();
+        }
+        return sequence;
+    }
+
+    /** Waits until a line is forced to the device, if group commits are enabled.
+     *
+     * The first waiting thread forces all lines appended so far, while the others wait for it.
+     *
+     * @param sequence The sequence number of the line.
+     * @throws IOException if the journal can not be forced.
+     */
+    private void awaitSync(long sequence) throws IOException {
+        if (_durability != Durability.GROUP) {
+            return;
+        }
+        synchronized (_syncMonitor) {
+            while (_syncing && _synced < sequence) {
+                try {
+                    _syncMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the journal.");
+                }
+            }
+            if (_synced >= sequence) {
+                return;
+            }
+            _syncing = true;
+        }
+
+        long target = sequence;
+        boolean forced = false;
+        try {
+            FileChannel journal;
+            _lock.lock();
+            try {
+                target = _appended;
+                journal = _journal;
+            } finally {
+                _lock.unlock();
+            }
+            try {
+                if (journal != null) {
+                    journal.force(false);
+                }
+            } catch (ClosedChannelException e) {
+                // The journal was forced before being rotated or closed.
+            }
+            forced = true;
+        } finally {
+            synchronized (_syncMonitor) {
+                if (forced) {
+                    _synced = Math.max(_synced, target);
+                }
+                _syncing = false;
+                _syncMonitor.notifyAll();
+            }
+        }
+    }
+
+    /** Starts a new journal and schedules the writing of a snapshot of the entries.
+     *
+     * Must be called while holding the lock.
+     *
+     * @return the pending compaction.
+     * @throws IOException if the new journal can not be created.
+     */
+    private Future<?> startCompaction() throws IOException {
+        if (_journal == null) {
+            throw new ClosedChannelException();
+        }
+        final long generation = _generation;
+        // Snapshots must include the changes of the journals they replace,
+        // which are all applied since the lock is held.
+        final ConcurrentHistory snapshot = _history.snapshot();
+
+        FileChannel journal = openJournal(_directory, generation + 1);
+        if (_durability != Durability.NONE) {
+            _journal.force(false);
+        }
+        _journal.close();
+        _journal = journal;
+        _generation = generation + 1;
+        _journalSize = 0;
+        synchronized (_syncMonitor) {
+            _synced = Math.max(_synced, _appended);
+        }
+
+        return _compactor.submit(() -> {
+            writeSnapshot(snapshot, generation);
+            return null;
+        });
+    }
+
+    /** Writes a snapshot and deletes the journals that it includes.
+     *
+     * @param snapshot   The entries.
+     * @param generation The generation of the last journal included in the snapshot.
+     * @throws IOException if the snapshot can not be written.
+     */
+    private void writeSnapshot(ConcurrentHistory snapshot, long generation) throws IOException {
+        Path temporary = _directory.resolve(TEMPORARY);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel));
+            snapshot.saveTo(output);
+            output.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, _directory.resolve(SNAPSHOT),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(_directory);
+
+        for (Map.Entry<Long, Path> journal : journals(_directory).entrySet()) {
+            if (journal.getKey() <= generation) {
+                Files.deleteIfExists(journal.getValue());
+            }
+        }
+    }
+
+    /** Replays the lines of a journal.
+     *
+     * @param journal The journal.
+     * @param history The history to which the changes are applied.
+     * @throws JSONException if a line, other than the last one, is not valid.
+     * @throws IOException if the journal can not be read.
+     */
+    private static void replay(Path journal, ConcurrentHistory history) throws JSONException, IOException {
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            while (line != null) {
+                String next = reader.readLine();
+                try {
+                    apply(line, history);
+                } catch (JSONException e) {
+                    if (next != null) {
+                        throw e;
+                    }
+                    // The last line is incomplete.
+                }
+                line = next;
+            }
+        }
+    }
+
+    /** Applies a line of a journal.
+     *
+     * @param line    The line.
+     * @param history The history to which the change is applied.
+     * @throws JSONException if the line is not valid.
+     */
+    private static void apply(String line, ConcurrentHistory history) throws JSONException {
+        if (line.isEmpty()) {
+            throw new JSONException("Empty journal line.");
+        }
+        switch (line.charAt(0)) {
+            case ADD:
+                history.add(Entry.fromJSON(new JSONObject(line.substring(1))));
+                break;
+            case REMOVE:
+                history.remove(Entry.fromJSON(new JSONObject(line.substring(1))));
+                break;
+            case BATCH:
+                JSONObject batch = new JSONObject(line.substring(1));
+                history.update(fromJSON(batch.getJSONArray(KEY_REMOVE)), fromJSON(batch.getJSONArray(KEY_ADD)));
+                break;
+            default:
+                throw new JSONException("Unknown journal line.");
+        }
+    }
+
+    private static JSONArray toJSON(Collection<Entry> entries) {
+        JSONArray array = new JSONArray();
+        for (Entry entry : entries) {
+            array.put(entry.toJSON());
+        }
+        return array;
+    }
+
+    private static List<Entry> fromJSON(JSONArray array) throws JSONException {
+        List<Entry> entries = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            entries.add(Entry.fromJSON(array.getJSONObject(i)));
+        }
+        return entries;
+    }
+
+    /** Lists the journals of a directory.
+     *
+     * @param directory The directory.
+     * @return the journals, by generation.
+     * @throws IOException if the directory can not be listed.
+     */
+    private static SortedMap<Long, Path> journals(Path directory) throws IOException {
+        SortedMap<Long, Path> journals = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = JOURNAL.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    journals.put(Long.parseLong(matcher.group(1)), file);
+                }
+            }
+        }
+        return journals;
+    }
+
+    /** Creates a new journal.
+     *
+     * @param directory  The directory.
+     * @param generation The generation of the journal.
+     * @return the journal, opened for appending.
+     * @throws IOException if the journal can not be created.
+     */
+    private static FileChannel openJournal(Path directory, long generation) throws IOException {
+        Path journal = directory.resolve(String.format("journal-%06d.log", generation));
+        FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        syncDirectory(directory);
+        return channel;
+    }
+
+    /** Forces the entries of a directory to the device, where supported.
+     *
+     * @param directory The directory.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories can not be opened on all platforms.
+        }
+    }
+
+    /** Waits for a compaction.
+     *
+     * @param compaction The compaction.
+     * @throws IOException if the compaction failed.
+     */
+    private static void await(Future<?> compaction) throws IOException {
+        try {
+            compaction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the compaction.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Compaction failed.", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ch.redelmann.polymorph.library;
+
+import java.util.ServiceLoader;
+
+/** Key derivation function hashing the master password into the seed of passwords.
+ *
+ * The function is chosen by the {@link Configuration}, which holds three cost parameters,
+ * {@code logN}, {@code r} and {@code p}, interpreted by each function.
+ * Functions are identified by their name, persisted along with the configuration.
+ * Besides {@link #SCRYPT} and {@link #ARGON2ID}, functions found by {@link ServiceLoader} can be used.
+ */
+public interface KeyDerivationFunction {
+
+    /** SCrypt, with {@code N = 2^logN}, and {@code r} and {@code p} as such. The default function. */
+    KeyDerivationFunction SCRYPT = new SCryptFunction();
+
+    /** Argon2id, with {@code 2^logN} KiB of memory, {@code r} passes, and {@code p} lanes. */
+    KeyDerivationFunction ARGON2ID = new Argon2idFunction();
+
+    /** Returns the name of the function.
+     *
+     * @return the name of the function, as persisted in configurations.
+     */
+    String getName();
+
+    /** Returns whether the function accepts cost parameters.
+     *
+     * @param logN The first cost parameter.
+     * @param r    The second cost parameter.
+     * @param p    The third cost parameter.
+     * @return {@code true} if the parameters are valid.
+     */
+    boolean isValid(int logN, int r, int p);
+
+    /** Returns the memory used by a derivation.
+     *
+     * @param configuration The configuration.
+     * @return the size in bytes of the memory of a derivation.
+     */
+    long memoryBytes(Configuration configuration);
+
+    /** Derives a key.
+     *
+     * @param password       The password.
+     * @param passwordLength The number of bytes of {@code password} to use.
+     * @param salt           The salt.
+     * @param saltLength     The number of bytes of {@code salt} to use.
+     * @param configuration  The configuration holding the cost parameters.
+     * @param output         Receives the derived key. The whole array is filled.
+     */
+    void derive(byte[] password, int passwordLength, byte[] salt, int saltLength,
+                Configuration configuration, byte[] output);
+
+    /** Finds a function by its name.
+     *
+     * @param name The name of the function.
+     * @return the function with this name.
+     * @throws IllegalArgumentException if no function has this name.
+     */
+    static KeyDerivationFunction forName(String name) {
+        if (SCRYPT.getName().equals(name)) {
+            return SCRYPT;
+        }
+        if (ARGON2ID.getName().equals(name)) {
+            return ARGON2ID;
+        }
+        for (KeyDerivationFunction function : ServiceLoader.load(KeyDerivationFunction.class,
+                KeyDerivationFunction.class.getClassLoader())) {
+            if (function.getName().equals(name)) {
+                return function;
+            }
+        }
+        throw new IllegalArgumentException("Unknown key derivation function: " + name);
+    }
+}
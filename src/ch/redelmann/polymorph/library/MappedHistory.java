@@ -0,0 +1,411 @@
+package ch.redelmann.polymorph.library;
+
+import ch.redelmann.polymorph.library.schema.Schema;
+import ch.redelmann.polymorph.library.schema.SchemaRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/** Read-only history stored in a compact binary format, and accessed in place.
+ *
+ * The format consists of, in big-endian order:
+ * <ul>
+ *     <li>the magic number {@code "PMH1"} and the number of entries, as 4-byte integers,</li>
+ *     <li>the table of schema names, as a 1-byte count followed by 1-byte lengths and UTF-8 names,</li>
+ *     <li>the number of shared domain suffixes, as a varint,</li>
+ *     <li>the 4-byte offsets of the suffixes in the file,</li>
+ *     <li>the 4-byte offsets of the entries in the file, sorted by {@link History#ORDER},</li>
+ *     <li>the suffixes, each consisting of a varint length followed by the UTF-8 bytes of the suffix,</li>
+ *     <li>the entries, each consisting of the 1-byte schema id, and of varints for the schema size,
+ *         the version, the suffix id plus one (0 for none), and the length of the domain prefix,
+ *         followed by the UTF-8 bytes of the prefix.</li>
+ * </ul>
+ * Varints are unsigned, with 7 bits per byte, least significant group first.
+ *
+ * Opening a file maps it in memory and only decodes the table of schema names, regardless of
+ * the number of entries and suffixes. Entries and suffixes are decoded on demand, and lookups by domain
+ * use a binary search over the offsets. Instances are safe for use by multiple threads.
+ */
+public final class MappedHistory {
+
+    /** Magic number at the start of the files, {@code "PMH1"}. */
+    private static final int MAGIC = 0x504D4831;
+
+    /** Minimal length in bytes of the suffixes put in the dictionary. */
+    private static final int MIN_SUFFIX_LENGTH = 3;
+
+    /** The content of the file. */
+    private final ByteBuffer _buffer;
+
+    /** The number of entries. */
+    private final int _count;
+
+    /** The names of the schemas, by id. */
+    private final String[] _schemas;
+
+    /** The number of shared domain suffixes. */
+    private final int _suffixCount;
+
+    /** Position of the table of offsets of the suffixes. */
+    private final int _suffixOffsets;
+
+    /** Position of the table of offsets of the entries. */
+    private final int _offsets;
+
+    /** Reads a binary history from a buffer, which is not copied.
+     *
+     * @param buffer The content of a file written by {@link #write(Collection, OutputStream)}.
+     * @throws IOException if the buffer does not start with a valid header.
+     */
+    public MappedHistory(ByteBuffer buffer) throws IOException {
+        _buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (_buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a binary history.");
+            }
+            _count = _buffer.getInt(4);
+            int[] position = { 8 };
+
+            _schemas = new String[_buffer.get(position[0]++) & 0xFF];
+            for (int i = 0; i < _schemas.length; i++) {
+                _schemas[i] = string(position, _buffer.get(position[0]++) & 0xFF);
+            }
+
+            _suffixCount = varint(_buffer, position);
+            _suffixOffsets = position[0];
+            if (_suffixCount < 0 || _suffixOffsets + 4L * _suffixCount > _buffer.limit()) {
+                throw new IOException("Invalid binary history.");
+            }
+
+            _offsets = _suffixOffsets + 4 * _suffixCount;
+            if (_count < 0 || _offsets + 4L * _count > _buffer.limit()) {
+                throw new IOException("Invalid binary history.");
+            }
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Invalid binary history.", e);
+        }
+    }
+
+    /** Maps a binary history file in memory.
+     *
+     * @param file The file, written by {@link #write(Collection, OutputStream)}.
+     * @return the history.
+     * @throws IOException if the file can not be mapped, or does not start with a valid header.
+     */
+    public static MappedHistory open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Binary history too large.");
+            }
+            return new MappedHistory(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /** Writes entries in the binary format.
+     *
+     * @param entries The entries. Does not need to be sorted. Of entries that compare equal, the first one is kept.
+     * @param output  The output stream.
+     * @throws IOException if the output throws an {@code IOException} when written.
+     * @throws IllegalArgumentException if the entries use more than 255 different schemas,
+     *         or if an entry has a negative version, which varints can not represent.
+     */
+    public static void write(Collection<Entry> entries, OutputStream output) throws IOException {
+        TreeSet<Entry> sorted = new TreeSet<>(History.ORDER);
+        sorted.addAll(entries);
+
+        // Schema names, and the suffixes shared by at least two domains.
+        Map<String, Integer> schemaIds = new LinkedHashMap<>();
+        Map<String, Integer> suffixCounts = new HashMap<>();
+        for (Entry entry : sorted) {
+            if (entry.version < 0) {
+                throw new IllegalArgumentException("Negative version for domain " + entry.domain + ".");
+            }
+            if (!schemaIds.containsKey(entry.schema.getName())) {
+                schemaIds.put(entry.schema.getName(), schemaIds.size());
+            }
+            for (String suffix : suffixes(entry.domain)) {
+                suffixCounts.merge(suffix, 1, Integer::sum);
+            }
+        }
+        if (schemaIds.size() > 255) {
+            throw new IllegalArgumentException("Too many schemas.");
+        }
+
+        Map<String, Integer> suffixIds = new LinkedHashMap<>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int[] offsets = new int[sorted.size()];
+        int index = 0;
+        for (Entry entry : sorted) {
+            String suffix = "";
+            for (String candidate : suffixes(entry.domain)) {
+                if (suffixCounts.get(candidate) >= 2) {
+                    suffix = candidate;
+                    break;
+                }
+            }
+            int suffixId = 0;
+            if (!suffix.isEmpty()) {
+                Integer id = suffixIds.get(suffix);
+                if (id == null) {
+                    id = suffixIds.size();
+                    suffixIds.put(suffix, id);
+                }
+                suffixId = id + 1;
+            }
+
+            byte[] prefix = entry.domain.substring(0, entry.domain.length() - suffix.length())
+                    .getBytes(StandardCharsets.UTF_8);
+            offsets[index++] = records.size();
+            records.write(schemaIds.get(entry.schema.getName()));
+            writeVarint(records, entry.schema.getSize());
+            writeVarint(records, entry.version);
+            writeVarint(records, suffixId);
+            writeVarint(records, prefix.length);
+            records.write(prefix, 0, prefix.length);
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(MAGIC);
+        data.writeInt(sorted.size());
+        data.writeByte(schemaIds.size());
+        for (String name : schemaIds.keySet()) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            data.writeByte(bytes.length);
+            data.write(bytes);
+        }
+        writeVarint(header, suffixIds.size());
+
+        ByteArrayOutputStream suffixes = new ByteArrayOutputStream();
+        int[] suffixOffsets = new int[suffixIds.size()];
+        index = 0;
+        for (String suffix : suffixIds.keySet()) {
+            byte[] bytes = suffix.getBytes(StandardCharsets.UTF_8);
+            suffixOffsets[index++] = suffixes.size();
+            writeVarint(suffixes, bytes.length);
+            suffixes.write(bytes, 0, bytes.length);
+        }
+
+        int start = header.size() + 4 * suffixOffsets.length + 4 * offsets.length;
+        for (int offset : suffixOffsets) {
+            data.writeInt(start + offset);
+        }
+        for (int offset : offsets) {
+            data.writeInt(start + suffixes.size() + offset);
+        }
+
+        header.writeTo(output);
+        suffixes.writeTo(output);
+        records.writeTo(output);
+        output.flush();
+    }
+
+    /** Returns the number of entries.
+     *
+     * @return the number of entries.
+     */
+    public int size() {
+        return _count;
+    }
+
+    /** Returns the domain of an entry, without decoding the rest of the entry.
+     *
+     * @param index The index of the entry, in {@link History#ORDER}.
+     * @return the domain.
+     */
+    public String domain(int index) {
+        return new Record(index).domain();
+    }
+
+    /** Returns an entry.
+     *
+     * @param index The index of the entry, in {@link History#ORDER}.
+     * @return the entry.
+     */
+    public Entry get(int index) {
+        Record record = new Record(index);
+        return new Entry(record.domain(), schema(record.schema, record.size), record.version);
+    }
+
+    /** Returns all entries.
+     *
+     * @return all entries, sorted.
+     */
+    public List<Entry> getAll() {
+        List<Entry> entries = new ArrayList<>(_count);
+        for (int i = 0; i < _count; i++) {
+            entries.add(get(i));
+        }
+        return entries;
+    }
+
+    /** Returns the entries of a domain, ignoring case.
+     *
+     * @param domain The domain.
+     * @return the entries of the domain, sorted.
+     */
+    public List<Entry> find(String domain) {
+        List<Entry> found = new ArrayList<>();
+        for (int i = lowerBound(domain); i < _count; i++) {
+            Record record = new Record(i);
+            String candidate = record.domain();
+            if (String.CASE_INSENSITIVE_ORDER.compare(candidate, domain) != 0) {
+                break;
+            }
+            found.add(new Entry(candidate, schema(record.schema, record.size), record.version));
+        }
+        return found;
+    }
+
+    /** Returns the first entries whose domain starts with {@code prefix}, ignoring case.
+     *
+     * @param prefix The prefix of the domains.
+     * @param limit  The maximal number of entries returned.
+     * @return the matching entries, sorted.
+     */
+    public List<Entry> findByPrefix(String prefix, int limit) {
+        List<Entry> found = new ArrayList<>();
+        for (int i = lowerBound(prefix); i < _count && found.size() < limit; i++) {
+            Record record = new Record(i);
+            String candidate = record.domain();
+            if (!candidate.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                break;
+            }
+            found.add(new Entry(candidate, schema(record.schema, record.size), record.version));
+        }
+        return found;
+    }
+
+    /** Returns the index of the first entry whose domain is not before {@code domain}, ignoring case.
+     *
+     * @param domain The domain.
+     * @return the index, {@link #size()} if all domains are before {@code domain}.
+     */
+    private int lowerBound(String domain) {
+        int low = 0;
+        int high = _count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (String.CASE_INSENSITIVE_ORDER.compare(domain(middle), domain) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /** Returns the shared schema with the given name id and size.
+     *
+     * @param id   The id of the schema name.
+     * @param size The size of the schema.
+     * @return the schema.
+     */
+    private Schema schema(int id, int size) {
+        return SchemaRegistry.getDefault().get(_schemas[id], size);
+    }
+
+    /** Returns a shared domain suffix.
+     *
+     * @param id The id of the suffix.
+     * @return the suffix.
+     */
+    private String suffix(int id) {
+        assert(id >= 0 && id < _suffixCount);
+
+        int[] position = { _buffer.getInt(_suffixOffsets + 4 * id) };
+        return string(position, varint(_buffer, position));
+    }
+
+    /** Decodes a UTF-8 string.
+     *
+     * @param position The position of the string, updated to the position after it.
+     * @param length   The length in bytes of the string.
+     * @return the string.
+     */
+    private String string(int[] position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = _buffer.get(position[0] + i);
+        }
+        position[0] += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Decodes a varint.
+     *
+     * @param buffer   The buffer.
+     * @param position The position of the varint, updated to the position after it.
+     * @return the value of the varint.
+     */
+    private static int varint(ByteBuffer buffer, int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, int value) {
+        assert(value >= 0);
+
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    /** Returns the candidate shared suffixes of a domain, starting at a dot, longest first.
+     *
+     * @param domain The domain.
+     * @return the suffixes.
+     */
+    private static List<String> suffixes(String domain) {
+        List<String> suffixes = new ArrayList<>();
+        for (int i = domain.indexOf('.'); i >= 0; i = domain.indexOf('.', i + 1)) {
+            if (domain.length() - i >= MIN_SUFFIX_LENGTH) {
+                suffixes.add(domain.substring(i));
+            }
+        }
+        return suffixes;
+    }
+
+    /** Fields of an encoded entry. */
+    private final class Record {
+        final int schema;
+        final int size;
+        final int version;
+        final int suffix;
+        final int prefixPosition;
+
+        Record(int index) {
+            assert(index >= 0 && index < _count);
+
+            int[] position = { _buffer.getInt(_offsets + 4 * index) };
+            schema = _buffer.get(position[0]++) & 0xFF;
+            size = varint(_buffer, position);
+            version = varint(_buffer, position);
+            suffix = varint(_buffer, position);
+            prefixPosition = position[0];
+        }
+
+        String domain() {
+            int[] position = { prefixPosition };
+            String domain = string(position, varint(_buffer, position));
+            return suffix == 0 ? domain : domain + suffix(suffix - 1);
+        }
+    }
+}
@@ -1,10 +1,32 @@
 package ch.redelmann.polymorph.library;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 
 /** Utility class to compute permutations of strings. */
 public class Permutation {
 
+    /** Factorials computed so far, shared across calls. */
+    private static BigInteger[] factorials = { BigInteger.ONE };
+
+    /** Returns the factorial of {@code n}. Results are cached.
+     *
+     * @param n The integer. Must be non-negative.
+     * @return the factorial of {@code n}.
+     */
+    public static synchronized BigInteger factorial(int n) {
+        assert(n >= 0);
+
+        if (n >= factorials.length) {
+            BigInteger[] extended = Arrays.copyOf(factorials, Math.max(n + 1, 2 * factorials.length));
+            for (int i = factorials.length; i < extended.length; i++) {
+                extended[i] = extended[i - 1].multiply(BigInteger.valueOf(i));
+            }
+            factorials = extended;
+        }
+        return factorials[n];
+    }
+
     /** Computes the kth permutation of a {@code string}.
      *
      * @param string The initial string.
@@ -12,36 +34,121 @@ public class Permutation {
      * @return the kth permutation of the {@code string}.
      */
     public static String getKthPermutation(String string, BigInteger k) {
+        char[] chars = string.toCharArray();
+        applyKthPermutation(chars, chars.length, k);
+        return new String(chars);
+    }
+
+    /** Replaces the first {@code size} characters of {@code chars} by their kth permutation.
+     *
+     * @param chars The characters to permute.
+     * @param size  The number of characters to permute.
+     * @param k     The permutation number. Must be non-negative.
+     */
+    public static void applyKthPermutation(char[] chars, int size, BigInteger k) {
 
         // Only works for positive integers.
         assert(k.compareTo(BigInteger.ZERO) >= 0);
 
+        // Permutations repeat every size! values of k.
+        BigInteger numberPermutations = factorial(size);
+        if (k.compareTo(numberPermutations) >= 0) {
+            k = k.mod(numberPermutations);
+        }
+
         // Computes the radix representation of k.
-        int size = string.length();
         int[] radices = new int[size];
+        toRadices(k, size, 0, radices, 0);
 
-        for (int i = 0; i < size; i++) {
-            BigInteger n = BigInteger.valueOf(size - i);
-            BigInteger[] divRem = k.divideAndRemainder(n);
-            radices[i] = divRem[1].intValue();
-            k = divRem[0];
+        applyRadices(chars, size, radices);
+    }
+
+    /** Computes the mixed radix representation of {@code k},
+     *  for the radices {@code high} down to {@code low + 1}.
+     *
+     * @param k       The integer to convert. Must be less than the product of the radices.
+     * @param high    The first radix.
+     * @param low     The radix after the last one.
+     * @param radices Receives the digits, least significant first.
+     * @param offset  The offset of the first digit in {@code radices}.
+     */
+    private static void toRadices(BigInteger k, int high, int low, int[] radices, int offset) {
+        if (k.bitLength() < Long.SIZE - 1) {
+            long value = k.longValue();
+            for (int radix = high; radix > low; radix--) {
+                radices[offset++] = (int) (value % radix);
+                value /= radix;
+            }
+            return;
         }
 
-        // Converting the radix representation to direct representation
-        for (int i = size - 1; i >= 0; i--) {
-            for (int j = i + 1; j < size; j++) {
-                if (radices[j] >= radices[i]) {
-                    radices[j]++;
-                }
+        // Splitting the radices in two halves, so that divisions are on balanced operands.
+        int middle = (high + low) >>> 1;
+        BigInteger[] divRem = k.divideAndRemainder(product(middle + 1, high));
+        toRadices(divRem[1], high, middle, radices, offset);
+        toRadices(divRem[0], middle, low, radices, offset + high - middle);
+    }
+
+    /** Computes the product of the integers from {@code from} to {@code to} inclusive.
+     *
+     * @param from The first integer.
+     * @param to   The last integer.
+     * @return the product of the integers in the range.
+     */
+    private static BigInteger product(int from, int to) {
+        if (to - from < 16) {
+            BigInteger result = BigInteger.ONE;
+            for (long i = from; i <= to; i++) {
+                result = result.multiply(BigInteger.valueOf(i));
             }
+            return result;
         }
+        int middle = (from + to) >>> 1;
+        return product(from, middle).multiply(product(middle + 1, to));
+    }
 
-        // Building the out string given the permutations.
-        StringBuilder output = new StringBuilder(size);
-        for (int i : radices) {
-            output.append(string.charAt(i));
+    /** Permutes the first {@code size} characters of {@code chars} in place,
+     *  according to the mixed radix representation of a permutation number.
+     *
+     * Digit {@code i}, between 0 and {@code size - i} exclusive, selects which of
+     * the characters not yet placed goes at position {@code i}.
+     *
+     * @param chars   The characters to permute.
+     * @param size    The number of characters to permute.
+     * @param radices The digits of the permutation number, least significant first.
+     */
+    static void applyRadices(char[] chars, int size, int[] radices) {
+
+        // Fenwick tree counting the characters not yet placed.
+        int[] tree = new int[size + 1];
+        for (int i = 1; i <= size; i++) {
+            tree[i] += 1;
+            int parent = i + (i & -i);
+            if (parent <= size) {
+                tree[parent] += tree[i];
+            }
         }
+        int top = Integer.highestOneBit(Math.max(size, 1));
 
-        return output.toString();
+        char[] input = Arrays.copyOf(chars, size);
+        for (int i = 0; i < size; i++) {
+
+            // Finding the position of the (radices[i] + 1)th remaining character.
+            int position = 0;
+            int remaining = radices[i] + 1;
+            for (int step = top; step > 0; step >>= 1) {
+                int next = position + step;
+                if (next <= size && tree[next] < remaining) {
+                    position = next;
+                    remaining -= tree[next];
+                }
+            }
+
+            chars[i] = input[position];
+            for (int j = position + 1; j <= size; j += j & -j) {
+                tree[j]--;
+            }
+        }
+        Arrays.fill(input, '\0');
     }
 }
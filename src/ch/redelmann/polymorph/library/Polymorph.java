@@ -1,54 +1,111 @@
 package ch.redelmann.polymorph.library;
 
+import ch.redelmann.polymorph.library.crypto.SCrypt;
+import ch.redelmann.polymorph.library.metrics.Metrics;
+import ch.redelmann.polymorph.library.metrics.Stage;
 import ch.redelmann.polymorph.library.schema.Schema;
-import com.lambdaworks.crypto.SCrypt;
 
-import java.math.BigInteger;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 
-/** Password generator using SCrypt. */
+/** Password generator using a key derivation function, SCrypt unless configured otherwise. */
 public class Polymorph {
 
     // Intended hash size.
     private final static int LENGTH = 64;
 
+    /** Memory of the derivations interleaved by a thread of {@code deriveAll}, in bytes. */
+    private final static long INTERLEAVED_MEMORY = 32L << 20;
+
+    /** Maximal number of derivations interleaved by a thread of {@code deriveAll}. */
+    private static volatile int interleaved = 1;
+
+    /**
+     * Sets the maximal number of derivations interleaved by each task of {@code deriveAll}.
+     *
+     * Interleaving overlaps the memory accesses of several derivations on one thread, which can raise
+     * the throughput per core, depending on the processor and configuration. It is thus worth
+     * measuring, for instance with the {@code InterleavedBenchmark}, before being enabled.
+     * Fewer derivations are interleaved when their memory would exceed a few tens of megabytes,
+     * or when there are too few of them to keep all processors busy. Passwords are the same either way.
+     *
+     * @param derivations The number of derivations, between 1, the default, and {@link SCrypt#MAX_INTERLEAVED}.
+     */
+    public static void setInterleaved(int derivations) {
+        if (derivations < 1 || derivations > SCrypt.MAX_INTERLEAVED) {
+            throw new IllegalArgumentException("Between 1 and " + SCrypt.MAX_INTERLEAVED + " derivations can be interleaved");
+        }
+        interleaved = derivations;
+    }
+
+    /**
+     * Returns the maximal number of derivations interleaved by each task of {@code deriveAll}.
+     *
+     * @return the number of derivations.
+     */
+    public static int getInterleaved() {
+        return interleaved;
+    }
+
     /**
-     * Derives a cryptographic hash using {@code SCrypt}.
+     * Derives a cryptographic hash using the key derivation function of the configuration.
      * This function can be compute intensive.
      *
      * @param domain        The domain for which the password is used.
      * @param password      The master password from which to derive other passwords.
-     * @param configuration Configuration for SCrypt.
-     * @return a cryptographically secure hash, in integer form.
+     * @param configuration Configuration of the key derivation function.
+     * @return a cryptographically secure hash, as a little-endian integer.
      */
-    private static BigInteger hash(byte[] domain, byte[] password, Configuration configuration) {
+    private static byte[] hash(byte[] domain, byte[] password, Configuration configuration) {
+        byte[] salt = configuration.code.getBytes();
+        // Concatenating the password and salt.
+        byte[] passwordCode = new byte[password.length + salt.length];
+        System.arraycopy(password, 0, passwordCode, 0, password.length);
+        System.arraycopy(salt, 0, passwordCode, password.length, salt.length);
+
+        byte[] encrypted = new byte[LENGTH];
+        hash(domain, domain.length, passwordCode, passwordCode.length, configuration, encrypted);
+        Arrays.fill(passwordCode, (byte) 0);
+        return encrypted;
+    }
+
+    /**
+     * Derives a cryptographic hash using the key derivation function of the configuration.
+     * This function can be compute intensive.
+     *
+     * @param domain             The domain for which the password is used.
+     * @param domainLength       The number of bytes of {@code domain} to use.
+     * @param passwordCode       The master password, followed by the code of the configuration.
+     * @param passwordCodeLength The number of bytes of {@code passwordCode} to use.
+     * @param configuration      Configuration of the key derivation function.
+     * @param output             Receives the hash, as a little-endian integer.
+     */
+    private static void hash(byte[] domain, int domainLength, byte[] passwordCode, int passwordCodeLength,
+                             Configuration configuration, byte[] output) {
+        Metrics.Timing timing = Metrics.start(Stage.SCRYPT);
         try {
-            byte[] salt = configuration.code.getBytes();
-            // Concatenating the password and salt.
-            byte[] passwordCode = new byte[password.length + salt.length];
-            System.arraycopy(password, 0, passwordCode, 0, password.length);
-            System.arraycopy(salt, 0, passwordCode, password.length, salt.length);
-
-            // Using SCrypt to get a byte array hash.
-            byte[] encrypted = SCrypt.scrypt(
+            // Using the key derivation function to get a byte array hash.
+            configuration.kdf.derive(
                     passwordCode,
+                    passwordCodeLength,
                     domain,
-                    (1 << configuration.logN),
-                    configuration.r,
-                    configuration.p,
-                    LENGTH);
-
-            // Converting the byte array to a large integer.
-            BigInteger result = BigInteger.ZERO;
-            BigInteger factor = BigInteger.ONE;
-            BigInteger range = BigInteger.valueOf(256);
-            for (int i : encrypted) {
-                BigInteger current = BigInteger.valueOf(i & 0xFF).multiply(factor);
-                result = result.add(current);
-                factor = factor.multiply(range);
-            }
-            return result;
+                    domainLength,
+                    configuration,
+                    output);
         } catch (Exception e) {
-            throw new IllegalArgumentException("Invalid parameters for SCrypt.", e);
+            throw new IllegalArgumentException("Invalid parameters for " + configuration.kdf.getName() + ".", e);
+        } finally {
+            Metrics.stop(timing);
         }
     }
 
@@ -63,6 +120,256 @@ public class Polymorph {
      * @return a password following the given {@code schema}.
      */
     public static String derive(Schema schema, String domain, String password, Configuration configuration) {
-        return schema.generate(hash(domain.getBytes(), password.getBytes(), configuration));
+        Metrics.Timing timing = Metrics.start(Stage.DERIVE);
+        byte[] passwordBytes = password.getBytes();
+        byte[] hash = null;
+        try {
+            hash = hash(domain.getBytes(), passwordBytes, configuration);
+            return schema.generate(hash, configuration.extended);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+            if (hash != null) {
+                Arrays.fill(hash, (byte) 0);
+            }
+            Metrics.stop(timing);
+        }
+    }
+
+    /**
+     * Computes a password following the given {@code schema}, without going through {@code String}s.
+     * The domain and password are encoded in UTF-8 into buffers that are reused by the calling thread,
+     * and wiped once the password is computed.
+     * This function makes use of {@code SCrypt} and thus can be very compute intensive.
+     *
+     * @param schema        The schema used to derive the password.
+     * @param domain        The domain for which the derived password is used.
+     * @param password      The master password.
+     * @param configuration Configuration parameters for SCrypt.
+     * @param output        Receives the password. Holding {@code schema.getMaxSize()} characters is always enough.
+     * @return the length of the password, which is {@code schema.getSize()} except for some
+     *         {@linkplain Schema#getMaxSize() longer passwords}.
+     * @throws IllegalArgumentException if the password does not fit in {@code output}.
+     */
+    public static int derive(Schema schema, char[] domain, char[] password, Configuration configuration,
+                             char[] output) {
+        Metrics.Timing timing = Metrics.start(Stage.DERIVE);
+        Buffers buffers = BUFFERS.get();
+        try {
+            int domainLength = buffers.encodeDomain(domain);
+            int passwordCodeLength = buffers.encodePasswordCode(password, configuration.code);
+            hash(buffers.domain, domainLength, buffers.passwordCode, passwordCodeLength,
+                    configuration, buffers.hash);
+            return schema.generate(buffers.hash, configuration.extended, output);
+        } finally {
+            buffers.wipe();
+            Metrics.stop(timing);
+        }
+    }
+
+    /** Buffers of each thread for the {@code char[]} derivation. */
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    /** Reusable buffers holding encoded inputs and the hash. */
+    private static final class Buffers {
+
+        byte[] domain = new byte[64];
+        byte[] passwordCode = new byte[64];
+        final byte[] hash = new byte[LENGTH];
+
+        int encodeDomain(char[] chars) {
+            domain = ensure(domain, Utf8.maxEncodedLength(chars.length));
+            return Utf8.encode(CharBuffer.wrap(chars), domain, 0);
+        }
+
+        int encodePasswordCode(char[] password, String code) {
+            passwordCode = ensure(passwordCode, Utf8.maxEncodedLength(password.length + code.length()));
+            int length = Utf8.encode(CharBuffer.wrap(password), passwordCode, 0);
+            return length + Utf8.encode(code, passwordCode, length);
+        }
+
+        void wipe() {
+            Arrays.fill(domain, (byte) 0);
+            Arrays.fill(passwordCode, (byte) 0);
+            Arrays.fill(hash, (byte) 0);
+        }
+
+        private static byte[] ensure(byte[] buffer, int size) {
+            if (buffer.length >= size) {
+                return buffer;
+            }
+            Arrays.fill(buffer, (byte) 0);
+            return new byte[size];
+        }
+    }
+
+    /**
+     * Computes the passwords of several entries, interleaving their SCrypt hashes on the calling thread.
+     *
+     * @param entries       The entries.
+     * @param password      The master password.
+     * @param configuration Configuration for SCrypt.
+     * @return the password of each entry.
+     * @see SCrypt#scrypt(byte[][], byte[][], int, int, int, byte[][], int)
+     */
+    private static String[] derive(List<Entry> entries, String password, Configuration configuration) {
+        int count = entries.size();
+        byte[] passwordBytes = password.getBytes();
+        byte[] salt = configuration.code.getBytes();
+        byte[] passwordCode = new byte[passwordBytes.length + salt.length];
+        System.arraycopy(passwordBytes, 0, passwordCode, 0, passwordBytes.length);
+        System.arraycopy(salt, 0, passwordCode, passwordBytes.length, salt.length);
+        Arrays.fill(passwordBytes, (byte) 0);
+
+        byte[][] passwordCodes = new byte[count][];
+        byte[][] domains = new byte[count][];
+        byte[][] hashes = new byte[count][LENGTH];
+        for (int i = 0; i < count; i++) {
+            passwordCodes[i] = passwordCode;
+            domains[i] = entries.get(i).domain.getBytes();
+        }
+        // Each derivation lasts from the start of the batch until its password is generated.
+        Metrics.Timing[] timings = new Metrics.Timing[count];
+        for (int i = 0; i < count; i++) {
+            timings[i] = Metrics.start(Stage.DERIVE);
+        }
+        int recorded = 0;
+        try {
+            Metrics.Timing scryptTiming = Metrics.start(Stage.SCRYPT);
+            try {
+                SCrypt.scrypt(passwordCodes, domains, 1 << configuration.logN, configuration.r, configuration.p,
+                        hashes, count);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Invalid parameters for SCrypt.", e);
+            } finally {
+                Metrics.stop(scryptTiming);
+            }
+
+            String[] derived = new String[count];
+            for (int i = 0; i < count; i++) {
+                derived[i] = entries.get(i).schema.generate(hashes[i], configuration.extended);
+                Metrics.stop(timings[i]);
+                recorded++;
+            }
+            return derived;
+        } finally {
+            // Failed derivations are recorded too, as by the other overloads.
+            for (; recorded < count; recorded++) {
+                Metrics.stop(timings[recorded]);
+            }
+            Arrays.fill(passwordCode, (byte) 0);
+            for (byte[] domain : domains) {
+                Arrays.fill(domain, (byte) 0);
+            }
+            for (byte[] hash : hashes) {
+                Arrays.fill(hash, (byte) 0);
+            }
+        }
+    }
+
+    /** Returns the number of derivations of {@code deriveAll} interleaved by each task.
+     *
+     * Derivations are interleaved as long as their memory stays small, and all processors get tasks.
+     * Only derivations using SCrypt are interleaved.
+     *
+     * @param count         The number of derivations.
+     * @param configuration Configuration for SCrypt.
+     * @return the number of derivations of each task, between 1 and {@link #getInterleaved()}.
+     */
+    private static int groupSize(int count, Configuration configuration) {
+        if (configuration.kdf != KeyDerivationFunction.SCRYPT) {
+            return 1;
+        }
+        long byMemory = INTERLEAVED_MEMORY / configuration.memoryBytes();
+        int processors = Runtime.getRuntime().availableProcessors();
+        int bySpread = (count + processors - 1) / processors;
+        return (int) Math.max(1, Math.min(Math.min(byMemory, bySpread), interleaved));
+    }
+
+    /**
+     * Computes the passwords of all entries of an {@code history}.
+     * Derivations are run in parallel on the common fork-join pool.
+     *
+     * @param history       The history containing the entries.
+     * @param password      The master password.
+     * @param configuration Configuration parameters for SCrypt.
+     * @return the password of each entry, in the order of the {@code history}.
+     */
+    public static Map<Entry, String> deriveAll(History history, String password, Configuration configuration) {
+        return deriveAll(history, password, configuration, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes the passwords of all entries of an {@code history}.
+     * Derivations are run in parallel on the given {@code executor}.
+     * Each task may {@linkplain #setInterleaved(int) interleave} a few derivations.
+     *
+     * @param history       The history containing the entries.
+     * @param password      The master password.
+     * @param configuration Configuration parameters for SCrypt.
+     * @param executor      The executor on which derivations are run.
+     * @return the password of each entry, in the order of the {@code history}.
+     */
+    public static Map<Entry, String> deriveAll(History history, String password, Configuration configuration,
+                                               Executor executor) {
+        List<Entry> entries = history.getAll();
+        Map<Entry, String> passwords = new ConcurrentHashMap<>();
+        try {
+            deriveAll(entries, password, configuration, executor, passwords::put).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+
+        // Restoring the order of the history.
+        Map<Entry, String> ordered = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            ordered.put(entry, passwords.get(entry));
+        }
+        return ordered;
+    }
+
+    /**
+     * Computes the passwords of all entries of an {@code history}.
+     * Derivations are run in parallel on the given {@code executor},
+     * and passwords are handed to the {@code consumer} as soon as they are computed.
+     * Calls to the {@code consumer} are never concurrent, but happen in completion order.
+     *
+     * @param history       The history containing the entries.
+     * @param password      The master password.
+     * @param configuration Configuration parameters for SCrypt.
+     * @param executor      The executor on which derivations are run.
+     * @param consumer      Receives each entry along with its password.
+     * @return a future completed once all passwords have been handed to the {@code consumer}.
+     */
+    public static CompletableFuture<Void> deriveAll(History history, String password, Configuration configuration,
+                                                    Executor executor, BiConsumer<Entry, String> consumer) {
+        return deriveAll(history.getAll(), password, configuration, executor, consumer);
+    }
+
+    private static CompletableFuture<Void> deriveAll(List<Entry> entries, String password,
+                                                     Configuration configuration, Executor executor,
+                                                     BiConsumer<Entry, String> consumer) {
+        int groupSize = groupSize(entries.size(), configuration);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int start = 0; start < entries.size(); start += groupSize) {
+            List<Entry> group = entries.subList(start, Math.min(start + groupSize, entries.size()));
+            futures.add(CompletableFuture.runAsync(() -> {
+                String[] derived;
+                if (group.size() == 1) {
+                    Entry entry = group.get(0);
+                    derived = new String[] { derive(entry.schema, entry.domain, password, configuration) };
+                } else {
+                    derived = derive(group, password, configuration);
+                }
+                synchronized (consumer) {
+                    for (int i = 0; i < derived.length; i++) {
+                        consumer.accept(group.get(i), derived[i]);
+                    }
+                }
+            }, executor));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
     }
 }
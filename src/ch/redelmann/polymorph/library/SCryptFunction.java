@@ -0,0 +1,34 @@
+package ch.redelmann.polymorph.library;
+
+import ch.redelmann.polymorph.library.crypto.SCrypt;
+
+/** SCrypt, with {@code N = 2^logN}. */
+final class SCryptFunction implements KeyDerivationFunction {
+
+    @Override
+    public String getName() {
+        return "scrypt";
+    }
+
+    @Override
+    public boolean isValid(int logN, int r, int p) {
+        return logN > 0 && logN < 32 && r > 0 && p > 0 && (long) r * p < (1 << 30);
+    }
+
+    /** Returns the memory used by a derivation, when lanes are computed sequentially.
+     *
+     * @param configuration The configuration.
+     * @return the size in bytes of the V array and of the lanes of SCrypt.
+     */
+    @Override
+    public long memoryBytes(Configuration configuration) {
+        return (128L * configuration.r << configuration.logN) + 128L * configuration.r * configuration.p;
+    }
+
+    @Override
+    public void derive(byte[] password, int passwordLength, byte[] salt, int saltLength,
+                       Configuration configuration, byte[] output) {
+        SCrypt.scrypt(password, passwordLength, salt, saltLength,
+                1 << configuration.logN, configuration.r, configuration.p, output);
+    }
+}
@@ -0,0 +1,50 @@
+package ch.redelmann.polymorph.library;
+
+/** Utility class to encode characters in UTF-8 into existing byte arrays. */
+class Utf8 {
+
+    /** Returns the maximal number of bytes needed to encode {@code length} characters.
+     *
+     * @param length The number of characters.
+     * @return the maximal size of the encoding, in bytes.
+     */
+    static int maxEncodedLength(int length) {
+        return 3 * length;
+    }
+
+    /** Encodes characters in UTF-8, as {@code String.getBytes(StandardCharsets.UTF_8)} does.
+     * Unpaired surrogates are encoded as {@code '?'}.
+     *
+     * @param chars  The characters to encode.
+     * @param output Receives the encoded bytes. Must be large enough.
+     * @param offset The offset at which bytes are written.
+     * @return the number of bytes written.
+     */
+    static int encode(CharSequence chars, byte[] output, int offset) {
+        int position = offset;
+        int length = chars.length();
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                output[position++] = (byte) c;
+            } else if (c < 0x800) {
+                output[position++] = (byte) (0xC0 | (c >> 6));
+                output[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                output[position++] = (byte) (0xF0 | (codePoint >> 18));
+                output[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                output[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                output[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                output[position++] = (byte) '?';
+            } else {
+                output[position++] = (byte) (0xE0 | (c >> 12));
+                output[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                output[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position - offset;
+    }
+}
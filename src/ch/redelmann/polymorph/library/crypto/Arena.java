@@ -0,0 +1,38 @@
+package ch.redelmann.polymorph.library.crypto;
+
+/** Memory backing the V array of ROMix, addressed in 32-bit words. */
+abstract class Arena {
+
+    /** Makes sure the arena can hold at least {@code words} words.
+     *
+     * @param words The number of words needed.
+     */
+    abstract void ensure(int words);
+
+    /** Copies words into the arena.
+     *
+     * @param offset    The offset in the arena, in words.
+     * @param src       The words to copy.
+     * @param srcOffset The offset in {@code src}.
+     * @param length    The number of words.
+     */
+    abstract void store(int offset, int[] src, int srcOffset, int length);
+
+    /** Xors words of the arena into {@code dst}.
+     *
+     * @param offset    The offset in the arena, in words.
+     * @param dst       The words to update.
+     * @param dstOffset The offset in {@code dst}.
+     * @param length    The number of words.
+     */
+    abstract void xor(int offset, int[] dst, int dstOffset, int length);
+
+    /** Overwrites the first {@code words} words of the arena with zeros.
+     *
+     * @param words The number of words to overwrite.
+     */
+    abstract void wipe(int words);
+
+    /** Overwrites the whole arena with zeros and releases its memory. */
+    abstract void release();
+}
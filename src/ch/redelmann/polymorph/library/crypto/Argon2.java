@@ -0,0 +1,496 @@
+package ch.redelmann.polymorph.library.crypto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/** Pure Java implementation of the Argon2id key derivation function, version 1.3 (RFC 9106).
+ *
+ * Memory is a matrix of blocks of 1 KiB, with one row per lane. Each pass over the memory is cut
+ * into four slices, within which lanes are independent. When a {@linkplain #setLaneExecutor(Executor)
+ * lane executor} is set, which is the common fork-join pool by default, the lanes of each slice are
+ * computed concurrently. Unlike with {@link SCrypt}, lanes share the memory of the derivation,
+ * so that computing them concurrently does not use more memory.
+ */
+public final class Argon2 {
+
+    /** Version of Argon2 implemented. */
+    private static final int VERSION = 0x13;
+
+    /** Type of Argon2 implemented, Argon2id. */
+    private static final int TYPE = 2;
+
+    /** Number of 64-bit words in a block. */
+    private static final int WORDS = 128;
+
+    /** Number of slices of a pass. */
+    private static final int SLICES = 4;
+
+    /** A block of zeros, never written to. */
+    private static final long[] ZERO = new long[WORDS];
+
+    /** Maximal number of lanes. */
+    public static final int MAX_LANES = 0xFFFFFF;
+
+    /** Maximal memory, in KiB, so that all blocks fit in an array. */
+    public static final int MAX_MEMORY = Integer.MAX_VALUE / WORDS;
+
+    /** Executor on which lanes are computed, or {@code null} to compute them sequentially. */
+    private static volatile Executor laneExecutor = ForkJoinPool.commonPool();
+
+    private Argon2() {}
+
+    /** Sets the executor on which the lanes of derivations with more than one lane are computed.
+     *
+     * The calling thread computes the lanes that have not been started by the executor,
+     * so that derivations make progress even when the executor is saturated.
+     *
+     * @param executor The executor, or {@code null} to compute lanes sequentially on the calling thread.
+     */
+    public static void setLaneExecutor(Executor executor) {
+        laneExecutor = executor;
+    }
+
+    /** Returns the executor on which lanes are computed.
+     *
+     * @return the executor, or {@code null} if lanes are computed sequentially.
+     */
+    public static Executor getLaneExecutor() {
+        return laneExecutor;
+    }
+
+    /** Derives a key using Argon2id.
+     *
+     * @param password       The password.
+     * @param salt           The salt.
+     * @param secret         The secret value, possibly empty.
+     * @param associatedData The associated data, possibly empty.
+     * @param memory         The memory size, in KiB. Must be at least 8 times the number of lanes.
+     * @param passes         The number of passes over the memory.
+     * @param lanes          The number of lanes.
+     * @param length         The length of the derived key, in bytes. Must be at least 4.
+     * @return the derived key.
+     */
+    public static byte[] argon2id(byte[] password, byte[] salt, byte[] secret, byte[] associatedData,
+                                  int memory, int passes, int lanes, int length) {
+        byte[] output = new byte[length];
+        argon2id(password, password.length, salt, salt.length, secret, associatedData, memory, passes, lanes, output);
+        return output;
+    }
+
+    /** Derives a key using Argon2id, without secret value nor associated data.
+     *
+     * @param password       The password.
+     * @param passwordLength The number of bytes of {@code password} to use.
+     * @param salt           The salt.
+     * @param saltLength     The number of bytes of {@code salt} to use.
+     * @param memory         The memory size, in KiB. Must be at least 8 times the number of lanes.
+     * @param passes         The number of passes over the memory.
+     * @param lanes          The number of lanes.
+     * @param output         Receives the derived key. The whole array is filled, and must be at least 4 bytes.
+     */
+    public static void argon2id(byte[] password, int passwordLength, byte[] salt, int saltLength,
+                                int memory, int passes, int lanes, byte[] output) {
+        argon2id(password, passwordLength, salt, saltLength, new byte[0], new byte[0],
+                memory, passes, lanes, output);
+    }
+
+    private static void argon2id(byte[] password, int passwordLength, byte[] salt, int saltLength,
+                                 byte[] secret, byte[] associatedData,
+                                 int memory, int passes, int lanes, byte[] output) {
+        check(memory, passes, lanes, output.length);
+
+        // Memory is rounded down to a multiple of 4 blocks per lane.
+        int segmentLength = memory / (SLICES * lanes);
+        int laneLength = segmentLength * SLICES;
+        Instance instance = new Instance(new long[laneLength * lanes * WORDS], passes, lanes, segmentLength);
+
+        byte[] h0 = new byte[Blake2b.MAX_LENGTH + 8];
+        byte[] block = new byte[WORDS * 8];
+        try {
+            new Blake2b(Blake2b.MAX_LENGTH)
+                    .updateInt(lanes)
+                    .updateInt(output.length)
+                    .updateInt(memory)
+                    .updateInt(passes)
+                    .updateInt(VERSION)
+                    .updateInt(TYPE)
+                    .updateInt(passwordLength).update(password, 0, passwordLength)
+                    .updateInt(saltLength).update(salt, 0, saltLength)
+                    .updateInt(secret.length).update(secret)
+                    .updateInt(associatedData.length).update(associatedData)
+                    .digest(h0, 0);
+
+            // The first two blocks of each lane.
+            for (int lane = 0; lane < lanes; lane++) {
+                for (int column = 0; column < 2; column++) {
+                    putInt(h0, Blake2b.MAX_LENGTH, column);
+                    putInt(h0, Blake2b.MAX_LENGTH + 4, lane);
+                    hashLong(h0, h0.length, block);
+                    int offset = (lane * laneLength + column) * WORDS;
+                    for (int i = 0; i < WORDS; i++) {
+                        instance.memory[offset + i] = getLong(block, 8 * i);
+                    }
+                }
+            }
+
+            Executor executor = laneExecutor;
+            for (int pass = 0; pass < passes; pass++) {
+                for (int slice = 0; slice < SLICES; slice++) {
+                    if (executor == null || lanes == 1) {
+                        for (int lane = 0; lane < lanes; lane++) {
+                            instance.fillSegment(pass, slice, lane);
+                        }
+                    } else {
+                        fillConcurrently(instance, pass, slice, executor);
+                    }
+                }
+            }
+
+            // The final block is the XOR of the last block of each lane.
+            long[] last = new long[WORDS];
+            for (int lane = 0; lane < lanes; lane++) {
+                int offset = (lane * laneLength + laneLength - 1) * WORDS;
+                for (int i = 0; i < WORDS; i++) {
+                    last[i] ^= instance.memory[offset + i];
+                }
+            }
+            for (int i = 0; i < WORDS; i++) {
+                putLong(block, 8 * i, last[i]);
+            }
+            Arrays.fill(last, 0);
+            hashLong(block, block.length, output);
+        } finally {
+            Arrays.fill(instance.memory, 0);
+            Arrays.fill(h0, (byte) 0);
+            Arrays.fill(block, (byte) 0);
+        }
+    }
+
+    /** Checks that parameters are valid.
+     *
+     * @param memory The memory size, in KiB.
+     * @param passes The number of passes.
+     * @param lanes  The number of lanes.
+     * @param length The length of the derived key, in bytes.
+     * @throws IllegalArgumentException if a parameter is invalid.
+     */
+    private static void check(int memory, int passes, int lanes, int length) {
+        if (lanes < 1 || lanes > MAX_LANES) {
+            throw new IllegalArgumentException("Parameter p must be between 1 and " + MAX_LANES);
+        }
+        if (passes < 1) {
+            throw new IllegalArgumentException("Parameter t must be at least 1");
+        }
+        if (memory < 8 * lanes || memory > MAX_MEMORY) {
+            throw new IllegalArgumentException("Parameter m must be between 8 p and " + MAX_MEMORY);
+        }
+        if (length < 4) {
+            throw new IllegalArgumentException("Derived key must be at least 4 bytes");
+        }
+    }
+
+    /** Fills the segments of all lanes of a slice, using an executor.
+     *
+     * The first lane is computed by the calling thread.
+     *
+     * @param instance The derivation.
+     * @param pass     The pass.
+     * @param slice    The slice.
+     * @param executor The executor on which lanes are computed.
+     */
+    private static void fillConcurrently(Instance instance, int pass, int slice, Executor executor) {
+        List<FutureTask<Void>> tasks = new ArrayList<>(instance.lanes - 1);
+        for (int lane = 1; lane < instance.lanes; lane++) {
+            int current = lane;
+            FutureTask<Void> task = new FutureTask<>(() -> instance.fillSegment(pass, slice, current), null);
+            tasks.add(task);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // The task is run by the calling thread below.
+            }
+        }
+
+        instance.fillSegment(pass, slice, 0);
+
+        for (FutureTask<Void> task : tasks) {
+            // Has no effect if the task was already started by the executor.
+            task.run();
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while computing Argon2 lanes.", e);
+            }
+        }
+    }
+
+    /** The memory and parameters of a derivation. */
+    private static final class Instance {
+
+        final long[] memory;
+        final int passes;
+        final int lanes;
+        final int segmentLength;
+        final int laneLength;
+
+        Instance(long[] memory, int passes, int lanes, int segmentLength) {
+            this.memory = memory;
+            this.passes = passes;
+            this.lanes = lanes;
+            this.segmentLength = segmentLength;
+            this.laneLength = segmentLength * SLICES;
+        }
+
+        /** Computes the blocks of a segment, which only depend on blocks of previous slices
+         * and of the segment itself.
+         *
+         * @param pass  The pass.
+         * @param slice The slice.
+         * @param lane  The lane.
+         */
+        void fillSegment(int pass, int slice, int lane) {
+            long[] r = new long[WORDS];
+            long[] t = new long[WORDS];
+
+            // The first half of the first pass uses addresses independent of the password.
+            boolean independent = pass == 0 && slice < SLICES / 2;
+            long[] input = null;
+            long[] addresses = null;
+            if (independent) {
+                input = new long[WORDS];
+                addresses = new long[WORDS];
+                input[0] = pass;
+                input[1] = lane;
+                input[2] = slice;
+                input[3] = (long) laneLength * lanes;
+                input[4] = passes;
+                input[5] = TYPE;
+            }
+
+            int start = 0;
+            if (pass == 0 && slice == 0) {
+                // The first two blocks are computed from the inputs.
+                start = 2;
+                if (independent) {
+                    nextAddresses(input, addresses, r, t);
+                }
+            }
+
+            int current = lane * laneLength + slice * segmentLength + start;
+            int previous = current % laneLength == 0 ? current + laneLength - 1 : current - 1;
+            try {
+                for (int index = start; index < segmentLength; index++, current++, previous++) {
+                    if (current % laneLength == 1) {
+                        previous = current - 1;
+                    }
+
+                    long random;
+                    if (independent) {
+                        if (index % WORDS == 0) {
+                            nextAddresses(input, addresses, r, t);
+                        }
+                        random = addresses[index % WORDS];
+                    } else {
+                        random = memory[previous * WORDS];
+                    }
+
+                    int referenceLane = (int) ((random >>> 32) % lanes);
+                    if (pass == 0 && slice == 0) {
+                        referenceLane = lane;
+                    }
+                    int reference = referenceLane * laneLength
+                            + referenceIndex(pass, slice, index, random & 0xFFFFFFFFL, referenceLane == lane);
+
+                    fillBlock(memory, previous * WORDS, memory, reference * WORDS, memory, current * WORDS,
+                            pass > 0, r, t);
+                }
+            } finally {
+                Arrays.fill(r, 0);
+                Arrays.fill(t, 0);
+                if (independent) {
+                    Arrays.fill(addresses, 0);
+                }
+            }
+        }
+
+        /** Maps a pseudo-random value to the index of a block of the reference lane.
+         *
+         * @param pass      The pass.
+         * @param slice     The slice.
+         * @param index     The index of the current block in its segment.
+         * @param random    The lower 32 bits of the pseudo-random value.
+         * @param sameLane  Whether the reference lane is the current lane.
+         * @return the index of the reference block in its lane.
+         */
+        private int referenceIndex(int pass, int slice, int index, long random, boolean sameLane) {
+            long area;
+            if (pass == 0) {
+                if (slice == 0) {
+                    area = index - 1;
+                } else if (sameLane) {
+                    area = (long) slice * segmentLength + index - 1;
+                } else {
+                    area = (long) slice * segmentLength + (index == 0 ? -1 : 0);
+                }
+            } else if (sameLane) {
+                area = laneLength - segmentLength + index - 1;
+            } else {
+                area = laneLength - segmentLength + (index == 0 ? -1 : 0);
+            }
+
+            long relative = (random * random) >>> 32;
+            relative = area - 1 - ((area * relative) >>> 32);
+
+            long start = 0;
+            if (pass != 0 && slice != SLICES - 1) {
+                start = (long) (slice + 1) * segmentLength;
+            }
+            return (int) ((start + relative) % laneLength);
+        }
+    }
+
+    /** Computes the next block of addresses of a data-independent segment.
+     *
+     * @param input     The input block, whose counter is incremented.
+     * @param addresses Receives the addresses.
+     * @param r         Scratch space of a block.
+     * @param t         Scratch space of a block.
+     */
+    private static void nextAddresses(long[] input, long[] addresses, long[] r, long[] t) {
+        input[6]++;
+        fillBlock(ZERO, 0, input, 0, addresses, 0, false, r, t);
+        fillBlock(ZERO, 0, addresses, 0, addresses, 0, false, r, t);
+    }
+
+    /** Applies the compression function G to two blocks.
+     *
+     * @param x         The words of the first block.
+     * @param xOffset   The offset of the first block.
+     * @param y         The words of the second block.
+     * @param yOffset   The offset of the second block.
+     * @param out       Receives the result. May be one of the inputs.
+     * @param outOffset The offset of the result.
+     * @param xor       Whether the result is XORed into the previous content of {@code out}, as in later passes.
+     * @param r         Scratch space of a block.
+     * @param t         Scratch space of a block.
+     */
+    private static void fillBlock(long[] x, int xOffset, long[] y, int yOffset, long[] out, int outOffset,
+                                  boolean xor, long[] r, long[] t) {
+        for (int i = 0; i < WORDS; i++) {
+            r[i] = x[xOffset + i] ^ y[yOffset + i];
+        }
+        if (xor) {
+            for (int i = 0; i < WORDS; i++) {
+                t[i] = r[i] ^ out[outOffset + i];
+            }
+        } else {
+            System.arraycopy(r, 0, t, 0, WORDS);
+        }
+
+        // Rows of 16 words.
+        for (int i = 0; i < 8; i++) {
+            int b = 16 * i;
+            permute(r, b, b + 1, b + 2, b + 3, b + 4, b + 5, b + 6, b + 7,
+                    b + 8, b + 9, b + 10, b + 11, b + 12, b + 13, b + 14, b + 15);
+        }
+        // Columns of pairs of words.
+        for (int i = 0; i < 8; i++) {
+            int b = 2 * i;
+            permute(r, b, b + 1, b + 16, b + 17, b + 32, b + 33, b + 48, b + 49,
+                    b + 64, b + 65, b + 80, b + 81, b + 96, b + 97, b + 112, b + 113);
+        }
+
+        for (int i = 0; i < WORDS; i++) {
+            out[outOffset + i] = r[i] ^ t[i];
+        }
+    }
+
+    /** The permutation P of Argon2, applied to 16 words of a block. */
+    private static void permute(long[] v, int v0, int v1, int v2, int v3, int v4, int v5, int v6, int v7,
+                                int v8, int v9, int v10, int v11, int v12, int v13, int v14, int v15) {
+        mix(v, v0, v4, v8, v12);
+        mix(v, v1, v5, v9, v13);
+        mix(v, v2, v6, v10, v14);
+        mix(v, v3, v7, v11, v15);
+        mix(v, v0, v5, v10, v15);
+        mix(v, v1, v6, v11, v12);
+        mix(v, v2, v7, v8, v13);
+        mix(v, v3, v4, v9, v14);
+    }
+
+    /** The function GB of Argon2, BLAKE2b's mixing with multiplications. */
+    private static void mix(long[] v, int a, int b, int c, int d) {
+        v[a] = multiplyAdd(v[a], v[b]);
+        v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+        v[c] = multiplyAdd(v[c], v[d]);
+        v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+        v[a] = multiplyAdd(v[a], v[b]);
+        v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+        v[c] = multiplyAdd(v[c], v[d]);
+        v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+    }
+
+    private static long multiplyAdd(long x, long y) {
+        return x + y + 2 * (x & 0xFFFFFFFFL) * (y & 0xFFFFFFFFL);
+    }
+
+    /** The variable-length hash function H' of Argon2.
+     *
+     * @param input       The input.
+     * @param inputLength The number of bytes of {@code input} to use.
+     * @param output      Receives the hash. The whole array is filled.
+     */
+    private static void hashLong(byte[] input, int inputLength, byte[] output) {
+        int length = output.length;
+        Blake2b blake2b = new Blake2b(Math.min(length, Blake2b.MAX_LENGTH));
+        blake2b.updateInt(length).update(input, 0, inputLength);
+        if (length <= Blake2b.MAX_LENGTH) {
+            blake2b.digest(output, 0);
+            return;
+        }
+
+        // Each intermediate hash contributes its first 32 bytes, and the last one all of its bytes.
+        byte[] v = new byte[Blake2b.MAX_LENGTH];
+        blake2b.digest(v, 0);
+        int offset = 0;
+        while (length - offset > Blake2b.MAX_LENGTH) {
+            System.arraycopy(v, 0, output, offset, 32);
+            offset += 32;
+            blake2b.reset(Math.min(length - offset, Blake2b.MAX_LENGTH)).update(v).digest(v, 0);
+        }
+        System.arraycopy(v, 0, output, offset, length - offset);
+        Arrays.fill(v, (byte) 0);
+    }
+
+    static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = value << 8 | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+}
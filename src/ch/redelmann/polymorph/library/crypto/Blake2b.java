@@ -0,0 +1,175 @@
+package ch.redelmann.polymorph.library.crypto;
+
+import java.util.Arrays;
+
+/** Pure Java implementation of the BLAKE2b hash function (RFC 7693), without key, as used by {@link Argon2}. */
+final class Blake2b {
+
+    /** Maximal length of a hash, in bytes. */
+    static final int MAX_LENGTH = 64;
+
+    private static final int BLOCK = 128;
+
+    private static final long[] IV = {
+            0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+            0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+    };
+
+    private static final byte[][] SIGMA = {
+            { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 },
+            { 14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3 },
+            { 11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4 },
+            { 7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8 },
+            { 9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13 },
+            { 2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9 },
+            { 12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11 },
+            { 13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10 },
+            { 6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5 },
+            { 10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0 }
+    };
+
+    private final long[] _h = new long[8];
+    private final long[] _m = new long[16];
+    private final long[] _v = new long[16];
+    private final byte[] _buffer = new byte[BLOCK];
+    private int _buffered;
+    private long _counter;
+    private int _length;
+
+    /** Creates a hash function.
+     *
+     * @param length The length of the hash, between 1 and {@link #MAX_LENGTH} bytes.
+     */
+    Blake2b(int length) {
+        reset(length);
+    }
+
+    /** Starts a new hash.
+     *
+     * @param length The length of the hash, between 1 and {@link #MAX_LENGTH} bytes.
+     * @return this hash function.
+     */
+    Blake2b reset(int length) {
+        assert(length > 0 && length <= MAX_LENGTH);
+
+        System.arraycopy(IV, 0, _h, 0, 8);
+        _h[0] ^= 0x01010000L ^ length;
+        _buffered = 0;
+        _counter = 0;
+        _length = length;
+        return this;
+    }
+
+    /** Hashes bytes.
+     *
+     * @param in     The bytes.
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes.
+     * @return this hash function.
+     */
+    Blake2b update(byte[] in, int offset, int length) {
+        while (length > 0) {
+            // The last block is only compressed once the hash is finished.
+            if (_buffered == BLOCK) {
+                _counter += BLOCK;
+                compress(_buffer, false);
+                _buffered = 0;
+            }
+            int count = Math.min(length, BLOCK - _buffered);
+            System.arraycopy(in, offset, _buffer, _buffered, count);
+            _buffered += count;
+            offset += count;
+            length -= count;
+        }
+        return this;
+    }
+
+    /** Hashes bytes.
+     *
+     * @param in The bytes.
+     * @return this hash function.
+     */
+    Blake2b update(byte[] in) {
+        return update(in, 0, in.length);
+    }
+
+    /** Hashes an integer, as 4 little-endian bytes.
+     *
+     * @param value The integer.
+     * @return this hash function.
+     */
+    Blake2b updateInt(int value) {
+        byte[] bytes = { (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24) };
+        return update(bytes, 0, 4);
+    }
+
+    /** Finishes the hash, and wipes the state of the hash function.
+     *
+     * @param output Receives the hash.
+     * @param offset The offset of the hash in {@code output}.
+     */
+    void digest(byte[] output, int offset) {
+        _counter += _buffered;
+        Arrays.fill(_buffer, _buffered, BLOCK, (byte) 0);
+        compress(_buffer, true);
+        for (int i = 0; i < _length; i++) {
+            output[offset + i] = (byte) (_h[i >> 3] >>> (8 * (i & 7)));
+        }
+        Arrays.fill(_h, 0);
+        Arrays.fill(_m, 0);
+        Arrays.fill(_v, 0);
+        Arrays.fill(_buffer, (byte) 0);
+        _buffered = 0;
+    }
+
+    /** Finishes the hash, and wipes the state of the hash function.
+     *
+     * @return the hash.
+     */
+    byte[] digest() {
+        byte[] output = new byte[_length];
+        digest(output, 0);
+        return output;
+    }
+
+    private void compress(byte[] block, boolean last) {
+        long[] m = _m;
+        long[] v = _v;
+        for (int i = 0; i < 16; i++) {
+            m[i] = Argon2.getLong(block, 8 * i);
+        }
+        System.arraycopy(_h, 0, v, 0, 8);
+        System.arraycopy(IV, 0, v, 8, 8);
+        v[12] ^= _counter;
+        if (last) {
+            v[14] = ~v[14];
+        }
+
+        for (int round = 0; round < 12; round++) {
+            byte[] s = SIGMA[round % 10];
+            mix(v, 0, 4, 8, 12, m[s[0]], m[s[1]]);
+            mix(v, 1, 5, 9, 13, m[s[2]], m[s[3]]);
+            mix(v, 2, 6, 10, 14, m[s[4]], m[s[5]]);
+            mix(v, 3, 7, 11, 15, m[s[6]], m[s[7]]);
+            mix(v, 0, 5, 10, 15, m[s[8]], m[s[9]]);
+            mix(v, 1, 6, 11, 12, m[s[10]], m[s[11]]);
+            mix(v, 2, 7, 8, 13, m[s[12]], m[s[13]]);
+            mix(v, 3, 4, 9, 14, m[s[14]], m[s[15]]);
+        }
+
+        for (int i = 0; i < 8; i++) {
+            _h[i] ^= v[i] ^ v[i + 8];
+        }
+    }
+
+    private static void mix(long[] v, int a, int b, int c, int d, long x, long y) {
+        v[a] = v[a] + v[b] + x;
+        v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+        v[c] = v[c] + v[d];
+        v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+        v[a] = v[a] + v[b] + y;
+        v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+        v[c] = v[c] + v[d];
+        v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+    }
+}
@@ -0,0 +1,55 @@
+package ch.redelmann.polymorph.library.crypto;
+
+/** Implementation of the BlockMix function of {@link SCrypt}, with Salsa20/8 as its core.
+ *
+ * Implementations may keep the 16 words of each block in an order of their own, their layout,
+ * as long as the first word of each block stays first. Blocks are put into the layout once,
+ * before ROMix, and back into the order of RFC 7914 once, after it.
+ *
+ * The implementation used by {@link SCrypt} is the first one found by {@link java.util.ServiceLoader}
+ * that can be {@linkplain #isSupported() used}, and otherwise {@link #SCALAR}.
+ */
+public interface BlockMix {
+
+    /** The portable implementation, computing one word at a time. */
+    BlockMix SCALAR = new ScalarBlockMix();
+
+    /** Returns the name of the implementation.
+     *
+     * @return the name of the implementation.
+     */
+    String getName();
+
+    /** Returns whether the implementation can be used, and is expected to be faster than {@link #SCALAR}.
+     *
+     * @return {@code true} if the implementation can be used.
+     */
+    boolean isSupported();
+
+    /** Puts the words of blocks into the layout of the implementation, in place.
+     *
+     * @param words  The words.
+     * @param offset The offset of the first block.
+     * @param blocks The number of blocks of 16 words.
+     */
+    void toLayout(int[] words, int offset, int blocks);
+
+    /** Puts the words of blocks back into the order of RFC 7914, in place.
+     *
+     * @param words  The words, in the layout of the implementation.
+     * @param offset The offset of the first block.
+     * @param blocks The number of blocks of 16 words.
+     */
+    void fromLayout(int[] words, int offset, int blocks);
+
+    /** Applies BlockMix with Salsa20/8 to {@code 2 * r} blocks, in the layout of the implementation.
+     *
+     * @param in        The input words.
+     * @param inOffset  The offset of the input.
+     * @param out       The output words. Must not overlap with the input.
+     * @param outOffset The offset of the output.
+     * @param x         Scratch space of 16 words.
+     * @param r         The block size r.
+     */
+    void blockMix(int[] in, int inOffset, int[] out, int outOffset, int[] x, int r);
+}
@@ -0,0 +1,37 @@
+package ch.redelmann.polymorph.library.crypto;
+
+import java.util.Arrays;
+
+/** Arena backed by an {@code int} array on the heap. */
+final class HeapArena extends Arena {
+
+    private int[] _words = new int[0];
+
+    @Override
+    void ensure(int words) {
+        if (_words.length < words) {
+            _words = new int[words];
+        }
+    }
+
+    @Override
+    void store(int offset, int[] src, int srcOffset, int length) {
+        System.arraycopy(src, srcOffset, _words, offset, length);
+    }
+
+    @Override
+    void xor(int offset, int[] dst, int dstOffset, int length) {
+        SCrypt.xor(_words, offset, dst, dstOffset, length);
+    }
+
+    @Override
+    void wipe(int words) {
+        Arrays.fill(_words, 0, words, 0);
+    }
+
+    @Override
+    void release() {
+        Arrays.fill(_words, 0);
+        _words = new int[0];
+    }
+}
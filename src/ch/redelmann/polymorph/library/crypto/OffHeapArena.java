@@ -0,0 +1,61 @@
+package ch.redelmann.polymorph.library.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/** Arena backed by direct memory, outside of the Java heap.
+ *
+ * The memory is zeroed, and thus pre-faulted, when allocated,
+ * and is then reused until a larger arena is needed.
+ * Direct memory is limited by {@code -XX:MaxDirectMemorySize}.
+ */
+final class OffHeapArena extends Arena {
+
+    /** Zeros used to wipe the arena in bulk. */
+    private static final int[] ZEROS = new int[4096];
+
+    private IntBuffer _words = IntBuffer.allocate(0);
+
+    /** Words read from the arena, before they are xor-ed. */
+    private int[] _scratch = new int[0];
+
+    @Override
+    void ensure(int words) {
+        if (_words.capacity() < words) {
+            release();
+            // Direct buffers are zeroed on allocation, which touches every page.
+            _words = ByteBuffer.allocateDirect(4 * words).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+    }
+
+    @Override
+    void store(int offset, int[] src, int srcOffset, int length) {
+        _words.put(offset, src, srcOffset, length);
+    }
+
+    @Override
+    void xor(int offset, int[] dst, int dstOffset, int length) {
+        if (_scratch.length < length) {
+            _scratch = new int[length];
+        }
+        _words.get(offset, _scratch, 0, length);
+        SCrypt.xor(_scratch, 0, dst, dstOffset, length);
+    }
+
+    @Override
+    void wipe(int words) {
+        for (int i = 0; i < words; i += ZEROS.length) {
+            _words.put(i, ZEROS, 0, Math.min(ZEROS.length, words - i));
+        }
+        Arrays.fill(_scratch, 0);
+    }
+
+    @Override
+    void release() {
+        wipe(_words.capacity());
+        _words = IntBuffer.allocate(0);
+        _scratch = new int[0];
+    }
+}
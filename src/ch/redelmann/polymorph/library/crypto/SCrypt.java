@@ -0,0 +1,677 @@
+package ch.redelmann.polymorph.library.crypto;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/** Pure Java implementation of the SCrypt key derivation function (RFC 7914).
+ *
+ * Scratch memory is taken from a {@link Workspace}, by default one per thread,
+ * and is wiped after each derivation. Once the workspace has grown to the
+ * parameters in use, derivations do not allocate.
+ *
+ * When a {@linkplain #setLaneExecutor(Executor) lane executor} is set,
+ * the p independent lanes of ROMix are computed concurrently.
+ *
+ * Independent derivations with the same parameters can be {@linkplain #scrypt(byte[][], byte[][], int, int, int,
+ * byte[][], int) interleaved} on one thread, so that the memory accesses of one overlap with the
+ * computations of the others.
+ *
+ * BlockMix is computed by the {@linkplain #getBlockMix() implementation} chosen when the class
+ * is loaded, which can be forced with the {@code polymorph.scrypt.blockmix} system property,
+ * for instance to {@code scalar}.
+ */
+public final class SCrypt {
+
+    /** Workspace of each thread. */
+    private static final ThreadLocal<Workspace> WORKSPACES = ThreadLocal.withInitial(Workspace::new);
+
+    /** Maximal number of derivations interleaved on one thread. */
+    public static final int MAX_INTERLEAVED = 8;
+
+    /** Workspaces of each thread for interleaved derivations, created on first use. */
+    private static final ThreadLocal<Workspace[]> INTERLEAVED_WORKSPACES =
+            ThreadLocal.withInitial(() -> new Workspace[MAX_INTERLEAVED]);
+
+    /** Implementation of BlockMix. */
+    private static final BlockMix BLOCK_MIX = loadBlockMix();
+
+    /** Executor on which lanes are computed, or {@code null} to compute them sequentially. */
+    private static volatile Executor laneExecutor = null;
+
+    private SCrypt() {}
+
+    /** Sets the executor on which the lanes of derivations with {@code p > 1} are computed.
+     *
+     * Each concurrent lane uses a V array of its own, so memory becomes proportional to
+     * the number of lanes computed at once. A bounded pool is thus recommended.
+     * The calling thread computes the lanes that have not been started by the executor,
+     * so that derivations make progress even when the executor is saturated.
+     *
+     * @param executor The executor, or {@code null} to compute lanes sequentially on the calling thread.
+     */
+    public static void setLaneExecutor(Executor executor) {
+        laneExecutor = executor;
+    }
+
+    /** Returns the executor on which lanes are computed.
+     *
+     * @return the executor, or {@code null} if lanes are computed sequentially.
+     */
+    public static Executor getLaneExecutor() {
+        return laneExecutor;
+    }
+
+    /** Returns the implementation of BlockMix in use.
+     *
+     * @return the implementation of BlockMix.
+     */
+    public static BlockMix getBlockMix() {
+        return BLOCK_MIX;
+    }
+
+    /** Finds the implementation of BlockMix to use.
+     *
+     * @return the requested implementation if any, otherwise the first supported one, otherwise the scalar one.
+     */
+    private static BlockMix loadBlockMix() {
+        return loadBlockMix(System.getProperty("polymorph.scrypt.blockmix"), SCrypt.class.getClassLoader());
+    }
+
+    /** Finds the implementation of BlockMix to use among the providers of a class loader.
+     *
+     * @param requested The name of the requested implementation, or {@code null} for the first supported one.
+     * @param loader    The class loader of the providers.
+     * @return the requested implementation if any, otherwise the first supported one, otherwise the scalar one.
+     */
+    static BlockMix loadBlockMix(String requested, ClassLoader loader) {
+        if (BlockMix.SCALAR.getName().equals(requested)) {
+            return BlockMix.SCALAR;
+        }
+        Iterator<BlockMix> providers = ServiceLoader.load(BlockMix.class, loader).iterator();
+        while (true) {
+            try {
+                if (!providers.hasNext()) {
+                    break;
+                }
+            } catch (ServiceConfigurationError e) {
+                // The provider configuration files can not be read.
+                break;
+            }
+            try {
+                BlockMix blockMix = providers.next();
+                if ((requested == null || requested.equals(blockMix.getName())) && blockMix.isSupported()) {
+                    return blockMix;
+                }
+            } catch (ServiceConfigurationError | LinkageError e) {
+                // Optional implementations whose dependencies are missing, such as incubator modules,
+                // are skipped, and the next ones are tried.
+            }
+        }
+        return BlockMix.SCALAR;
+    }
+
+    /** Derives a key using SCrypt.
+     *
+     * @param password The password.
+     * @param salt     The salt.
+     * @param n        The CPU and memory cost N. Must be a power of 2 greater than 1.
+     * @param r        The block size r.
+     * @param p        The parallelization p.
+     * @param length   The length of the derived key, in bytes.
+     * @return the derived key.
+     */
+    public static byte[] scrypt(byte[] password, byte[] salt, int n, int r, int p, int length) {
+        byte[] output = new byte[length];
+        scrypt(password, salt, n, r, p, output);
+        return output;
+    }
+
+    /** Derives a key using SCrypt, using the workspace of the current thread.
+     *
+     * @param password The password.
+     * @param salt     The salt.
+     * @param n        The CPU and memory cost N. Must be a power of 2 greater than 1.
+     * @param r        The block size r.
+     * @param p        The parallelization p.
+     * @param output   Receives the derived key. The whole array is filled.
+     */
+    public static void scrypt(byte[] password, byte[] salt, int n, int r, int p, byte[] output) {
+        scrypt(password, salt, n, r, p, output, WORKSPACES.get());
+    }
+
+    /** Derives a key using SCrypt.
+     *
+     * @param password  The password.
+     * @param salt      The salt.
+     * @param n         The CPU and memory cost N. Must be a power of 2 greater than 1.
+     * @param r         The block size r.
+     * @param p         The parallelization p.
+     * @param output    Receives the derived key. The whole array is filled.
+     * @param workspace The workspace providing scratch memory.
+     */
+    public static void scrypt(byte[] password, byte[] salt, int n, int r, int p, byte[] output,
+                              Workspace workspace) {
+        scrypt(password, password.length, salt, salt.length, n, r, p, output, workspace);
+    }
+
+    /** Derives a key using SCrypt, from the first bytes of the password and salt arrays,
+     * using the workspace of the current thread.
+     *
+     * @param password       The password.
+     * @param passwordLength The number of bytes of {@code password} to use.
+     * @param salt           The salt.
+     * @param saltLength     The number of bytes of {@code salt} to use.
+     * @param n              The CPU and memory cost N. Must be a power of 2 greater than 1.
+     * @param r              The block size r.
+     * @param p              The parallelization p.
+     * @param output         Receives the derived key. The whole array is filled.
+     */
+    public static void scrypt(byte[] password, int passwordLength, byte[] salt, int saltLength,
+                              int n, int r, int p, byte[] output) {
+        scrypt(password, passwordLength, salt, saltLength, n, r, p, output, WORKSPACES.get());
+    }
+
+    /** Derives a key using SCrypt, from the first bytes of the password and salt arrays.
+     *
+     * @param password       The password.
+     * @param passwordLength The number of bytes of {@code password} to use.
+     * @param salt           The salt.
+     * @param saltLength     The number of bytes of {@code salt} to use.
+     * @param n              The CPU and memory cost N. Must be a power of 2 greater than 1.
+     * @param r              The block size r.
+     * @param p              The parallelization p.
+     * @param output         Receives the derived key. The whole array is filled.
+     * @param workspace      The workspace providing scratch memory.
+     */
+    public static void scrypt(byte[] password, int passwordLength, byte[] salt, int saltLength,
+                              int n, int r, int p, byte[] output, Workspace workspace) {
+        check(n, r, p);
+
+        workspace.ensure(n, r, p);
+        try {
+            int laneSize = 128 * r;
+            byte[] b = workspace.b;
+            pbkdf2(password, passwordLength, salt, saltLength, b, laneSize * p, workspace);
+            Executor executor = laneExecutor;
+            if (executor == null || p == 1) {
+                for (int i = 0; i < p; i++) {
+                    romix(b, i * laneSize, n, r, workspace);
+                }
+            } else {
+                romixConcurrently(b, n, r, p, workspace, executor);
+            }
+            pbkdf2(password, passwordLength, b, laneSize * p, output, output.length, workspace);
+        } finally {
+            workspace.wipe(n, r, p);
+        }
+    }
+
+    /** Derives keys of independent inputs using SCrypt, interleaving up to {@code interleaved}
+     * derivations at a time on the current thread.
+     *
+     * The derivations of a group advance in lockstep, one BlockMix at a time, and the reads of their
+     * V arrays are issued together, so that the latency of one overlaps with the others.
+     * Each derivation of a group uses a workspace of its own, so memory is proportional to
+     * {@code interleaved}. Lanes are computed sequentially, without the lane executor.
+     * The results are the same as with separate derivations.
+     *
+     * @param passwords   The password of each derivation.
+     * @param salts       The salt of each derivation.
+     * @param n           The CPU and memory cost N. Must be a power of 2 greater than 1.
+     * @param r           The block size r.
+     * @param p           The parallelization p.
+     * @param outputs     Receives the derived key of each derivation. The whole arrays are filled.
+     * @param interleaved The number of derivations interleaved, between 1 and {@link #MAX_INTERLEAVED}.
+     */
+    public static void scrypt(byte[][] passwords, byte[][] salts, int n, int r, int p, byte[][] outputs,
+                              int interleaved) {
+        assert(passwords.length == salts.length && salts.length == outputs.length);
+
+        check(n, r, p);
+        if (interleaved < 1 || interleaved > MAX_INTERLEAVED) {
+            throw new IllegalArgumentException("Between 1 and " + MAX_INTERLEAVED + " derivations can be interleaved");
+        }
+
+        Workspace[] workspaces = INTERLEAVED_WORKSPACES.get();
+        workspaces[0] = WORKSPACES.get();
+        for (int start = 0; start < salts.length; start += interleaved) {
+            int count = Math.min(interleaved, salts.length - start);
+            for (int k = 0; k < count; k++) {
+                if (workspaces[k] == null) {
+                    workspaces[k] = new Workspace();
+                }
+                workspaces[k].ensure(n, r, p);
+            }
+            try {
+                scrypt(passwords, salts, start, count, n, r, p, outputs, workspaces);
+            } finally {
+                for (int k = 0; k < count; k++) {
+                    workspaces[k].wipe(n, r, p);
+                }
+            }
+        }
+    }
+
+    /** Derives keys of a group of inputs, interleaving their derivations.
+     *
+     * @param passwords  The password of each derivation.
+     * @param salts      The salt of each derivation.
+     * @param start      The index of the first derivation of the group.
+     * @param count      The number of derivations of the group.
+     * @param n          The CPU and memory cost N.
+     * @param r          The block size r.
+     * @param p          The parallelization p.
+     * @param outputs    Receives the derived key of each derivation.
+     * @param workspaces The workspace of each derivation of the group, large enough for the parameters.
+     */
+    private static void scrypt(byte[][] passwords, byte[][] salts, int start, int count, int n, int r, int p,
+                               byte[][] outputs, Workspace[] workspaces) {
+        int laneSize = 128 * r;
+        for (int k = 0; k < count; k++) {
+            byte[] password = passwords[start + k];
+            byte[] salt = salts[start + k];
+            pbkdf2(password, password.length, salt, salt.length, workspaces[k].b, laneSize * p, workspaces[k]);
+        }
+        for (int i = 0; i < p; i++) {
+            romix(workspaces, count, i * laneSize, n, r, BLOCK_MIX);
+        }
+        for (int k = 0; k < count; k++) {
+            byte[] password = passwords[start + k];
+            byte[] output = outputs[start + k];
+            pbkdf2(password, password.length, workspaces[k].b, laneSize * p, output, output.length, workspaces[k]);
+        }
+    }
+
+    /** Releases the workspaces of the current thread, so that their memory can be reclaimed. */
+    public static void releaseWorkspace() {
+        WORKSPACES.get().wipe();
+        WORKSPACES.remove();
+        for (Workspace workspace : INTERLEAVED_WORKSPACES.get()) {
+            if (workspace != null) {
+                workspace.wipe();
+            }
+        }
+        INTERLEAVED_WORKSPACES.remove();
+    }
+
+    /** Checks the validity of SCrypt parameters.
+     *
+     * @param n The CPU and memory cost N.
+     * @param r The block size r.
+     * @param p The parallelization p.
+     * @throws IllegalArgumentException if the parameters are invalid.
+     */
+    static void check(int n, int r, int p) {
+        if (r < 1 || p < 1) {
+            throw new IllegalArgumentException("Parameters r and p must be positive");
+        }
+        if (n < 2 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("N must be a power of 2 greater than 1");
+        }
+        if (n > Integer.MAX_VALUE / 128 / r) {
+            throw new IllegalArgumentException("Parameter N is too large");
+        }
+        if (r > Integer.MAX_VALUE / 128 / p) {
+            throw new IllegalArgumentException("Parameter r is too large");
+        }
+    }
+
+    /** Applies ROMix to all lanes of {@code b}, in place, using an executor.
+     *
+     * The first lane is computed by the calling thread, using the given workspace.
+     * Other lanes use the workspace of the thread that computes them.
+     *
+     * @param b         The bytes containing the lanes.
+     * @param n         The CPU and memory cost N.
+     * @param r         The block size r.
+     * @param p         The number of lanes.
+     * @param workspace The workspace of the calling thread.
+     * @param executor  The executor on which lanes are computed.
+     */
+    private static void romixConcurrently(byte[] b, int n, int r, int p, Workspace workspace, Executor executor) {
+        int laneSize = 128 * r;
+        List<FutureTask<Void>> tasks = new ArrayList<>(p - 1);
+        for (int i = 1; i < p; i++) {
+            int offset = i * laneSize;
+            FutureTask<Void> task = new FutureTask<>(() -> {
+                Workspace local = WORKSPACES.get();
+                // Lanes only need the X, Y and V buffers.
+                local.ensure(n, r, 0);
+                try {
+                    romix(b, offset, n, r, local);
+                } finally {
+                    local.wipe(n, r, 0);
+                }
+            }, null);
+            tasks.add(task);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // The task is run by the calling thread below.
+            }
+        }
+
+        romix(b, 0, n, r, workspace);
+
+        for (FutureTask<Void> task : tasks) {
+            // Has no effect if the task was already started by the executor.
+            task.run();
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while computing SCrypt lanes.", e);
+            }
+        }
+    }
+
+    /** Applies ROMix to a lane of {@code b}, in place.
+     *
+     * @param b         The bytes containing the lane.
+     * @param offset    The offset of the lane.
+     * @param n         The CPU and memory cost N.
+     * @param r         The block size r.
+     * @param workspace The workspace providing scratch memory.
+     */
+    static void romix(byte[] b, int offset, int n, int r, Workspace workspace) {
+        romix(b, offset, n, r, workspace, BLOCK_MIX);
+    }
+
+    /** Applies ROMix to a lane of {@code b}, in place, with the given implementation of BlockMix.
+     *
+     * @param b         The bytes containing the lane.
+     * @param offset    The offset of the lane.
+     * @param n         The CPU and memory cost N.
+     * @param r         The block size r.
+     * @param workspace The workspace providing scratch memory.
+     * @param mix       The implementation of BlockMix.
+     */
+    static void romix(byte[] b, int offset, int n, int r, Workspace workspace, BlockMix mix) {
+        int words = 32 * r;
+        int[] xy = workspace.xy;
+        Arena v = workspace.v;
+        int[] x = workspace.x;
+        int last = (2 * r - 1) * 16;
+
+        decode(b, offset, xy, words);
+        // The first word of each block, used by Integerify, is the same in all layouts.
+        mix.toLayout(xy, 0, 2 * r);
+
+        for (int i = 0; i < n; i += 2) {
+            v.store(i * words, xy, 0, words);
+            mix.blockMix(xy, 0, xy, words, x, r);
+            v.store((i + 1) * words, xy, words, words);
+            mix.blockMix(xy, words, xy, 0, x, r);
+        }
+
+        for (int i = 0; i < n; i += 2) {
+            int j = xy[last] & (n - 1);
+            v.xor(j * words, xy, 0, words);
+            mix.blockMix(xy, 0, xy, words, x, r);
+            j = xy[words + last] & (n - 1);
+            v.xor(j * words, xy, words, words);
+            mix.blockMix(xy, words, xy, 0, x, r);
+        }
+
+        mix.fromLayout(xy, 0, 2 * r);
+        encode(xy, words, b, offset);
+    }
+
+    /** Applies ROMix to a lane of the buffers of several workspaces, in place, interleaving their steps.
+     *
+     * Each step is applied to all lanes before the next one, and the reads of the V arrays of all lanes
+     * are issued before their BlockMix, so that the processor can overlap them.
+     *
+     * @param workspaces The workspaces, whose {@code b} buffers contain the lanes.
+     * @param count      The number of workspaces used.
+     * @param offset     The offset of the lanes in the {@code b} buffers.
+     * @param n          The CPU and memory cost N.
+     * @param r          The block size r.
+     * @param mix        The implementation of BlockMix.
+     */
+    static void romix(Workspace[] workspaces, int count, int offset, int n, int r, BlockMix mix) {
+        int words = 32 * r;
+        int last = (2 * r - 1) * 16;
+
+        for (int k = 0; k < count; k++) {
+            decode(workspaces[k].b, offset, workspaces[k].xy, words);
+            mix.toLayout(workspaces[k].xy, 0, 2 * r);
+        }
+
+        for (int i = 0; i < n; i += 2) {
+            for (int k = 0; k < count; k++) {
+                Workspace w = workspaces[k];
+                w.v.store(i * words, w.xy, 0, words);
+                mix.blockMix(w.xy, 0, w.xy, words, w.x, r);
+            }
+            for (int k = 0; k < count; k++) {
+                Workspace w = workspaces[k];
+                w.v.store((i + 1) * words, w.xy, words, words);
+                mix.blockMix(w.xy, words, w.xy, 0, w.x, r);
+            }
+        }
+
+        for (int i = 0; i < n; i += 2) {
+            for (int k = 0; k < count; k++) {
+                Workspace w = workspaces[k];
+                w.v.xor((w.xy[last] & (n - 1)) * words, w.xy, 0, words);
+            }
+            for (int k = 0; k < count; k++) {
+                Workspace w = workspaces[k];
+                mix.blockMix(w.xy, 0, w.xy, words, w.x, r);
+            }
+            for (int k = 0; k < count; k++) {
+                Workspace w = workspaces[k];
+                w.v.xor((w.xy[words + last] & (n - 1)) * words, w.xy, words, words);
+            }
+            for (int k = 0; k < count; k++) {
+                Workspace w = workspaces[k];
+                mix.blockMix(w.xy, words, w.xy, 0, w.x, r);
+            }
+        }
+
+        for (int k = 0; k < count; k++) {
+            mix.fromLayout(workspaces[k].xy, 0, 2 * r);
+            encode(workspaces[k].xy, words, workspaces[k].b, offset);
+        }
+    }
+
+    /** Applies BlockMix with Salsa20/8 to {@code 2 * r} blocks.
+     *
+     * @param in        The input words.
+     * @param inOffset  The offset of the input.
+     * @param out       The output words. Must not overlap with the input.
+     * @param outOffset The offset of the output.
+     * @param x         Scratch space of 16 words.
+     * @param r         The block size r.
+     */
+    static void blockMix(int[] in, int inOffset, int[] out, int outOffset, int[] x, int r) {
+        System.arraycopy(in, inOffset + (2 * r - 1) * 16, x, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            xor(in, inOffset + i * 16, x, 0, 16);
+            salsa20_8(x);
+            // Even blocks go to the first half of the output, odd blocks to the second.
+            System.arraycopy(x, 0, out, outOffset + ((i >> 1) + (i & 1) * r) * 16, 16);
+        }
+    }
+
+    /** Applies the Salsa20/8 core to 16 words, in place.
+     *
+     * @param b The words.
+     */
+    static void salsa20_8(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3];
+        int x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11];
+        int x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+
+        for (int i = 0; i < 8; i += 2) {
+            // Columns.
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            // Rows.
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3;
+        b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11;
+        b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+
+    /** Xors words of {@code src} into {@code dst}.
+     *
+     * @param src       The source words.
+     * @param srcOffset The offset in the source.
+     * @param dst       The destination words.
+     * @param dstOffset The offset in the destination.
+     * @param length    The number of words.
+     */
+    static void xor(int[] src, int srcOffset, int[] dst, int dstOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] ^= src[srcOffset + i];
+        }
+    }
+
+    /** Reads little-endian words from bytes.
+     *
+     * @param src    The bytes.
+     * @param offset The offset in the bytes.
+     * @param dst    Receives the words.
+     * @param words  The number of words to read.
+     */
+    static void decode(byte[] src, int offset, int[] dst, int words) {
+        for (int i = 0; i < words; i++) {
+            int k = offset + 4 * i;
+            dst[i] = (src[k] & 0xFF)
+                    | (src[k + 1] & 0xFF) << 8
+                    | (src[k + 2] & 0xFF) << 16
+                    | (src[k + 3] & 0xFF) << 24;
+        }
+    }
+
+    /** Writes words as little-endian bytes.
+     *
+     * @param src    The words.
+     * @param words  The number of words to write.
+     * @param dst    Receives the bytes.
+     * @param offset The offset in the bytes.
+     */
+    static void encode(int[] src, int words, byte[] dst, int offset) {
+        for (int i = 0; i < words; i++) {
+            int k = offset + 4 * i;
+            int w = src[i];
+            dst[k] = (byte) w;
+            dst[k + 1] = (byte) (w >>> 8);
+            dst[k + 2] = (byte) (w >>> 16);
+            dst[k + 3] = (byte) (w >>> 24);
+        }
+    }
+
+    /** Computes PBKDF2 with HMAC-SHA256 and a single iteration.
+     *
+     * @param password       The password, used as HMAC key.
+     * @param passwordLength The number of bytes of the password to use.
+     * @param salt           The salt.
+     * @param saltLength     The number of bytes of the salt to use.
+     * @param output         Receives the derived bytes.
+     * @param outputLength   The number of bytes to derive.
+     * @param workspace      The workspace providing the digest and buffers.
+     */
+    static void pbkdf2(byte[] password, int passwordLength, byte[] salt, int saltLength,
+                       byte[] output, int outputLength, Workspace workspace) {
+        MessageDigest digest = workspace.digest;
+        byte[] innerPad = workspace.innerPad;
+        byte[] outerPad = workspace.outerPad;
+        byte[] block = workspace.block;
+        byte[] counter = workspace.counter;
+
+        // Computing the padded keys.
+        Arrays.fill(innerPad, (byte) 0);
+        if (passwordLength > Workspace.BLOCK_SIZE) {
+            digest.update(password, 0, passwordLength);
+            digestInto(digest, innerPad);
+        } else {
+            System.arraycopy(password, 0, innerPad, 0, passwordLength);
+        }
+        for (int i = 0; i < Workspace.BLOCK_SIZE; i++) {
+            outerPad[i] = (byte) (innerPad[i] ^ 0x5C);
+            innerPad[i] ^= 0x36;
+        }
+
+        for (int i = 1, done = 0; done < outputLength; i++, done += Workspace.DIGEST_SIZE) {
+            counter[0] = (byte) (i >>> 24);
+            counter[1] = (byte) (i >>> 16);
+            counter[2] = (byte) (i >>> 8);
+            counter[3] = (byte) i;
+
+            digest.update(innerPad);
+            digest.update(salt, 0, saltLength);
+            digest.update(counter);
+            digestInto(digest, block);
+            digest.update(outerPad);
+            digest.update(block);
+            digestInto(digest, block);
+
+            System.arraycopy(block, 0, output, done, Math.min(Workspace.DIGEST_SIZE, outputLength - done));
+        }
+    }
+
+    /** Completes a digest into the first bytes of {@code output}, without allocating.
+     *
+     * @param digest The SHA-256 digest.
+     * @param output Receives the digest.
+     */
+    private static void digestInto(MessageDigest digest, byte[] output) {
+        try {
+            digest.digest(output, 0, Workspace.DIGEST_SIZE);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ch.redelmann.polymorph.library.crypto;
+
+/** BlockMix computing one word at a time, with blocks in the order of RFC 7914. */
+final class ScalarBlockMix implements BlockMix {
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public boolean isSupported() {
+        return true;
+    }
+
+    @Override
+    public void toLayout(int[] words, int offset, int blocks) {
+        // Blocks are kept in order.
+    }
+
+    @Override
+    public void fromLayout(int[] words, int offset, int blocks) {
+        // Blocks are kept in order.
+    }
+
+    @Override
+    public void blockMix(int[] in, int inOffset, int[] out, int outOffset, int[] x, int r) {
+        SCrypt.blockMix(in, inOffset, out, outOffset, x, r);
+    }
+}
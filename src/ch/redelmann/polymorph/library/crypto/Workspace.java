@@ -0,0 +1,144 @@
+package ch.redelmann.polymorph.library.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/** Scratch buffers used by {@link SCrypt}.
+ *
+ * Buffers grow to the largest parameters seen and are then reused,
+ * so that derivations with the same parameters do not allocate.
+ * A workspace must not be used by more than one thread at a time.
+ *
+ * The V array is kept on the heap, unless its size reaches the
+ * {@linkplain #setOffHeapThreshold(long) off-heap threshold}, in which case
+ * it is kept in direct memory, outside of the Java heap.
+ */
+public final class Workspace {
+
+    /** Size in bytes from which the V array is kept off-heap. */
+    private static volatile long offHeapThreshold = Long.MAX_VALUE;
+
+    /** SHA-256 block size, in bytes. */
+    static final int BLOCK_SIZE = 64;
+
+    /** SHA-256 output size, in bytes. */
+    static final int DIGEST_SIZE = 32;
+
+    /** Digest used by HMAC-SHA256. */
+    final MessageDigest digest;
+
+    /** Key of the HMAC, xor-ed with the inner padding. */
+    final byte[] innerPad = new byte[BLOCK_SIZE];
+
+    /** Key of the HMAC, xor-ed with the outer padding. */
+    final byte[] outerPad = new byte[BLOCK_SIZE];
+
+    /** Output of the inner and outer hashes of the HMAC. */
+    final byte[] block = new byte[DIGEST_SIZE];
+
+    /** Big-endian block counter of PBKDF2. */
+    final byte[] counter = new byte[4];
+
+    /** State of the Salsa20/8 core. */
+    final int[] x = new int[16];
+
+    /** Output of the first PBKDF2, of size {@code 128 * r * p}. */
+    byte[] b = new byte[0];
+
+    /** The X and Y blocks of ROMix, of size {@code 64 * r}. */
+    int[] xy = new int[0];
+
+    /** The V array of ROMix, of size {@code 32 * r * N}. */
+    Arena v;
+
+    /** Arena used for V arrays on the heap. */
+    private final Arena _heap = new HeapArena();
+
+    /** Arena used for V arrays off the heap, allocated on first use. */
+    private Arena _offHeap;
+
+    /** Builds an empty workspace. */
+    public Workspace() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    /** Makes sure the buffers are large enough for the given parameters.
+     *
+     * @param n The CPU and memory cost N.
+     * @param r The block size r.
+     * @param p The parallelization p.
+     */
+    void ensure(int n, int r, int p) {
+        if (b.length < 128 * r * p) {
+            b = new byte[128 * r * p];
+        }
+        if (xy.length < 64 * r) {
+            xy = new int[64 * r];
+        }
+        int words = 32 * r * n;
+        if (4L * words >= offHeapThreshold) {
+            if (_offHeap == null) {
+                _offHeap = new OffHeapArena();
+            }
+            v = _offHeap;
+        } else {
+            v = _heap;
+        }
+        v.ensure(words);
+    }
+
+    /** Overwrites the part of the buffers used by the given parameters with zeros.
+     *
+     * @param n The CPU and memory cost N.
+     * @param r The block size r.
+     * @param p The parallelization p.
+     */
+    void wipe(int n, int r, int p) {
+        Arrays.fill(innerPad, (byte) 0);
+        Arrays.fill(outerPad, (byte) 0);
+        Arrays.fill(block, (byte) 0);
+        Arrays.fill(x, 0);
+        Arrays.fill(b, 0, 128 * r * p, (byte) 0);
+        Arrays.fill(xy, 0, 64 * r, 0);
+        if (v != null) {
+            v.wipe(32 * r * n);
+        }
+        digest.reset();
+    }
+
+    /** Overwrites the content of all buffers with zeros, and releases the memory of the V array. */
+    public void wipe() {
+        wipe(0, 0, 0);
+        Arrays.fill(b, (byte) 0);
+        Arrays.fill(xy, 0);
+        _heap.release();
+        if (_offHeap != null) {
+            _offHeap.release();
+        }
+    }
+
+    /** Sets the size of V arrays from which direct memory is used instead of the heap.
+     *
+     * Off-heap arenas are allocated and pre-faulted once per workspace, and reused across derivations.
+     * Direct memory is limited by the {@code -XX:MaxDirectMemorySize} option of the JVM.
+     *
+     * @param bytes The size in bytes, i.e. {@code 128 * r * N}, from which V is kept off-heap.
+     *              Use {@code Long.MAX_VALUE} to always keep V on the heap.
+     */
+    public static void setOffHeapThreshold(long bytes) {
+        offHeapThreshold = bytes;
+    }
+
+    /** Returns the size of V arrays from which direct memory is used instead of the heap.
+     *
+     * @return the size in bytes from which V is kept off-heap.
+     */
+    public static long getOffHeapThreshold() {
+        return offHeapThreshold;
+    }
+}
@@ -0,0 +1,159 @@
+package ch.redelmann.polymorph.library.daemon;
+
+import ch.redelmann.polymorph.library.Configuration;
+import ch.redelmann.polymorph.library.Entry;
+import ch.redelmann.polymorph.library.schema.Schema;
+import ch.redelmann.polymorph.library.schema.SchemaRegistry;
+
+import java.io.*;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Connection to a {@link DerivationDaemon}.
+ *
+ * Requests are sent one at a time. A client may be shared by several threads,
+ * whose requests are then serialized; threads wanting concurrent requests should
+ * open a client each.
+ */
+public class DaemonClient implements Closeable {
+
+    /** The connection to the daemon. */
+    private final SocketChannel _channel;
+
+    /** The input of the connection. */
+    private final DataInputStream _input;
+
+    /** The output of the connection. */
+    private final DataOutputStream _output;
+
+    /** The registry resolving the schemas of looked up entries. */
+    private final SchemaRegistry _registry;
+
+    private DaemonClient(SocketChannel channel, SchemaRegistry registry) {
+        _channel = channel;
+        _input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        _output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        _registry = registry;
+    }
+
+    /** Connects to a daemon listening on a Unix-domain socket.
+     *
+     * @param address The address of the daemon, as returned by {@link DerivationDaemon#getAddress()}.
+     * @return the client.
+     * @throws IOException if the connection fails.
+     */
+    public static DaemonClient connect(SocketAddress address) throws IOException {
+        return connect(address, null);
+    }
+
+    /** Connects to a daemon, presenting its token when it listens over TCP.
+     *
+     * @param address The address of the daemon, as returned by {@link DerivationDaemon#getAddress()}.
+     * @param token   The token of the daemon, as returned by {@link DerivationDaemon#getToken()},
+     *                or {@code null} for Unix-domain sockets.
+     * @return the client.
+     * @throws IOException if the connection fails, or if the daemon refuses the token.
+     */
+    public static DaemonClient connect(SocketAddress address, String token) throws IOException {
+        SocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open();
+        DaemonClient client = new DaemonClient(channel, SchemaRegistry.getDefault());
+        try {
+            channel.connect(address);
+            if (token != null) {
+                client.call(new Frame().putByte(Protocol.AUTH).putString(token)).wipe();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return client;
+    }
+
+    /** Checks that the daemon answers.
+     *
+     * @throws IOException if the connection fails.
+     */
+    public synchronized void ping() throws IOException {
+        call(new Frame().putByte(Protocol.PING)).wipe();
+    }
+
+    /** Computes a password, as {@link ch.redelmann.polymorph.library.Polymorph#derive(Schema, String, String, Configuration)}.
+     *
+     * @param schema        The schema used to derive the password. Must be registered in the
+     *                      {@linkplain SchemaRegistry#getDefault() default registry} of the daemon.
+     * @param domain        The domain for which the derived password is used.
+     * @param password      The master password.
+     * @param configuration Configuration parameters for SCrypt.
+     * @return a password following the given {@code schema}.
+     * @throws IOException if the connection fails, or if the daemon refuses the request.
+     */
+    public synchronized String derive(Schema schema, String domain, String password, Configuration configuration)
+            throws IOException {
+        Frame request = new Frame().putByte(Protocol.DERIVE);
+        Protocol.putSchema(request, schema);
+        request.putString(domain).putString(password);
+        Protocol.putConfiguration(request, configuration);
+
+        Frame response = call(request);
+        try {
+            return response.getString();
+        } finally {
+            response.wipe();
+        }
+    }
+
+    /** Returns the first entries of the history of the daemon whose domain starts with {@code prefix}, ignoring case.
+     *
+     * @param prefix The prefix of the domains.
+     * @param limit  The maximal number of entries returned.
+     * @return the matching entries, sorted.
+     * @throws IOException if the connection fails, or if the daemon refuses the request.
+     */
+    public synchronized List<Entry> lookup(String prefix, int limit) throws IOException {
+        Frame response = call(new Frame().putByte(Protocol.LOOKUP).putString(prefix).putInt(limit));
+        int count = response.getInt();
+        List<Entry> entries = new ArrayList<>(Math.min(count, Frame.MAX_SIZE));
+        for (int i = 0; i < count; i++) {
+            try {
+                entries.add(Protocol.getEntry(response, _registry));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid entry from the daemon.", e);
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _channel.close();
+    }
+
+    /** Sends a request and reads its successful response.
+     *
+     * @param request The request, wiped once sent.
+     * @return the response, positioned after its status.
+     * @throws IOException if the connection fails, or if the daemon refuses the request.
+     */
+    private Frame call(Frame request) throws IOException {
+        try {
+            request.write(_output);
+        } finally {
+            request.wipe();
+        }
+        Frame response = Frame.read(_input);
+        if (response == null) {
+            throw new EOFException("The daemon closed the connection.");
+        }
+        if (response.getByte() != Protocol.OK) {
+            throw new IOException("The daemon refused the request: " + response.getString());
+        }
+        return response;
+    }
+}
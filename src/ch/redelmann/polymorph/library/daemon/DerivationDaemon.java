@@ -0,0 +1,523 @@
+package ch.redelmann.polymorph.library.daemon;
+
+import ch.redelmann.polymorph.library.ConcurrentHistory;
+import ch.redelmann.polymorph.library.Configuration;
+import ch.redelmann.polymorph.library.Entry;
+import ch.redelmann.polymorph.library.Polymorph;
+import ch.redelmann.polymorph.library.schema.Schema;
+import ch.redelmann.polymorph.library.schema.SchemaRegistry;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Long-lived process serving derivations and history lookups to local clients.
+ *
+ * Clients connect over a loopback TCP socket or a Unix-domain socket, and exchange
+ * {@linkplain Protocol frames} with the daemon, one request at a time per connection.
+ * Each connection is served by its own thread, which only decodes requests and encodes responses.
+ *
+ * Derivations are queued, and run by a fixed set of worker threads that live as long as the daemon,
+ * so that their SCrypt buffers are reused and the JIT-compiled code stays warm. Each worker takes
+ * the derivations queued at once as a batch, of at most {@code maxBatch} derivations, and runs
+ * identical derivations of a batch only once.
+ *
+ * Lookups are answered from a {@link ConcurrentHistory}, which may be updated while the daemon runs.
+ *
+ * Since lookups reveal the domains of the history and derivations the passwords, only the owner
+ * of the daemon should be able to send requests. The file of a Unix-domain socket is restricted to
+ * its owner as soon as it is bound, and should be created in a directory only the owner can access,
+ * so that no other user can connect in between. Over TCP, which any local user can reach, clients
+ * must first present the {@linkplain #getToken() token} of the daemon, which should be handed
+ * to them privately, for instance in a file readable by the owner only.
+ */
+public class DerivationDaemon implements Closeable {
+
+    /** Default maximal number of derivations taken at once by a worker. */
+    public static final int DEFAULT_MAX_BATCH = 16;
+
+    /** Default maximal memory used by a single derivation, in bytes. */
+    public static final long DEFAULT_MAX_MEMORY = 256L << 20;
+
+    /** Configuration of the derivation run by each worker when it starts. */
+    private static final Configuration WARM_UP = new Configuration(10, 1, 1, "warm-up");
+
+    /** A queued derivation. */
+    private static final class Request {
+        final Schema schema;
+        final String domain;
+        final String password;
+        final Configuration configuration;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        Request(Schema schema, String domain, String password, Configuration configuration) {
+            this.schema = schema;
+            this.domain = domain;
+            this.password = password;
+            this.configuration = configuration;
+        }
+
+        boolean sameAs(Request that) {
+            return schema.equals(that.schema)
+                    && domain.equals(that.domain)
+                    && password.equals(that.password)
+                    && configuration.equals(that.configuration);
+        }
+    }
+
+    /** Number of random bytes of the tokens. */
+    private static final int TOKEN_BYTES = 32;
+
+    /** Size of the payload of {@code AUTH} requests: the operation, and the token as a string of hexadecimal digits. */
+    private static final int AUTH_SIZE = 1 + 4 + 2 * TOKEN_BYTES;
+
+    /** The listening channel. */
+    private final ServerSocketChannel _server;
+
+    /** The token clients must present, or {@code null} for Unix-domain sockets. */
+    private final String _token;
+
+    /** The history on which lookups are done. */
+    private final ConcurrentHistory _history;
+
+    /** The registry resolving the schemas of requests. */
+    private final SchemaRegistry _registry;
+
+    /** The maximal memory used by a single derivation, in bytes. */
+    private final long _maxMemory;
+
+    /** The maximal number of derivations taken at once by a worker. */
+    private final int _maxBatch;
+
+    /** The queued derivations. */
+    private final BlockingQueue<Request> _queue = new LinkedBlockingQueue<>();
+
+    /** The open connections. */
+    private final Set<SocketChannel> _connections = ConcurrentHashMap.newKeySet();
+
+    /** The threads running derivations. */
+    private final List<Thread> _workers = new ArrayList<>();
+
+    /** The thread accepting connections. */
+    private final Thread _acceptor;
+
+    /** The number of batches run. */
+    private final AtomicLong _batches = new AtomicLong();
+
+    /** The number of derivations run, identical derivations of a batch counting once. */
+    private final AtomicLong _derivations = new AtomicLong();
+
+    /** Whether the daemon is closed. */
+    private volatile boolean _closed = false;
+
+    private DerivationDaemon(ServerSocketChannel server, String token, ConcurrentHistory history,
+                             SchemaRegistry registry, int workers, int maxBatch, long maxMemory) {
+        assert(workers > 0 && maxBatch > 0 && maxMemory > 0);
+
+        _server = server;
+        _token = token;
+        _history = history;
+        _registry = registry;
+        _maxBatch = maxBatch;
+        _maxMemory = maxMemory;
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::work, "polymorph-daemon-worker-" + i);
+            worker.setDaemon(true);
+            _workers.add(worker);
+        }
+        _acceptor = new Thread(this::accept, "polymorph-daemon-acceptor");
+        _acceptor.setDaemon(true);
+    }
+
+    /** Starts a daemon listening on an ephemeral loopback TCP port, with one worker per processor,
+     * and the {@linkplain #DEFAULT_MAX_MEMORY default memory limit}.
+     *
+     * @param history The history on which lookups are done.
+     * @return the running daemon.
+     * @throws IOException if the socket can not be bound.
+     * @see #getAddress()
+     */
+    public static DerivationDaemon start(ConcurrentHistory history) throws IOException {
+        return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), history,
+                Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BATCH, DEFAULT_MAX_MEMORY);
+    }
+
+    /** Starts a daemon.
+     *
+     * @param address   The address on which to listen, either an {@link InetSocketAddress},
+     *                  which should be a loopback address, or an {@link UnixDomainSocketAddress},
+     *                  whose file is then only accessible by its owner.
+     * @param history   The history on which lookups are done.
+     * @param workers   The number of threads running derivations. Must be strictly positive.
+     * @param maxBatch  The maximal number of derivations taken at once by a worker. Must be strictly positive.
+     * @param maxMemory The maximal memory used by a single derivation, in bytes.
+     *                  Requests needing more memory are refused.
+     * @return the running daemon.
+     * @throws IOException if the socket can not be bound, or its file can not be restricted to its owner.
+     */
+    public static DerivationDaemon start(SocketAddress address, ConcurrentHistory history, int workers,
+                                         int maxBatch, long maxMemory) throws IOException {
+        boolean unix = address instanceof UnixDomainSocketAddress;
+        ServerSocketChannel server = unix
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            if (unix) {
+                restrictToOwner(((UnixDomainSocketAddress) address).getPath());
+            }
+        } catch (IOException e) {
+            server.close();
+            if (unix) {
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            }
+            throw e;
+        }
+
+        DerivationDaemon daemon = new DerivationDaemon(server, unix ? null : newToken(), history,
+                SchemaRegistry.getDefault(), workers, maxBatch, maxMemory);
+        for (Thread worker : daemon._workers) {
+            worker.start();
+        }
+        daemon._acceptor.start();
+        return daemon;
+    }
+
+    /** Returns the address on which the daemon listens.
+     *
+     * @return the local address of the socket.
+     * @throws IOException if the address can not be obtained.
+     */
+    public SocketAddress getAddress() throws IOException {
+        return _server.getLocalAddress();
+    }
+
+    /** Returns the token that clients connecting over TCP must present.
+     *
+     * @return the token, or {@code null} if the daemon listens on a Unix-domain socket.
+     * @see DaemonClient#connect(SocketAddress, String)
+     */
+    public String getToken() {
+        return _token;
+    }
+
+    /** Restricts the file of a Unix-domain socket to its owner, on file systems with POSIX permissions.
+     *
+     * @param path The file of the socket.
+     * @throws IOException if the permissions can not be set.
+     */
+    private static void restrictToOwner(Path path) throws IOException {
+        try {
+            Files.setPosixFilePermissions(path,
+                    EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+        } catch (UnsupportedOperationException e) {
+            // Other file systems rely on the access control of the directory.
+        }
+    }
+
+    /** Returns a new random token, as hexadecimal digits.
+     *
+     * @return the token.
+     */
+    private static String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder(2 * TOKEN_BYTES);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        Arrays.fill(bytes, (byte) 0);
+        return token.toString();
+    }
+
+    /** Returns the number of batches of derivations run so far.
+     *
+     * @return the number of batches.
+     */
+    public long getBatches() {
+        return _batches.get();
+    }
+
+    /** Returns the number of derivations run so far, identical derivations of a batch counting once.
+     *
+     * @return the number of derivations.
+     */
+    public long getDerivations() {
+        return _derivations.get();
+    }
+
+    /** Stops accepting connections, closes the open ones, and stops the workers.
+     *
+     * Queued derivations fail. The file of an Unix-domain socket is deleted.
+     *
+     * @throws IOException if the socket throws an {@code IOException} when closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+
+        SocketAddress address = _server.getLocalAddress();
+        _server.close();
+        for (SocketChannel connection : _connections) {
+            connection.close();
+        }
+        for (Thread worker : _workers) {
+            worker.interrupt();
+        }
+        failQueued();
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+    }
+
+    /** Accepts connections, each served by a new thread, until the daemon is closed. */
+    private void accept() {
+        while (!_closed) {
+            SocketChannel connection;
+            try {
+                connection = _server.accept();
+            } catch (IOException e) {
+                // Closed.
+                return;
+            }
+            _connections.add(connection);
+            if (_closed) {
+                close(connection);
+                return;
+            }
+            Thread thread = new Thread(() -> serve(connection), "polymorph-daemon-connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Answers the requests of a connection until it is closed.
+     *
+     * @param connection The connection.
+     */
+    private void serve(SocketChannel connection) {
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(connection)));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(connection)));
+            // Clients of Unix-domain sockets are authenticated by the permissions of the socket file.
+            boolean authenticated = _token == null;
+            Frame request;
+            // Unauthenticated clients may only send an AUTH request.
+            while ((request = authenticated ? Frame.read(input) : Frame.read(input, AUTH_SIZE)) != null) {
+                if (!authenticated) {
+                    authenticated = authenticate(request);
+                    request.wipe();
+                    Frame response = authenticated
+                            ? new Frame().putByte(Protocol.OK)
+                            : new Frame().putByte(Protocol.ERROR).putString("Authentication failed.");
+                    response.write(output);
+                    if (!authenticated) {
+                        return;
+                    }
+                    continue;
+                }
+                Frame response = new Frame();
+                try {
+                    respond(request, response);
+                } catch (RuntimeException e) {
+                    response.wipe();
+                    response = new Frame().putByte(Protocol.ERROR).putString(String.valueOf(e.getMessage()));
+                } finally {
+                    request.wipe();
+                }
+                response.write(output);
+                response.wipe();
+            }
+        } catch (ClosedChannelException e) {
+            // Closed by the daemon.
+        } catch (IOException e) {
+            // The client left or sent an invalid frame, the connection is dropped.
+        } finally {
+            close(connection);
+        }
+    }
+
+    /** Checks that a request authenticates the client, by presenting the token of the daemon.
+     *
+     * @param request The first request of the connection.
+     * @return {@code true} if the request is {@code AUTH} with the token.
+     * @throws IOException if the request is malformed.
+     */
+    private boolean authenticate(Frame request) throws IOException {
+        if (request.getByte() != Protocol.AUTH) {
+            return false;
+        }
+        byte[] token = request.getString().getBytes(StandardCharsets.UTF_8);
+        try {
+            // In constant time, so that timings do not reveal the token.
+            return MessageDigest.isEqual(token, _token.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            Arrays.fill(token, (byte) 0);
+        }
+    }
+
+    /** Answers a request.
+     *
+     * @param request  The request.
+     * @param response Receives the response.
+     * @throws IOException if the request is malformed.
+     */
+    private void respond(Frame request, Frame response) throws IOException {
+        int operation = request.getByte();
+        switch (operation) {
+            case Protocol.PING:
+            case Protocol.AUTH:
+                // Clients that are already authenticated need not present the token again.
+                response.putByte(Protocol.OK);
+                break;
+            case Protocol.DERIVE: {
+                Schema schema = Protocol.getSchema(request, _registry);
+                String domain = request.getString();
+                String password = request.getString();
+                Configuration configuration = Protocol.getConfiguration(request);
+                if (configuration.memoryBytes() > _maxMemory) {
+                    throw new IllegalArgumentException("The derivation exceeds the memory limit of the daemon.");
+                }
+                String derived = derive(new Request(schema, domain, password, configuration));
+                response.putByte(Protocol.OK).putString(derived);
+                break;
+            }
+            case Protocol.LOOKUP: {
+                String prefix = request.getString();
+                int limit = request.getInt();
+                if (limit < 0) {
+                    throw new IllegalArgumentException("Invalid limit " + limit);
+                }
+                List<Entry> entries = _history.findByPrefix(prefix, limit);
+                response.putByte(Protocol.OK).putInt(entries.size());
+                for (Entry entry : entries) {
+                    Protocol.putEntry(response, entry);
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    /** Queues a derivation and waits for its result.
+     *
+     * @param request The derivation.
+     * @return the derived password.
+     */
+    private String derive(Request request) {
+        if (_closed) {
+            throw new CancellationException("The daemon is closed.");
+        }
+        _queue.add(request);
+        if (_closed) {
+            // The daemon may have been closed after its queue was emptied.
+            failQueued();
+        }
+        try {
+            return request.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /** Runs batches of derivations until the daemon is closed. */
+    private void work() {
+        try {
+            Polymorph.derive(SchemaRegistry.getDefault().get("safe"), "warm-up", "warm-up", WARM_UP);
+        } catch (RuntimeException e) {
+            // The warm-up is only an optimisation.
+        }
+
+        List<Request> batch = new ArrayList<>(_maxBatch);
+        while (!_closed) {
+            try {
+                batch.add(_queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            _queue.drainTo(batch, _maxBatch - 1);
+            run(batch);
+            batch.clear();
+        }
+    }
+
+    /** Runs a batch of derivations, identical ones only once.
+     *
+     * Every derivation of the batch is completed when this method returns, even if an error
+     * such as an {@code OutOfMemoryError} is thrown, so that clients never wait for a result
+     * and the worker keeps running.
+     *
+     * @param batch The derivations.
+     */
+    private void run(List<Request> batch) {
+        _batches.incrementAndGet();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Request request = batch.get(i);
+                if (request.result.isDone()) {
+                    continue;
+                }
+                try {
+                    String derived = Polymorph.derive(request.schema, request.domain, request.password,
+                            request.configuration);
+                    _derivations.incrementAndGet();
+                    for (int j = i; j < batch.size(); j++) {
+                        if (batch.get(j).sameAs(request)) {
+                            batch.get(j).result.complete(derived);
+                        }
+                    }
+                } catch (Throwable e) {
+                    request.result.completeExceptionally(e);
+                }
+            }
+        } catch (Throwable e) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void failQueued() {
+        List<Request> requests = new ArrayList<>();
+        _queue.drainTo(requests);
+        for (Request request : requests) {
+            request.result.completeExceptionally(new CancellationException("The daemon is closed."));
+        }
+    }
+
+    private void close(SocketChannel connection) {
+        _connections.remove(connection);
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Nothing more to do.
+        }
+    }
+}
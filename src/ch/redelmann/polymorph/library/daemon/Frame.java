@@ -0,0 +1,157 @@
+package ch.redelmann.polymorph.library.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** A message of the daemon protocol.
+ *
+ * On the wire, a frame is its length, as a big-endian {@code int}, followed by its payload.
+ * Payloads are sequences of bytes, big-endian {@code int}s, and strings, encoded as their
+ * length in bytes followed by their UTF-8 encoding.
+ *
+ * Frames carry master passwords, so their buffer is {@linkplain #wipe() wiped} once used,
+ * rather than left to the garbage collector.
+ */
+final class Frame {
+
+    /** Maximal size of a payload, in bytes. */
+    static final int MAX_SIZE = 1 << 20;
+
+    /** The buffer holding the payload. */
+    private byte[] _buffer;
+
+    /** The size of the payload. */
+    private int _size;
+
+    /** The position of the next value read. */
+    private int _position = 0;
+
+    /** Builds an empty frame, to be written. */
+    Frame() {
+        this(new byte[64], 0);
+    }
+
+    private Frame(byte[] buffer, int size) {
+        _buffer = buffer;
+        _size = size;
+    }
+
+    /** Reads a frame.
+     *
+     * @param input The input stream.
+     * @return the frame, or {@code null} if the stream ended before the frame.
+     * @throws IOException if the input throws an {@code IOException} when read,
+     *                     or if the frame is truncated or too large.
+     */
+    static Frame read(DataInputStream input) throws IOException {
+        return read(input, MAX_SIZE);
+    }
+
+    /** Reads a frame no larger than a given size.
+     *
+     * @param input   The input stream.
+     * @param maxSize The maximal size of the payload, at most {@link #MAX_SIZE}.
+     * @return the frame, or {@code null} if the stream ended before the frame.
+     * @throws IOException if the input throws an {@code IOException} when read,
+     *                     or if the frame is truncated or too large.
+     */
+    static Frame read(DataInputStream input, int maxSize) throws IOException {
+        int size;
+        try {
+            size = input.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (size < 0 || size > maxSize) {
+            throw new IOException("Invalid frame size " + size);
+        }
+        byte[] buffer = new byte[size];
+        input.readFully(buffer);
+        return new Frame(buffer, size);
+    }
+
+    /** Writes the frame and flushes the output.
+     *
+     * @param output The output stream.
+     * @throws IOException if the output throws an {@code IOException} when written.
+     */
+    void write(DataOutputStream output) throws IOException {
+        output.writeInt(_size);
+        output.write(_buffer, 0, _size);
+        output.flush();
+    }
+
+    /** Overwrites the payload with zeros. */
+    void wipe() {
+        Arrays.fill(_buffer, (byte) 0);
+    }
+
+    Frame putByte(int value) {
+        ensure(1);
+        _buffer[_size++] = (byte) value;
+        return this;
+    }
+
+    Frame putInt(int value) {
+        ensure(4);
+        _buffer[_size++] = (byte) (value >>> 24);
+        _buffer[_size++] = (byte) (value >>> 16);
+        _buffer[_size++] = (byte) (value >>> 8);
+        _buffer[_size++] = (byte) value;
+        return this;
+    }
+
+    Frame putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, _buffer, _size, bytes.length);
+        _size += bytes.length;
+        Arrays.fill(bytes, (byte) 0);
+        return this;
+    }
+
+    int getByte() throws IOException {
+        check(1);
+        return _buffer[_position++] & 0xFF;
+    }
+
+    int getInt() throws IOException {
+        check(4);
+        int value = ((_buffer[_position] & 0xFF) << 24)
+                | ((_buffer[_position + 1] & 0xFF) << 16)
+                | ((_buffer[_position + 2] & 0xFF) << 8)
+                | (_buffer[_position + 3] & 0xFF);
+        _position += 4;
+        return value;
+    }
+
+    String getString() throws IOException {
+        int length = getInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length " + length);
+        }
+        check(length);
+        String value = new String(_buffer, _position, length, StandardCharsets.UTF_8);
+        _position += length;
+        return value;
+    }
+
+    private void ensure(int bytes) {
+        if (_size + bytes > _buffer.length) {
+            byte[] larger = Arrays.copyOf(_buffer, Math.max(2 * _buffer.length, _size + bytes));
+            wipe();
+            _buffer = larger;
+        }
+    }
+
+    private void check(int bytes) throws IOException {
+        if (_size - _position < bytes) {
+            throw new IOException("Truncated frame.");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ch.redelmann.polymorph.library.daemon;
+
+import ch.redelmann.polymorph.library.Configuration;
+import ch.redelmann.polymorph.library.Entry;
+import ch.redelmann.polymorph.library.KeyDerivationFunction;
+import ch.redelmann.polymorph.library.schema.Schema;
+import ch.redelmann.polymorph.library.schema.SchemaRegistry;
+
+import java.io.IOException;
+
+/** Messages exchanged between a {@link DaemonClient} and a {@link DerivationDaemon}.
+ *
+ * Each request is a {@link Frame} starting with its operation, answered by a frame starting
+ * with a status. Successful responses are followed by the result of the operation, failed ones
+ * by an error message.
+ *
+ * <pre>
+ * AUTH   → token
+ * PING   →
+ * DERIVE → schema, domain, password, configuration   ← password
+ * LOOKUP → prefix, limit                             ← count, entries
+ * </pre>
+ *
+ * Over TCP, the first request of a connection must be {@code AUTH}, with the token of the daemon.
+ *
+ * Schemas are their name and size, configurations their SCrypt parameters, code and
+ * extension flag, and entries their domain, schema and version.
+ */
+final class Protocol {
+
+    static final int PING = 1;
+    static final int DERIVE = 2;
+    static final int LOOKUP = 3;
+    static final int AUTH = 4;
+
+    /** Maximal size of the schemas of requests, so that clients can not make the daemon
+     *  generate huge passwords, nor intern schemas of every size. */
+    static final int MAX_SCHEMA_SIZE = 1024;
+
+    static final int OK = 0;
+    static final int ERROR = 1;
+
+    private Protocol() {}
+
+    static void putSchema(Frame frame, Schema schema) {
+        frame.putString(schema.getName()).putInt(schema.getSize());
+    }
+
+    static Schema getSchema(Frame frame, SchemaRegistry registry) throws IOException {
+        String name = frame.getString();
+        int size = frame.getInt();
+        if (size < 1 || size > MAX_SCHEMA_SIZE) {
+            throw new IllegalArgumentException("Invalid schema size " + size);
+        }
+        return registry.get(name, size);
+    }
+
+    static void putConfiguration(Frame frame, Configuration configuration) {
+        frame.putInt(configuration.logN)
+                .putInt(configuration.r)
+                .putInt(configuration.p)
+                .putString(configuration.code)
+                .putByte(configuration.extended ? 1 : 0)
+                .putString(configuration.kdf.getName());
+    }
+
+    static Configuration getConfiguration(Frame frame) throws IOException {
+        int logN = frame.getInt();
+        int r = frame.getInt();
+        int p = frame.getInt();
+        String code = frame.getString();
+        boolean extended = frame.getByte() != 0;
+        KeyDerivationFunction kdf = KeyDerivationFunction.forName(frame.getString());
+        if (logN <= 0 || r <= 0 || p <= 0 || (long) r * p >= (1 << 30) || !kdf.isValid(logN, r, p)) {
+            throw new IllegalArgumentException("Invalid parameters for " + kdf.getName() + ".");
+        }
+        return new Configuration(logN, r, p, code, extended, kdf);
+    }
+
+    static void putEntry(Frame frame, Entry entry) {
+        frame.putString(entry.domain);
+        putSchema(frame, entry.schema);
+        frame.putInt(entry.version);
+    }
+
+    static Entry getEntry(Frame frame, SchemaRegistry registry) throws IOException {
+        String domain = frame.getString();
+        Schema schema = getSchema(frame, registry);
+        int version = frame.getInt();
+        return new Entry(domain, schema, version);
+    }
+}
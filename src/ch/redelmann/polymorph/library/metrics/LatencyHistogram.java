@@ -0,0 +1,165 @@
+package ch.redelmann.polymorph.library.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Distribution of durations, with a bounded relative error.
+ *
+ * Durations below {@code 2^SUB_BUCKET_BITS} nanoseconds are counted exactly. Larger ones fall into
+ * one of {@code 2^SUB_BUCKET_BITS} buckets per power of two, so that percentiles are reported within
+ * about 3% of the recorded durations, with a fixed footprint of a few kilobytes.
+ * Recording is lock-free, and may happen concurrently with reads, which then see a recent state.
+ */
+public final class LatencyHistogram {
+
+    /** Number of bits of the sub-buckets of each power of two. */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** Number of sub-buckets of each power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Number of buckets, enough for all non-negative {@code long} durations. */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /** The number of durations in each bucket. */
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+
+    /** The number of durations. */
+    private final AtomicLong _count = new AtomicLong();
+
+    /** The sum of the durations. */
+    private final AtomicLong _sum = new AtomicLong();
+
+    /** The largest duration. */
+    private final AtomicLong _max = new AtomicLong();
+
+    /** Records a duration.
+     *
+     * @param nanos The duration, in nanoseconds. Negative durations are recorded as {@code 0}.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        _buckets.incrementAndGet(bucket(value));
+        _count.incrementAndGet();
+        _sum.addAndGet(value);
+        _max.accumulateAndGet(value, Math::max);
+    }
+
+    /** Returns the number of recorded durations.
+     *
+     * @return the number of durations.
+     */
+    public long getCount() {
+        return _count.get();
+    }
+
+    /** Returns the mean of the recorded durations.
+     *
+     * @return the mean, in nanoseconds, or {@code 0} if no duration was recorded.
+     */
+    public double getMean() {
+        long count = _count.get();
+        return count == 0 ? 0 : (double) _sum.get() / count;
+    }
+
+    /** Returns the largest recorded duration.
+     *
+     * @return the largest duration, in nanoseconds, or {@code 0} if no duration was recorded.
+     */
+    public long getMax() {
+        return _max.get();
+    }
+
+    /** Returns a percentile of the recorded durations.
+     *
+     * @param quantile The fraction of durations, between {@code 0} and {@code 1},
+     *                 less than or equal to the returned value.
+     * @return the percentile, in nanoseconds, or {@code 0} if no duration was recorded.
+     */
+    public long getPercentile(double quantile) {
+        assert(quantile >= 0 && quantile <= 1);
+
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = _buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(value(i), _max.get());
+            }
+        }
+        return _max.get();
+    }
+
+    /** Returns the median of the recorded durations.
+     *
+     * @return the median, in nanoseconds.
+     */
+    public long getP50() {
+        return getPercentile(0.5);
+    }
+
+    /** Returns the 99th percentile of the recorded durations.
+     *
+     * @return the 99th percentile, in nanoseconds.
+     */
+    public long getP99() {
+        return getPercentile(0.99);
+    }
+
+    /** Returns the 99.9th percentile of the recorded durations.
+     *
+     * @return the 99.9th percentile, in nanoseconds.
+     */
+    public long getP999() {
+        return getPercentile(0.999);
+    }
+
+    /** Forgets all recorded durations. Durations recorded concurrently may be partially kept. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            _buckets.set(i, 0);
+        }
+        _count.set(0);
+        _sum.set(0);
+        _max.set(0);
+    }
+
+    /** Returns the bucket of a duration.
+     *
+     * @param value The non-negative duration.
+     * @return the index of the bucket.
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    /** Returns the duration reported for a bucket, the middle of its range.
+     *
+     * @param bucket The index of the bucket.
+     * @return the duration, in nanoseconds.
+     */
+    static long value(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) >>> 1);
+    }
+}
@@ -0,0 +1,155 @@
+package ch.redelmann.polymorph.library.metrics;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.util.Arrays;
+
+/** Timing of the {@linkplain Stage stages} of derivations.
+ *
+ * Timed code calls {@link #start(Stage)} before a stage and {@link #stop(Timing)} after it.
+ * The duration is then handed to the registered {@linkplain MetricsListener listeners}.
+ * If its flight recorder {@linkplain StageEvent event} is enabled, the event begins at the start
+ * of the stage and is committed at its end.
+ *
+ * When no listener is registered and no flight recording is running, {@link #start(Stage)} only reads
+ * a volatile field, and {@link #stop(Timing)} does nothing, so that instrumented code runs
+ * at the same speed as uninstrumented code.
+ */
+public final class Metrics {
+
+    /** A stage being timed. */
+    public static final class Timing {
+        private final Stage _stage;
+        private final long _start;
+
+        /** The flight recorder event of the stage, or {@code null} if it is not enabled. */
+        private final StageEvent _event;
+
+        private Timing(Stage stage, long start, StageEvent event) {
+            _stage = stage;
+            _start = start;
+            _event = event;
+        }
+    }
+
+    /** The registered listeners. Replaced, never modified. */
+    private static volatile MetricsListener[] listeners = new MetricsListener[0];
+
+    /** Whether a flight recording is running. */
+    private static volatile boolean recording = false;
+
+    /** Whether stages are timed, that is, whether there are listeners or a running recording. */
+    private static volatile boolean enabled = false;
+
+    static {
+        try {
+            FlightRecorder.addListener(new FlightRecorderListener() {
+                @Override
+                public void recorderInitialized(FlightRecorder recorder) {
+                    updateRecording();
+                }
+
+                @Override
+                public void recordingStateChanged(Recording changed) {
+                    updateRecording();
+                }
+            });
+        } catch (SecurityException | IllegalStateException e) {
+            // Flight recorder events are not emitted.
+        }
+    }
+
+    private Metrics() {}
+
+    /** Registers a listener. Has no effect if the listener is already registered.
+     *
+     * @param listener The listener.
+     */
+    public static synchronized void addListener(MetricsListener listener) {
+        if (!Arrays.asList(listeners).contains(listener)) {
+            MetricsListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+            added[listeners.length] = listener;
+            listeners = added;
+            update();
+        }
+    }
+
+    /** Unregisters a listener. Has no effect if the listener is not registered.
+     *
+     * @param listener The listener.
+     */
+    public static synchronized void removeListener(MetricsListener listener) {
+        MetricsListener[] removed = Arrays.stream(listeners)
+                .filter(registered -> registered != listener)
+                .toArray(MetricsListener[]::new);
+        if (removed.length != listeners.length) {
+            listeners = removed;
+            update();
+        }
+    }
+
+    /** Returns whether stages are timed.
+     *
+     * @return {@code true} if listeners are registered or a flight recording is running.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Marks the start of a stage.
+     *
+     * @param stage The stage.
+     * @return the timing, to be passed to {@link #stop(Timing)}, or {@code null} if stages are not timed.
+     */
+    public static Timing start(Stage stage) {
+        if (!enabled) {
+            return null;
+        }
+        StageEvent event = null;
+        if (recording) {
+            event = stage.newEvent();
+            if (event.isEnabled()) {
+                event.begin();
+            } else {
+                event = null;
+            }
+        }
+        return new Timing(stage, System.nanoTime(), event);
+    }
+
+    /** Marks the end of a stage, and records its duration.
+     *
+     * @param timing The value returned by {@link #start(Stage)} at the start of the stage.
+     */
+    public static void stop(Timing timing) {
+        if (timing == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - timing._start;
+        for (MetricsListener listener : listeners) {
+            listener.record(timing._stage, nanos);
+        }
+        if (timing._event != null) {
+            timing._event.commit();
+        }
+    }
+
+    /** Called by the flight recorder, which may hold its own locks, and thus without locking. */
+    private static void updateRecording() {
+        boolean running = false;
+        if (FlightRecorder.isInitialized()) {
+            for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+                running |= recording.getState() == RecordingState.RUNNING;
+            }
+        }
+        recording = running;
+        update();
+    }
+
+    private static synchronized void update() {
+        enabled = recording || listeners.length > 0;
+    }
+}
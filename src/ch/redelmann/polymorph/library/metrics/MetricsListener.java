@@ -0,0 +1,15 @@
+package ch.redelmann.polymorph.library.metrics;
+
+/** Receives the durations of the stages timed by {@link Metrics}. */
+public interface MetricsListener {
+
+    /** Records the duration of a stage.
+     *
+     * Called by the thread that ran the stage, right after it ended, possibly concurrently
+     * with other calls. Implementations should be fast and must not throw.
+     *
+     * @param stage The stage.
+     * @param nanos The duration of the stage, in nanoseconds.
+     */
+    void record(Stage stage, long nanos);
+}
@@ -0,0 +1,77 @@
+package ch.redelmann.polymorph.library.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/** Counts and latency distributions of the {@linkplain Stage stages}, kept in memory.
+ *
+ * A registry only records stages once {@linkplain Metrics#addListener(MetricsListener) registered}
+ * as a listener. Dashboards can then poll it, for instance:
+ *
+ * <pre>
+ * MetricsRegistry registry = new MetricsRegistry();
+ * Metrics.addListener(registry);
+ * ...
+ * long p99 = registry.getHistogram(Stage.SCRYPT).getP99();
+ * </pre>
+ */
+public final class MetricsRegistry implements MetricsListener {
+
+    /** The distribution of the durations of each stage. */
+    private final Map<Stage, LatencyHistogram> _histograms = new EnumMap<>(Stage.class);
+
+    /** Builds an empty registry. */
+    public MetricsRegistry() {
+        for (Stage stage : Stage.values()) {
+            _histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    @Override
+    public void record(Stage stage, long nanos) {
+        _histograms.get(stage).record(nanos);
+    }
+
+    /** Returns the number of times a stage was recorded.
+     *
+     * @param stage The stage.
+     * @return the number of recorded durations.
+     */
+    public long getCount(Stage stage) {
+        return _histograms.get(stage).getCount();
+    }
+
+    /** Returns the distribution of the durations of a stage.
+     *
+     * @param stage The stage.
+     * @return the live histogram of the stage.
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return _histograms.get(stage);
+    }
+
+    /** Forgets all recorded durations. */
+    public void reset() {
+        for (LatencyHistogram histogram : _histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /** Returns a one-line summary of each recorded stage, with its count and percentiles.
+     *
+     * @return the summary.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<Stage, LatencyHistogram> entry : _histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() > 0) {
+                builder.append(String.format("%s count=%d p50=%dns p99=%dns p999=%dns max=%dns%n",
+                        entry.getKey(), histogram.getCount(), histogram.getP50(), histogram.getP99(),
+                        histogram.getP999(), histogram.getMax()));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package ch.redelmann.polymorph.library.metrics;
+
+import java.util.function.Supplier;
+
+/** The timed stages of derivations and history persistence. */
+public enum Stage {
+
+    /** A whole derivation, from the master password to the derived password. */
+    DERIVE(StageEvent.Derive::new),
+
+    /** The hash of a derivation by its key derivation function, SCrypt unless configured otherwise.
+     *  Hashes {@linkplain ch.redelmann.polymorph.library.Polymorph#setInterleaved(int) interleaved}
+     *  on one thread are recorded once for the group.
+     */
+    SCRYPT(StageEvent.SCrypt::new),
+
+    /** The conversion of a hash into the state of a {@link ch.redelmann.polymorph.library.Generator}. */
+    SEED(StageEvent.Seed::new),
+
+    /** The generation of a password by a schema, including its permutation. */
+    GENERATE(StageEvent.Generate::new),
+
+    /** The permutation of the characters of a password. */
+    PERMUTATION(StageEvent.Permutation::new),
+
+    /** The loading of a history. */
+    HISTORY_LOAD(StageEvent.HistoryLoad::new),
+
+    /** The saving of a history. */
+    HISTORY_SAVE(StageEvent.HistorySave::new);
+
+    /** Builds the flight recorder events of the stage. */
+    private final Supplier<StageEvent> _events;
+
+    Stage(Supplier<StageEvent> events) {
+        _events = events;
+    }
+
+    /** Returns a new flight recorder event of the stage.
+     *
+     * @return the event, not yet committed.
+     */
+    StageEvent newEvent() {
+        return _events.get();
+    }
+}
@@ -0,0 +1,50 @@
+package ch.redelmann.polymorph.library.metrics;
+
+import jdk.jfr.*;
+
+/** Java Flight Recorder event of a {@link Stage}.
+ *
+ * Events begin when the stage starts and are committed when it ends, so that their duration
+ * is the duration of the stage. They are disabled by default, and enabled by the settings of a recording, for instance with
+ * {@code -XX:StartFlightRecording:settings=profile,ch.redelmann.polymorph.SCrypt#enabled=true}.
+ */
+@Category("Polymorph")
+@Enabled(false)
+@StackTrace(false)
+abstract class StageEvent extends Event {
+
+    @Name("ch.redelmann.polymorph.Derive")
+    @Label("Derivation")
+    @Description("A whole derivation, from the master password to the derived password.")
+    static final class Derive extends StageEvent {}
+
+    @Name("ch.redelmann.polymorph.SCrypt")
+    @Label("SCrypt")
+    @Description("The SCrypt hash of a derivation.")
+    static final class SCrypt extends StageEvent {}
+
+    @Name("ch.redelmann.polymorph.Seed")
+    @Label("Generator Seeding")
+    @Description("The conversion of a hash into the state of a generator.")
+    static final class Seed extends StageEvent {}
+
+    @Name("ch.redelmann.polymorph.Generate")
+    @Label("Password Generation")
+    @Description("The generation of a password by a schema, including its permutation.")
+    static final class Generate extends StageEvent {}
+
+    @Name("ch.redelmann.polymorph.Permutation")
+    @Label("Permutation")
+    @Description("The permutation of the characters of a password.")
+    static final class Permutation extends StageEvent {}
+
+    @Name("ch.redelmann.polymorph.HistoryLoad")
+    @Label("History Load")
+    @Description("The loading of a history.")
+    static final class HistoryLoad extends StageEvent {}
+
+    @Name("ch.redelmann.polymorph.HistorySave")
+    @Label("History Save")
+    @Description("The saving of a history.")
+    static final class HistorySave extends StageEvent {}
+}
@@ -1,14 +1,12 @@
 package ch.redelmann.polymorph.library.schema;
 
-import ch.redelmann.polymorph.library.Generator;
-
 /** Password schema that generate passwords consisting of
  *  a mix of upper and lower case letters, and digits.
  *
  *  The size of the generated passwords is at least 3 characters long.
  *  By default, the passwords generated are 18 characters long.
  */
-public class Alphanumeric extends Schema {
+public class Alphanumeric extends CompiledSchema {
 
     public static final String NAME = "alpha";
 
@@ -16,7 +14,7 @@ public class Alphanumeric extends Schema {
 
     /** Builds an alphanumeric schema with a default password size of 18. */
     public Alphanumeric() {
-        super(DEFAULT_SIZE);
+        this(DEFAULT_SIZE);
     }
 
     /** Builds an alphanumeric schema with a specified password size.
@@ -24,40 +22,26 @@ public class Alphanumeric extends Schema {
      * @param size The size of the generated passwords, at least 3 characters long.
      */
     public Alphanumeric(int size) {
-        super(size);
+        super(NAME, spec(size));
 
         assert(size >= 3);
     }
 
-    @Override
-    public String getName() {
-        return NAME;
-    }
-
-    @Override
-    protected String generate(Generator gen) {
-
-        int size = getSize();
+    /** Returns the definition of the passwords of the given size.
+     *
+     * The numbers of upper case letters, digits are drawn in turn between
+     * {@code max(1, size / 8)} and {@code 1 + (size - 1) / 4}, and the remaining characters are lower case letters.
+     *
+     * @param size The size of the passwords.
+     * @return the definition of the passwords.
+     */
+    public static SchemaSpec spec(int size) {
         int min = Math.max(1, size / 8);
         int max = 1 + (size - 1) / 4;
 
-        int nUpper = gen.nextInt(min, max);
-        int nDigit = gen.nextInt(min, max);
-
-        int nLower = size - nUpper - nDigit;
-
-        StringBuilder output = new StringBuilder(size);
-
-        for (int i = 0; i < nUpper; i++) {
-            output.append(gen.nextUpperLetter());
-        }
-        for (int i = 0; i < nDigit; i++) {
-            output.append(gen.nextDigit());
-        }
-        for (int i = 0; i < nLower; i++) {
-            output.append(gen.nextLowerLetter());
-        }
-
-        return gen.nextPermutation(output.toString());
+        return new SchemaSpec(size)
+                .add(CharClass.UPPER, min, max)
+                .add(CharClass.DIGIT, min, max)
+                .fill(CharClass.LOWER);
     }
 }
@@ -0,0 +1,70 @@
+package ch.redelmann.polymorph.library.schema;
+
+/** Set of characters from which characters of passwords are drawn uniformly. */
+public final class CharClass {
+
+    /** The 26 upper case letters. */
+    public static final CharClass UPPER = range('A', 'Z');
+
+    /** The 26 lower case letters. */
+    public static final CharClass LOWER = range('a', 'z');
+
+    /** The 10 digits. */
+    public static final CharClass DIGIT = range('0', '9');
+
+    /** The printable ASCII special characters. */
+    public static final CharClass SPECIAL = new CharClass("!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~");
+
+    /** The characters, in the order of the values drawn. */
+    private final char[] _alphabet;
+
+    /** Builds a class from its characters.
+     *
+     * @param alphabet The characters of the class, in the order of the values drawn.
+     */
+    public CharClass(String alphabet) {
+        assert(!alphabet.isEmpty());
+
+        _alphabet = alphabet.toCharArray();
+    }
+
+    /** Builds the class of a range of characters.
+     *
+     * @param first The first character, inclusive.
+     * @param last  The last character, inclusive.
+     * @return the class of the characters between {@code first} and {@code last}.
+     */
+    public static CharClass range(char first, char last) {
+        assert(first <= last);
+
+        StringBuilder alphabet = new StringBuilder();
+        for (char c = first; c <= last && c >= first; c++) {
+            alphabet.append(c);
+        }
+        return new CharClass(alphabet.toString());
+    }
+
+    /** Returns the number of characters of the class.
+     *
+     * @return the number of characters.
+     */
+    public int size() {
+        return _alphabet.length;
+    }
+
+    /** Returns the characters of the class.
+     *
+     * @return the characters, in the order of the values drawn.
+     */
+    public String getAlphabet() {
+        return new String(_alphabet);
+    }
+
+    /** Returns the table of the characters, shared with the class.
+     *
+     * @return the characters, in the order of the values drawn.
+     */
+    char[] table() {
+        return _alphabet;
+    }
+}
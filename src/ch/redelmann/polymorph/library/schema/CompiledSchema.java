@@ -0,0 +1,56 @@
+package ch.redelmann.polymorph.library.schema;
+
+import ch.redelmann.polymorph.library.Generator;
+
+import java.util.Arrays;
+
+/** Schema generating passwords following a {@link SchemaSpec}.
+ *
+ * Schemas compare equal when they have the same class, name and size, so that different
+ * definitions must have different names. {@link Safe} and {@link Alphanumeric} are compiled schemas.
+ */
+public class CompiledSchema extends Schema {
+
+    /** The name of the schema. */
+    private final String _name;
+
+    /** The compiled definition. */
+    private final SchemaSpec.Plan _plan;
+
+    /** Builds a schema from a definition, which is compiled once.
+     *
+     * @param name The name of the schema.
+     * @param spec The definition of the passwords.
+     * @throws IllegalArgumentException if the definition is not valid.
+     */
+    public CompiledSchema(String name, SchemaSpec spec) {
+        super(spec.getSize());
+
+        _name = name;
+        _plan = spec.compile();
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return _plan.getMaxLength();
+    }
+
+    @Override
+    protected String generate(Generator gen) {
+        char[] output = new char[_plan.getMaxLength()];
+        int length = generate(gen, output);
+        String password = new String(output, 0, length);
+        Arrays.fill(output, (char) 0);
+        return password;
+    }
+
+    @Override
+    protected int generate(Generator gen, char[] output) {
+        return _plan.generate(gen, output);
+    }
+}
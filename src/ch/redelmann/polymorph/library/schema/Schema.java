@@ -1,6 +1,8 @@
 package ch.redelmann.polymorph.library.schema;
 
 import ch.redelmann.polymorph.library.Generator;
+import ch.redelmann.polymorph.library.metrics.Metrics;
+import ch.redelmann.polymorph.library.metrics.Stage;
 
 import java.math.BigInteger;
 
@@ -8,7 +10,7 @@ import java.math.BigInteger;
 public abstract class Schema {
 
     /** The intended size of the generated password. */
-    private int _size;
+    private final int _size;
 
     /**
      * Builds a Schema.
@@ -28,6 +30,17 @@ public abstract class Schema {
         return _size;
     }
 
+    /**
+     * Returns the maximal size of the passwords generated, which is their intended size
+     * unless the schema, for compatibility, can generate longer passwords.
+     * This is the case of {@link Safe} schemas of 5 characters, which generate 6 characters for some seeds.
+     *
+     * @return the maximal size of passwords.
+     */
+    public int getMaxSize() {
+        return getSize();
+    }
+
     public abstract String getName();
 
     @Override
@@ -55,6 +68,73 @@ public abstract class Schema {
         return generate(new Generator(seed));
     }
 
+    /**
+     * Generates a password from a seed given as bytes.
+     *
+     * @param seed The seed, as an unsigned integer in little-endian byte order.
+     * @return a password following the schema.
+     */
+    public final String generate(byte[] seed) {
+        return generate(seed, false);
+    }
+
+    /**
+     * Generates a password from a seed given as bytes.
+     *
+     * @param seed     The seed, as an unsigned integer in little-endian byte order.
+     * @param extended Whether the generator extends its state when it runs low on entropy.
+     * @return a password following the schema.
+     */
+    public final String generate(byte[] seed, boolean extended) {
+        Generator gen = seed(seed, extended);
+        Metrics.Timing timing = Metrics.start(Stage.GENERATE);
+        try {
+            return generate(gen);
+        } finally {
+            gen.wipe();
+            Metrics.stop(timing);
+        }
+    }
+
+    /**
+     * Generates a password from a seed given as bytes, into a character array.
+     *
+     * @param seed   The seed, as an unsigned integer in little-endian byte order.
+     * @param output Receives the password. Holding {@link #getMaxSize()} characters is always enough.
+     * @return the length of the password.
+     * @throws IllegalArgumentException if the password does not fit in {@code output}.
+     */
+    public final int generate(byte[] seed, char[] output) {
+        return generate(seed, false, output);
+    }
+
+    /**
+     * Generates a password from a seed given as bytes, into a character array.
+     *
+     * @param seed     The seed, as an unsigned integer in little-endian byte order.
+     * @param extended Whether the generator extends its state when it runs low on entropy.
+     * @param output   Receives the password. Holding {@link #getMaxSize()} characters is always enough.
+     * @return the length of the password.
+     * @throws IllegalArgumentException if the password does not fit in {@code output}.
+     */
+    public final int generate(byte[] seed, boolean extended, char[] output) {
+        Generator gen = seed(seed, extended);
+        Metrics.Timing timing = Metrics.start(Stage.GENERATE);
+        try {
+            return generate(gen, output);
+        } finally {
+            gen.wipe();
+            Metrics.stop(timing);
+        }
+    }
+
+    private static Generator seed(byte[] seed, boolean extended) {
+        Metrics.Timing timing = Metrics.start(Stage.SEED);
+        Generator gen = new Generator(seed, extended);
+        Metrics.stop(timing);
+        return gen;
+    }
+
     /**
      * Generates a password from a {@link Generator}.
      *
@@ -62,4 +142,23 @@ public abstract class Schema {
      * @return a password following the schema.
      */
     protected abstract String generate(Generator gen);
+
+    /**
+     * Generates a password from a {@link Generator}, into a character array.
+     * Schemas should override this method when they can avoid building a {@code String}.
+     *
+     * @param gen    The generator used.
+     * @param output Receives the password. Holding {@link #getMaxSize()} characters is always enough.
+     * @return the length of the password.
+     * @throws IllegalArgumentException if the password does not fit in {@code output}.
+     */
+    protected int generate(Generator gen, char[] output) {
+        String password = generate(gen);
+        if (password.length() > output.length) {
+            throw new IllegalArgumentException("The password has " + password.length()
+                    + " characters, more than the output holds.");
+        }
+        password.getChars(0, password.length(), output, 0);
+        return password.length();
+    }
 }
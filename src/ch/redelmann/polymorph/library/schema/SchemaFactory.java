@@ -0,0 +1,29 @@
+package ch.redelmann.polymorph.library.schema;
+
+/** Creates the schemas of a given name.
+ *
+ * Factories of custom schemas are discovered by {@link SchemaRegistry#getDefault()} through
+ * {@link java.util.ServiceLoader}, when listed in a
+ * {@code META-INF/services/ch.redelmann.polymorph.library.schema.SchemaFactory} resource.
+ */
+public interface SchemaFactory {
+
+    /** Returns the name of the schemas created, as returned by {@link Schema#getName()}.
+     *
+     * @return the name of the schemas.
+     */
+    String getName();
+
+    /** Returns the size used when none is specified.
+     *
+     * @return the default size of the schemas.
+     */
+    int getDefaultSize();
+
+    /** Creates a schema.
+     *
+     * @param size The size of the generated passwords.
+     * @return a new schema of the given size.
+     */
+    Schema create(int size);
+}
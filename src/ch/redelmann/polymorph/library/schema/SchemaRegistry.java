@@ -0,0 +1,154 @@
+package ch.redelmann.polymorph.library.schema;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Registry of the schema factories by name, sharing schemas of the same name and size.
+ *
+ * Schemas are immutable, so a single instance of each name and size is kept and returned
+ * to all callers, instead of one instance per entry.
+ */
+public final class SchemaRegistry {
+
+    /** Default registry, built on first use. */
+    private static final class Default {
+        static final SchemaRegistry INSTANCE = new SchemaRegistry();
+
+        static {
+            for (SchemaFactory factory : ServiceLoader.load(SchemaFactory.class)) {
+                INSTANCE.register(factory);
+            }
+        }
+    }
+
+    /** Factory of {@link Safe} schemas. */
+    private static final SchemaFactory SAFE = new SchemaFactory() {
+        @Override
+        public String getName() {
+            return Safe.NAME;
+        }
+
+        @Override
+        public int getDefaultSize() {
+            return Safe.DEFAULT_SIZE;
+        }
+
+        @Override
+        public Schema create(int size) {
+            return new Safe(size);
+        }
+    };
+
+    /** Factory of {@link Alphanumeric} schemas. */
+    private static final SchemaFactory ALPHANUMERIC = new SchemaFactory() {
+        @Override
+        public String getName() {
+            return Alphanumeric.NAME;
+        }
+
+        @Override
+        public int getDefaultSize() {
+            return Alphanumeric.DEFAULT_SIZE;
+        }
+
+        @Override
+        public Schema create(int size) {
+            return new Alphanumeric(size);
+        }
+    };
+
+    /** A factory and the schemas it created. */
+    private static final class Registration {
+        final SchemaFactory factory;
+        final Map<Integer, Schema> schemas = new ConcurrentHashMap<>();
+
+        Registration(SchemaFactory factory) {
+            this.factory = factory;
+        }
+    }
+
+    /** The registrations, by schema name. */
+    private final Map<String, Registration> _registrations = new ConcurrentHashMap<>();
+
+    /** Builds a registry of the built-in schemas. */
+    public SchemaRegistry() {
+        register(SAFE);
+        register(ALPHANUMERIC);
+    }
+
+    /** Returns the registry of the built-in schemas and of the schemas discovered by {@link ServiceLoader}.
+     *
+     * @return the default registry.
+     */
+    public static SchemaRegistry getDefault() {
+        return Default.INSTANCE;
+    }
+
+    /** Registers a factory. Has no effect if a factory of the same name is already registered.
+     *
+     * @param factory The factory.
+     * @return {@code true} if the factory was registered.
+     */
+    public boolean register(SchemaFactory factory) {
+        return _registrations.putIfAbsent(factory.getName(), new Registration(factory)) == null;
+    }
+
+    /** Returns the names of the registered schemas.
+     *
+     * @return the names of the schemas.
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(_registrations.keySet());
+    }
+
+    /** Returns the factory of a schema.
+     *
+     * @param name The name of the schema.
+     * @return the factory of the schema.
+     * @throws IllegalArgumentException if no schema has this name.
+     */
+    public SchemaFactory getFactory(String name) {
+        return registration(name).factory;
+    }
+
+    /** Returns the shared schema with the given name and its default size.
+     *
+     * @param name The name of the schema.
+     * @return the schema.
+     * @throws IllegalArgumentException if no schema has this name.
+     */
+    public Schema get(String name) {
+        Registration registration = registration(name);
+        return get(registration, registration.factory.getDefaultSize());
+    }
+
+    /** Returns the shared schema with the given name and size.
+     *
+     * @param name The name of the schema.
+     * @param size The size of the generated passwords.
+     * @return the schema.
+     * @throws IllegalArgumentException if no schema has this name.
+     */
+    public Schema get(String name, int size) {
+        return get(registration(name), size);
+    }
+
+    private static Schema get(Registration registration, int size) {
+        Schema schema = registration.schemas.get(size);
+        if (schema == null) {
+            schema = registration.schemas.computeIfAbsent(size, registration.factory::create);
+        }
+        return schema;
+    }
+
+    private Registration registration(String name) {
+        Registration registration = _registrations.get(name);
+        if (registration == null) {
+            throw new IllegalArgumentException("Unknown schema name " + name);
+        }
+        return registration;
+    }
+}
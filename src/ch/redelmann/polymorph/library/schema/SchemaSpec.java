@@ -0,0 +1,216 @@
+package ch.redelmann.polymorph.library.schema;
+
+import ch.redelmann.polymorph.library.Generator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Declarative definition of the passwords of a schema.
+ *
+ * A password of a given size is made of characters drawn from character classes. Each class
+ * contributes a number of characters drawn between a minimum and a maximum, except for a single
+ * fill class, which contributes the remaining characters. The characters are then shuffled.
+ * When the counts drawn for the other classes exceed the size, the fill class contributes nothing
+ * and the password is longer than the size, as with the original {@link Safe} schema of 5 characters.
+ *
+ * Values are drawn from the generator in the following order: the counts of the classes other
+ * than the fill class, the characters of each class, in the order in which the classes were added,
+ * and finally the permutation of the password.
+ */
+public final class SchemaSpec {
+
+    /** The size of the passwords. */
+    private final int _size;
+
+    /** The classes, in order. */
+    private final List<CharClass> _classes = new ArrayList<>();
+
+    /** The minimal counts of the classes. */
+    private final List<Integer> _mins = new ArrayList<>();
+
+    /** The maximal counts of the classes. */
+    private final List<Integer> _maxs = new ArrayList<>();
+
+    /** The index of the fill class, or -1. */
+    private int _fill = -1;
+
+    /** Builds a definition without classes.
+     *
+     * @param size The size of the passwords.
+     */
+    public SchemaSpec(int size) {
+        assert(size > 0);
+
+        _size = size;
+    }
+
+    /** Adds a class contributing a number of characters between {@code min} and {@code max} inclusive.
+     *
+     * @param charClass The class.
+     * @param min       The minimal number of characters of the class.
+     * @param max       The maximal number of characters of the class.
+     * @return {@code this} definition.
+     */
+    public SchemaSpec add(CharClass charClass, int min, int max) {
+        if (min < 0 || min > max) {
+            throw new IllegalArgumentException("Invalid counts for the class.");
+        }
+        _classes.add(charClass);
+        _mins.add(min);
+        _maxs.add(max);
+        return this;
+    }
+
+    /** Adds the class contributing the characters not contributed by the other classes.
+     *
+     * @param charClass The class.
+     * @return {@code this} definition.
+     */
+    public SchemaSpec fill(CharClass charClass) {
+        if (_fill >= 0) {
+            throw new IllegalArgumentException("The definition already has a fill class.");
+        }
+        _fill = _classes.size();
+        _classes.add(charClass);
+        _mins.add(0);
+        _maxs.add(_size);
+        return this;
+    }
+
+    /** Returns the size of the passwords.
+     *
+     * @return the size of the passwords.
+     */
+    public int getSize() {
+        return _size;
+    }
+
+    /** Compiles the definition into the tables used to generate passwords.
+     *
+     * @return the compiled definition.
+     * @throws IllegalArgumentException if the definition has no fill class,
+     *         or if the minimal counts exceed the size.
+     */
+    public Plan compile() {
+        if (_fill < 0) {
+            throw new IllegalArgumentException("The definition has no fill class.");
+        }
+        int required = 0;
+        for (int i = 0; i < _classes.size(); i++) {
+            if (i != _fill) {
+                required += _mins.get(i);
+            }
+        }
+        if (required > _size) {
+            throw new IllegalArgumentException("The minimal counts exceed the size.");
+        }
+
+        char[][] tables = new char[_classes.size()][];
+        int[] mins = new int[tables.length];
+        int[] maxs = new int[tables.length];
+        int maxLength = 0;
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = _classes.get(i).table();
+            mins[i] = _mins.get(i);
+            maxs[i] = _maxs.get(i);
+            if (i != _fill) {
+                maxLength += maxs[i];
+            }
+        }
+        return new Plan(_size, Math.max(_size, maxLength), tables, mins, maxs, _fill);
+    }
+
+    /** Compiled definition, generating passwords directly into character arrays. */
+    public static final class Plan {
+
+        /** The size of the passwords. */
+        private final int _size;
+
+        /** The maximal length of the passwords. */
+        private final int _maxLength;
+
+        /** The characters of each class. */
+        private final char[][] _tables;
+
+        /** The minimal counts of the classes. */
+        private final int[] _mins;
+
+        /** The maximal counts of the classes. */
+        private final int[] _maxs;
+
+        /** The index of the fill class. */
+        private final int _fill;
+
+        private Plan(int size, int maxLength, char[][] tables, int[] mins, int[] maxs, int fill) {
+            _size = size;
+            _maxLength = maxLength;
+            _tables = tables;
+            _mins = mins;
+            _maxs = maxs;
+            _fill = fill;
+        }
+
+        /** Returns the size of the passwords.
+         *
+         * @return the size of the passwords.
+         */
+        public int getSize() {
+            return _size;
+        }
+
+        /** Returns the maximal length of the passwords, which exceeds the size
+         * when the maximal counts of the classes other than the fill class do.
+         *
+         * @return the maximal length of the passwords.
+         */
+        public int getMaxLength() {
+            return _maxLength;
+        }
+
+        /** Generates a password.
+         *
+         * @param gen    The generator used.
+         * @param output Receives the password. Holding {@link #getMaxLength()} characters is always enough.
+         * @return the length of the password, which is the size unless the counts drawn exceed it.
+         * @throws IllegalArgumentException if the password does not fit in {@code output}.
+         */
+        public int generate(Generator gen, char[] output) {
+            int[] counts = new int[_tables.length];
+            int remaining = _size;
+            for (int i = 0; i < _tables.length; i++) {
+                if (i != _fill) {
+                    counts[i] = gen.nextInt(_mins[i], _maxs[i]);
+                    remaining -= counts[i];
+                }
+            }
+            // The fill class contributes nothing when the other classes exceed the size.
+            counts[_fill] = Math.max(0, remaining);
+            int length = _size - remaining + counts[_fill];
+            if (output.length < length) {
+                throw new IllegalArgumentException("The password has " + length + " characters, more than the output holds.");
+            }
+
+            int[] values = new int[length];
+            int position = 0;
+            for (int i = 0; i < _tables.length; i++) {
+                char[] table = _tables[i];
+                int count = counts[i];
+                if (table.length == 1) {
+                    // Nothing is drawn from single characters.
+                    Arrays.fill(output, position, position + count, table[0]);
+                } else {
+                    gen.nextInts(table.length, values, position, count);
+                    for (int j = position; j < position + count; j++) {
+                        output[j] = table[values[j]];
+                    }
+                }
+                position += count;
+            }
+            Arrays.fill(values, 0);
+
+            gen.nextPermutation(output, length);
+            return length;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ch.redelmann.polymorph.library.sync;
+
+import ch.redelmann.polymorph.library.Entry;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Summary of a range of entries, used to find the ranges in which two replicas differ.
+ *
+ * The hash of a range is the sum, modulo 2<sup>64</sup>, of the hashes of its entries.
+ * It does not depend on how entries are grouped, so that the fingerprint of any range
+ * can be computed from prefix sums, and stays valid when entries are inserted elsewhere.
+ */
+public final class Fingerprint {
+
+    /** Fingerprint of an empty range. */
+    public static final Fingerprint EMPTY = new Fingerprint(0, 0);
+
+    /** The number of entries. */
+    public final int count;
+
+    /** The sum of the hashes of the entries. */
+    public final long hash;
+
+    /** Builds a fingerprint.
+     *
+     * @param count The number of entries.
+     * @param hash  The sum of the hashes of the entries.
+     */
+    public Fingerprint(int count, long hash) {
+        assert(count >= 0);
+
+        this.count = count;
+        this.hash = hash;
+    }
+
+    /** Returns the hash of an entry, covering its domain, schema and version.
+     *
+     * @param entry The entry.
+     * @return the first 8 bytes of the SHA-256 of the entry, as a big-endian integer.
+     */
+    public static long hash(Entry entry) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+        String canonical = entry.domain + '\0' + entry.schema.getName() + '\0'
+                + entry.schema.getSize() + '\0' + entry.version;
+        byte[] bytes = digest.digest(canonical.getBytes(StandardCharsets.UTF_8));
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (bytes[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Fingerprint that = (Fingerprint) o;
+        return count == that.count && hash == that.hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * count + Long.hashCode(hash);
+    }
+}
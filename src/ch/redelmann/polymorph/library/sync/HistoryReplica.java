@@ -0,0 +1,106 @@
+package ch.redelmann.polymorph.library.sync;
+
+import ch.redelmann.polymorph.library.Entry;
+import ch.redelmann.polymorph.library.History;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** In-process {@link Replica} of a {@link History}.
+ *
+ * The entries are indexed by a sorted array and the prefix sums of their hashes, so that the
+ * fingerprint of any range takes two binary searches. The index is built when the replica is
+ * created and after each {@link #apply(List)}, so the history must not be modified by others
+ * while the replica is in use.
+ */
+public class HistoryReplica implements Replica {
+
+    /** The history. */
+    private final History _history;
+
+    /** The entries of the history, sorted. */
+    private Entry[] _entries;
+
+    /** Sums of the hashes of the first entries, of size {@code _entries.length + 1}. */
+    private long[] _sums;
+
+    /** Builds a replica of a history.
+     *
+     * @param history The history.
+     */
+    public HistoryReplica(History history) {
+        _history = history;
+        index();
+    }
+
+    @Override
+    public Fingerprint fingerprint(Entry from, Entry to) {
+        int start = lowerBound(from, 0);
+        int end = lowerBound(to, _entries.length);
+        if (start >= end) {
+            return Fingerprint.EMPTY;
+        }
+        return new Fingerprint(end - start, _sums[end] - _sums[start]);
+    }
+
+    @Override
+    public Entry median(Entry from, Entry to) {
+        int start = lowerBound(from, 0);
+        int end = lowerBound(to, _entries.length);
+        assert(end - start >= 2);
+
+        return _entries[(start + end) >>> 1];
+    }
+
+    @Override
+    public List<Entry> entries(Entry from, Entry to) {
+        int start = lowerBound(from, 0);
+        int end = lowerBound(to, _entries.length);
+        if (start >= end) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(Arrays.asList(_entries).subList(start, end));
+    }
+
+    @Override
+    public void apply(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (Entry entry : entries) {
+            int index = Arrays.binarySearch(_entries, entry, History.ORDER);
+            if (index < 0) {
+                _history.add(entry);
+            } else if (HistorySync.resolve(_entries[index], entry) != _entries[index]) {
+                _history.remove(_entries[index]);
+                _history.add(entry);
+            }
+        }
+        index();
+    }
+
+    /** Returns the index of the first entry not before a bound.
+     *
+     * @param bound        The bound, or {@code null}.
+     * @param defaultIndex The index returned for a {@code null} bound.
+     * @return the index of the first entry not before the bound.
+     */
+    private int lowerBound(Entry bound, int defaultIndex) {
+        if (bound == null) {
+            return defaultIndex;
+        }
+        int index = Arrays.binarySearch(_entries, bound, History.ORDER);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /** Builds the index of the entries. */
+    private void index() {
+        _entries = _history.getAll().toArray(new Entry[0]);
+        _sums = new long[_entries.length + 1];
+        for (int i = 0; i < _entries.length; i++) {
+            _sums[i + 1] = _sums[i] + Fingerprint.hash(_entries[i]);
+        }
+    }
+}
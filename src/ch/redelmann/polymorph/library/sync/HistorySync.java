@@ -0,0 +1,133 @@
+package ch.redelmann.polymorph.library.sync;
+
+import ch.redelmann.polymorph.library.Entry;
+import ch.redelmann.polymorph.library.History;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/** Reconciliation of two replicas of a history, transferring only the entries in which they differ.
+ *
+ * The replicas compare the {@linkplain Fingerprint fingerprints} of a range, starting with
+ * the whole history. Ranges with equal fingerprints are identical. Differing ranges are split
+ * at their median entry and compared again, until they are small enough to be exchanged.
+ * Each differing entry thus costs a number of exchanges logarithmic in the size of the history.
+ *
+ * The result is the union of both replicas. When both replicas contain entries that compare
+ * equal but differ, the one chosen by {@link #resolve(Entry, Entry)} is kept on both sides.
+ * Removals are not propagated.
+ */
+public final class HistorySync {
+
+    /** Number of entries from which a differing range is split rather than exchanged. */
+    private static final int LEAF_SIZE = 16;
+
+    /** The local replica. */
+    private final Replica _local;
+
+    /** The remote replica. */
+    private final Replica _remote;
+
+    /** Entries to send to the local replica. */
+    private final List<Entry> _toLocal = new ArrayList<>();
+
+    /** Entries to send to the remote replica. */
+    private final List<Entry> _toRemote = new ArrayList<>();
+
+    private HistorySync(Replica local, Replica remote) {
+        _local = local;
+        _remote = remote;
+    }
+
+    /** Reconciles two replicas.
+     *
+     * @param local  The local replica.
+     * @param remote The remote replica.
+     * @return the number of entries transferred, in both directions.
+     */
+    public static int sync(Replica local, Replica remote) {
+        HistorySync sync = new HistorySync(local, remote);
+        sync.reconcile(null, null, local.fingerprint(null, null), remote.fingerprint(null, null));
+
+        // Replicas are only updated once all ranges have been compared, so that fingerprints stay consistent.
+        local.apply(sync._toLocal);
+        remote.apply(sync._toRemote);
+        return sync._toLocal.size() + sync._toRemote.size();
+    }
+
+    /** Returns which of two entries that compare equal is kept.
+     *
+     * The entry with the highest version wins. Ties are broken by the case-sensitive order of the
+     * domains, so that all replicas make the same choice.
+     *
+     * @param a An entry.
+     * @param b An entry, comparing equal to {@code a} in {@link History#ORDER}.
+     * @return the entry to keep, {@code a} if both are equal.
+     */
+    public static Entry resolve(Entry a, Entry b) {
+        if (a.version != b.version) {
+            return a.version > b.version ? a : b;
+        }
+        return b.domain.compareTo(a.domain) > 0 ? b : a;
+    }
+
+    /** Reconciles a range.
+     *
+     * @param from   The lower bound, inclusive, or {@code null}.
+     * @param to     The upper bound, exclusive, or {@code null}.
+     * @param local  The local fingerprint of the range.
+     * @param remote The remote fingerprint of the range.
+     */
+    private void reconcile(Entry from, Entry to, Fingerprint local, Fingerprint remote) {
+        if (local.equals(remote)) {
+            return;
+        }
+        if (local.count + remote.count <= LEAF_SIZE || local.count == 0 || remote.count == 0) {
+            exchange(from, to, local.count, remote.count);
+            return;
+        }
+
+        Entry middle = local.count >= remote.count ? _local.median(from, to) : _remote.median(from, to);
+        reconcile(from, middle, _local.fingerprint(from, middle), _remote.fingerprint(from, middle));
+        reconcile(middle, to, _local.fingerprint(middle, to), _remote.fingerprint(middle, to));
+    }
+
+    /** Exchanges the entries of a small or one-sided range.
+     *
+     * @param from        The lower bound, inclusive, or {@code null}.
+     * @param to          The upper bound, exclusive, or {@code null}.
+     * @param localCount  The number of local entries in the range.
+     * @param remoteCount The number of remote entries in the range.
+     */
+    private void exchange(Entry from, Entry to, int localCount, int remoteCount) {
+        List<Entry> local = localCount == 0 ? new ArrayList<Entry>() : _local.entries(from, to);
+        List<Entry> remote = remoteCount == 0 ? new ArrayList<Entry>() : _remote.entries(from, to);
+
+        // Merging the two sorted lists.
+        Iterator<Entry> localIterator = local.iterator();
+        Iterator<Entry> remoteIterator = remote.iterator();
+        Entry l = localIterator.hasNext() ? localIterator.next() : null;
+        Entry r = remoteIterator.hasNext() ? remoteIterator.next() : null;
+        while (l != null || r != null) {
+            int compare = l == null ? 1 : r == null ? -1 : History.ORDER.compare(l, r);
+            if (compare < 0) {
+                _toRemote.add(l);
+            } else if (compare > 0) {
+                _toLocal.add(r);
+            } else if (!l.equals(r)) {
+                if (resolve(l, r) == l) {
+                    _toRemote.add(l);
+                } else {
+                    _toLocal.add(r);
+                }
+            }
+            if (compare <= 0) {
+                l = localIterator.hasNext() ? localIterator.next() : null;
+            }
+            if (compare >= 0) {
+                r = remoteIterator.hasNext() ? remoteIterator.next() : null;
+            }
+        }
+    }
+}
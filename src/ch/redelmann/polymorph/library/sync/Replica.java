@@ -0,0 +1,48 @@
+package ch.redelmann.polymorph.library.sync;
+
+import ch.redelmann.polymorph.library.Entry;
+import ch.redelmann.polymorph.library.History;
+
+import java.util.List;
+
+/** A copy of a history taking part in a {@link HistorySync}.
+ *
+ * Ranges are sets of entries between two bounds in {@link History#ORDER}, the lower bound
+ * being inclusive and the upper one exclusive. Only the domain and schema of the bounds
+ * are relevant. A {@code null} bound leaves the range unbounded on that side.
+ *
+ * Each method corresponds to one exchange with the replica, which may be remote.
+ */
+public interface Replica {
+
+    /** Returns the fingerprint of a range.
+     *
+     * @param from The lower bound, inclusive, or {@code null}.
+     * @param to   The upper bound, exclusive, or {@code null}.
+     * @return the fingerprint of the entries in the range.
+     */
+    Fingerprint fingerprint(Entry from, Entry to);
+
+    /** Returns the median entry of a range, which splits it in two non-empty halves.
+     *
+     * @param from The lower bound, inclusive, or {@code null}.
+     * @param to   The upper bound, exclusive, or {@code null}.
+     * @return the entry at the middle of the range, which contains at least two entries.
+     */
+    Entry median(Entry from, Entry to);
+
+    /** Returns the entries of a range.
+     *
+     * @param from The lower bound, inclusive, or {@code null}.
+     * @param to   The upper bound, exclusive, or {@code null}.
+     * @return the entries in the range, sorted.
+     */
+    List<Entry> entries(Entry from, Entry to);
+
+    /** Merges entries into the replica, keeping the {@linkplain HistorySync#resolve(Entry, Entry) winner}
+     * of the entries that compare equal.
+     *
+     * @param entries The entries.
+     */
+    void apply(List<Entry> entries);
+}
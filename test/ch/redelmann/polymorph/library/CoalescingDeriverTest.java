@@ -0,0 +1,134 @@
+package ch.redelmann.polymorph.library;
+
+import ch.redelmann.polymorph.library.DerivationService.OverflowPolicy;
+import ch.redelmann.polymorph.library.schema.Safe;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CoalescingDeriverTest {
+
+    private static final Configuration CONFIGURATION = new Configuration(4, 1, 1, "coalescing");
+
+    /** Schema counting its generations, which wait for a latch. */
+    private static final class GatedSchema extends Safe {
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger generations = new AtomicInteger();
+
+        @Override
+        protected int generate(Generator gen, char[] output) {
+            generations.incrementAndGet();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.generate(gen, output);
+        }
+    }
+
+    private static void awaitWaiting(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    @Test
+    public void testCoalesced() throws Exception {
+        CoalescingDeriver deriver = new CoalescingDeriver();
+        GatedSchema schema = new GatedSchema();
+        String expected = Polymorph.derive(new Safe(), "github", "password", CONFIGURATION);
+
+        List<String> results = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> results.add(deriver.derive(schema, "github", "password", CONFIGURATION)));
+            thread.start();
+            threads.add(thread);
+        }
+        awaitWaiting(threads);
+        assertEquals(1, deriver.getInFlight());
+
+        schema.gate.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, schema.generations.get());
+        assertEquals(8, results.size());
+        for (String result : results) {
+            assertEquals(expected, result);
+        }
+        assertEquals(0, deriver.getInFlight());
+    }
+
+    @Test
+    public void testDistinctRequests() throws Exception {
+        CoalescingDeriver deriver = new CoalescingDeriver();
+        GatedSchema schema = new GatedSchema();
+
+        List<Thread> threads = new ArrayList<>();
+        String[][] requests = { {"github", "password"}, {"google", "password"}, {"github", "other"} };
+        for (String[] request : requests) {
+            Thread thread = new Thread(() -> deriver.derive(schema, request[0], request[1], CONFIGURATION));
+            thread.start();
+            threads.add(thread);
+        }
+        awaitWaiting(threads);
+        assertEquals(3, deriver.getInFlight());
+
+        schema.gate.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(3, schema.generations.get());
+        assertEquals(0, deriver.getInFlight());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        CoalescingDeriver deriver = new CoalescingDeriver();
+        Safe failing = new Safe() {
+            @Override
+            protected int generate(Generator gen, char[] output) {
+                throw new IllegalStateException("Failing schema.");
+            }
+        };
+        try {
+            deriver.derive(failing, "github", "password", CONFIGURATION);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(0, deriver.getInFlight());
+        }
+    }
+
+    @Test
+    public void testSubmit() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        GatedSchema schema = new GatedSchema();
+        try (DerivationService service = new DerivationService(pool, 1 << 20, 10, OverflowPolicy.REJECT)) {
+            CoalescingDeriver deriver = new CoalescingDeriver();
+            CompletableFuture<String> first = deriver.submit(schema, "github", "password", CONFIGURATION, service);
+            CompletableFuture<String> second = deriver.submit(schema, "github", "password", CONFIGURATION, service);
+            CompletableFuture<String> other = deriver.submit(schema, "google", "password", CONFIGURATION, service);
+            assertEquals(2, deriver.getInFlight());
+
+            // Cancelling one request does not cancel the shared derivation.
+            first.cancel(false);
+            schema.gate.countDown();
+            assertEquals(Polymorph.derive(new Safe(), "github", "password", CONFIGURATION),
+                    second.get(30, TimeUnit.SECONDS));
+            other.get(30, TimeUnit.SECONDS);
+            assertEquals(2, schema.generations.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package ch.redelmann.polymorph.library;
+
+import ch.redelmann.polymorph.library.schema.Alphanumeric;
+import ch.redelmann.polymorph.library.schema.Safe;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentHistoryTest {
+
+    @Test
+    public void testSameAsHistory() throws Exception {
+        Random random = new Random(13);
+        History expected = new History();
+        ConcurrentHistory history = new ConcurrentHistory();
+        for (int i = 0; i < 5000; i++) {
+            Entry entry = new Entry("domain" + random.nextInt(300),
+                    random.nextBoolean() ? new Safe(8 + random.nextInt(4)) : new Alphanumeric(12), 0);
+            if (random.nextInt(3) == 0) {
+                expected.remove(entry);
+                history.remove(entry);
+            } else {
+                expected.add(entry);
+                history.add(entry);
+            }
+        }
+        assertEquals(expected.getAll(), history.getAll());
+        assertEquals(expected.findByPrefix("Domain1", 40), history.findByPrefix("Domain1", 40));
+        assertEquals(expected.findByPrefix("", 10), history.findByPrefix("", 10));
+        assertEquals(expected.findBySubstring("N2", 40), history.findBySubstring("N2", 40));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        history.saveTo(output);
+        ByteArrayOutputStream reference = new ByteArrayOutputStream();
+        expected.saveTo(reference);
+        assertArrayEquals(reference.toByteArray(), output.toByteArray());
+
+        ConcurrentHistory loaded = ConcurrentHistory.loadFrom(new ByteArrayInputStream(output.toByteArray()));
+        assertEquals(expected.getAll(), loaded.getAll());
+    }
+
+    @Test
+    public void testSnapshot() {
+        Entry entry1 = new Entry("github", new Safe(18), 0);
+        Entry entry2 = new Entry("google", new Safe(18), 0);
+        ConcurrentHistory history = new ConcurrentHistory(Collections.singletonList(entry1));
+
+        ConcurrentHistory snapshot = history.snapshot();
+        history.add(entry2);
+        snapshot.remove(entry1);
+
+        assertEquals(Arrays.asList(entry1, entry2), history.getAll());
+        assertTrue(snapshot.getAll().isEmpty());
+    }
+
+    @Test
+    public void testReplaceVersion() {
+        Entry old = new Entry("github", new Safe(18), 0);
+        Entry updated = new Entry("github", new Safe(18), 1);
+        ConcurrentHistory history = new ConcurrentHistory(Collections.singletonList(old));
+
+        // Adding an equal entry has no effect, replacing it takes a removal.
+        history.add(updated);
+        assertEquals(0, history.getAll().get(0).version);
+        history.update(Collections.singletonList(old), Collections.singletonList(updated));
+        assertEquals(1, history.getAll().get(0).version);
+        assertTrue(history.contains(old));
+    }
+
+    @Test
+    public void testStress() throws Exception {
+        final int writers = 4;
+        final int readers = 4;
+        final int batches = 2000;
+        final ConcurrentHistory history = new ConcurrentHistory();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newFixedThreadPool(writers + readers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                final int writer = w;
+                futures.add(executor.submit(() -> {
+                    // Each batch adds or removes the pair of entries of a key, with the same version.
+                    Random random = new Random(writer);
+                    for (int i = 0; i < batches; i++) {
+                        String key = writer + "-" + random.nextInt(50);
+                        List<Entry> pair = Arrays.asList(
+                                new Entry("a" + key, new Safe(18), i),
+                                new Entry("b" + key, new Safe(18), i));
+                        if (random.nextInt(3) == 0) {
+                            history.removeAll(pair);
+                        } else {
+                            history.update(pair, pair);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int r = 0; r < readers; r++) {
+                final int reader = r;
+                futures.add(executor.submit(() -> {
+                    while (!done.get()) {
+                        List<Entry> entries;
+                        if (reader % 2 == 0) {
+                            entries = history.getAll();
+                        } else {
+                            ByteArrayOutputStream output = new ByteArrayOutputStream();
+                            history.saveTo(output);
+                            entries = ConcurrentHistory.loadFrom(
+                                    new ByteArrayInputStream(output.toByteArray())).getAll();
+                        }
+                        checkPairs(entries);
+                    }
+                    return null;
+                }));
+            }
+
+            for (int w = 0; w < writers; w++) {
+                futures.get(w).get(60, TimeUnit.SECONDS);
+            }
+            done.set(true);
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        checkPairs(history.getAll());
+    }
+
+    /** Checks that entries come in sorted pairs {@code a<key>}, {@code b<key>} of the same version. */
+    private static void checkPairs(List<Entry> entries) {
+        Map<String, Integer> versions = new HashMap<>();
+        Entry previous = null;
+        for (Entry entry : entries) {
+            if (previous != null) {
+                assertTrue(History.ORDER.compare(previous, entry) < 0);
+            }
+            previous = entry;
+            String key = entry.domain.substring(1);
+            Integer version = versions.remove(key);
+            if (version == null) {
+                versions.put(key, entry.version);
+            } else {
+                assertEquals(version.intValue(), entry.version);
+            }
+        }
+        assertTrue(versions.isEmpty());
+    }
+}
@@ -0,0 +1,80 @@
+package ch.redelmann.polymorph.library;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class CostModelTest {
+
+    @Test
+    public void testPredictions() throws Exception {
+        CostModel model = new CostModel(1000, 10);
+        Configuration configuration = new Configuration(14, 2, 3, "");
+
+        assertEquals(model.predictTime(configuration), Duration.ofNanos(1000 + 10 * (1 << 14) * 2 * 3));
+        assertEquals(model.predictMemory(configuration), 128L * 2 * (1 << 14) + 128 * 2 * 3);
+    }
+
+    @Test
+    public void testStrongest() throws Exception {
+        // 1 microsecond per unit: N * r * p is bounded by 100000 for 100 milliseconds.
+        CostModel model = new CostModel(0, 1000);
+
+        // Memory bounds N * r to 2^14.
+        Configuration configuration = model.strongest(Duration.ofMillis(100), (128L << 14) + 1024, "code");
+        assertEquals(configuration.logN, 14);
+        assertEquals(configuration.r, 1);
+        assertEquals(configuration.p, 6);
+        assertEquals(configuration.code, "code");
+
+        // Time bounds N * r to 100000.
+        configuration = model.strongest(Duration.ofMillis(100), Long.MAX_VALUE, "");
+        assertEquals(configuration.logN, 15);
+        assertEquals(configuration.r, 3);
+        assertEquals(configuration.p, 1);
+        assertTrue(model.fits(configuration, Duration.ofMillis(100), Long.MAX_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoConfiguration() throws Exception {
+        new CostModel(0, 1000).strongest(Duration.ofNanos(10), Long.MAX_VALUE, "");
+    }
+
+    @Test
+    public void testOnlySCrypt() throws Exception {
+        CostModel model = new CostModel(1000, 10);
+        Configuration argon2id = new Configuration(14, 2, 3, "", false, KeyDerivationFunction.ARGON2ID);
+        try {
+            model.predictTime(argon2id);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("argon2id"));
+        }
+        try {
+            model.predictMemory(argon2id);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            model.fits(argon2id, Duration.ofDays(1), Long.MAX_VALUE);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        assertSame(KeyDerivationFunction.SCRYPT,
+                model.strongest(Duration.ofMillis(100), Long.MAX_VALUE, "").kdf);
+    }
+
+    @Test
+    public void testCalibrate() throws Exception {
+        CostModel model = CostModel.measure();
+        assertTrue(model.nanosPerUnit > 0);
+
+        long maxMemory = 8L << 20;
+        Configuration configuration = Configuration.calibrate(Duration.ofMillis(200), maxMemory);
+        assertTrue(configuration.memoryBytes() <= maxMemory);
+    }
+}
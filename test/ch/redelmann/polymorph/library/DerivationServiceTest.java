@@ -0,0 +1,226 @@
+package ch.redelmann.polymorph.library;
+
+import ch.redelmann.polymorph.library.DerivationService.OverflowPolicy;
+import ch.redelmann.polymorph.library.schema.Safe;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DerivationServiceTest {
+
+    private static final Configuration SMALL = new Configuration(4, 1, 1, "small");
+    private static final Configuration LARGE = new Configuration(10, 1, 1, "large");
+
+    /** Executor holding tasks until they are run explicitly. */
+    private static final class ManualExecutor implements Executor {
+
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        synchronized int pending() {
+            return tasks.size();
+        }
+
+        void runOne() {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.poll();
+            }
+            task.run();
+        }
+
+        void runAll() {
+            while (pending() > 0) {
+                runOne();
+            }
+        }
+    }
+
+    @Test
+    public void testResults() throws Exception {
+        try (DerivationService service = new DerivationService(10 * SMALL.memoryBytes(), 100, OverflowPolicy.BLOCK)) {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(service.submit(new Safe(18), "domain" + i, "password", SMALL));
+            }
+            for (int i = 0; i < 20; i++) {
+                assertEquals(Polymorph.derive(new Safe(18), "domain" + i, "password", SMALL),
+                        futures.get(i).get(30, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    /** Schema counting its concurrent generations, which are slowed down. */
+    private static final class CountingSchema extends Safe {
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        @Override
+        protected int generate(Generator gen, char[] output) {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            int length = super.generate(gen, output);
+            running.decrementAndGet();
+            return length;
+        }
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        CountingSchema schema = new CountingSchema();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try (DerivationService service = new DerivationService(pool, 3 * SMALL.memoryBytes(), 1000,
+                OverflowPolicy.REJECT)) {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                futures.add(service.submit(schema, "domain" + i, "password", SMALL));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+            assertTrue(schema.maxRunning.get() <= 3);
+            assertTrue(schema.maxRunning.get() >= 2);
+
+            // Memory is released once the derivations have returned.
+            service.close();
+            assertEquals(3 * SMALL.memoryBytes(), service.getAvailableMemory());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testReject() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DerivationService service = new DerivationService(executor, SMALL.memoryBytes(), 2, OverflowPolicy.REJECT);
+        CompletableFuture<String> running = service.submit(new Safe(18), "a", "password", SMALL);
+        CompletableFuture<String> queued1 = service.submit(new Safe(18), "b", "password", SMALL);
+        CompletableFuture<String> queued2 = service.submit(new Safe(18), "c", "password", SMALL);
+        CompletableFuture<String> rejected = service.submit(new Safe(18), "d", "password", SMALL);
+        assertEquals(1, executor.pending());
+        assertEquals(2, service.getQueued());
+
+        try {
+            rejected.join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        executor.runAll();
+        assertTrue(running.isDone() && queued1.isDone() && queued2.isDone());
+        service.close();
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DerivationService service = new DerivationService(executor, SMALL.memoryBytes(), 1, OverflowPolicy.BLOCK);
+        service.submit(new Safe(18), "a", "password", SMALL);
+        service.submit(new Safe(18), "b", "password", SMALL);
+
+        CompletableFuture<CompletableFuture<String>> blocked = CompletableFuture.supplyAsync(
+                () -> service.submit(new Safe(18), "c", "password", SMALL));
+        Thread.sleep(50);
+        assertFalse(blocked.isDone());
+
+        // Finishing the running derivation starts the queued one, which makes room for the blocked one.
+        executor.runOne();
+        CompletableFuture<String> future = blocked.get(10, TimeUnit.SECONDS);
+        executor.runAll();
+        assertEquals(Polymorph.derive(new Safe(18), "c", "password", SMALL), future.get(10, TimeUnit.SECONDS));
+        service.close();
+    }
+
+    @Test
+    public void testCancelWhileBlocked() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DerivationService service = new DerivationService(executor, SMALL.memoryBytes(), 2, OverflowPolicy.BLOCK);
+        CompletableFuture<String> running = service.submit(new Safe(18), "a", "password", SMALL);
+        CompletableFuture<String> queued1 = service.submit(new Safe(18), "b", "password", SMALL);
+        CompletableFuture<String> queued2 = service.submit(new Safe(18), "c", "password", SMALL);
+
+        CompletableFuture<CompletableFuture<String>> blocked = CompletableFuture.supplyAsync(
+                () -> service.submit(new Safe(18), "d", "password", SMALL));
+        Thread.sleep(50);
+        assertFalse(blocked.isDone());
+
+        // Cancelling the queued derivations makes room for the blocked one, while the first still runs.
+        queued1.cancel(false);
+        queued2.cancel(false);
+        CompletableFuture<String> future = blocked.get(10, TimeUnit.SECONDS);
+        assertEquals(1, service.getQueued());
+        assertFalse(running.isDone());
+
+        executor.runAll();
+        assertEquals(Polymorph.derive(new Safe(18), "d", "password", SMALL), future.get(10, TimeUnit.SECONDS));
+        service.close();
+        assertEquals(0, service.getQueued());
+    }
+
+    @Test
+    public void testOvertakesAreBounded() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DerivationService service = new DerivationService(executor, LARGE.memoryBytes(), 100, OverflowPolicy.REJECT);
+
+        // The large derivation waits for the small running one.
+        service.submit(new Safe(18), "small", "password", SMALL);
+        CompletableFuture<String> large = service.submit(new Safe(18), "large", "password", LARGE);
+        assertEquals(1, service.getQueued());
+
+        // Small derivations overtake the large one, a bounded number of times.
+        for (int i = 0; i < DerivationService.MAX_OVERTAKES + 5; i++) {
+            service.submit(new Safe(18), "small" + i, "password", SMALL);
+        }
+        assertEquals(1 + DerivationService.MAX_OVERTAKES, executor.pending());
+        assertEquals(6, service.getQueued());
+
+        // Once the small ones finish, the large one runs alone before the others.
+        while (executor.pending() > 0 && !large.isDone()) {
+            executor.runOne();
+        }
+        assertTrue(large.isDone());
+        assertEquals(5, service.getQueued() + executor.pending());
+
+        executor.runAll();
+        service.close();
+        assertEquals(0, service.getQueued());
+    }
+
+    @Test
+    public void testTooLarge() throws Exception {
+        try (DerivationService service = new DerivationService(SMALL.memoryBytes(), 10, OverflowPolicy.BLOCK)) {
+            try {
+                service.submit(new Safe(18), "large", "password", LARGE).join();
+                fail();
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+        }
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        DerivationService service = new DerivationService(SMALL.memoryBytes(), 10, OverflowPolicy.BLOCK);
+        service.close();
+        try {
+            service.submit(new Safe(18), "domain", "password", SMALL).join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
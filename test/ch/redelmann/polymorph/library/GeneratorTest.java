@@ -3,6 +3,7 @@ package ch.redelmann.polymorph.library;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -254,4 +255,126 @@ public class GeneratorTest {
         assertEquals(gen.nextPermutation(from), "NIAMOR");
         assertEquals(gen.nextPermutation(from), "ROMAIN");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSameAsBigIntegerArithmetic() throws Exception {
+        Random random = new Random(1234);
+
+        for (int i = 0; i < 100; i++) {
+            BigInteger seed = new BigInteger(512, random);
+            BigInteger value = seed;
+            Generator gen = new Generator(seed);
+
+            for (int j = 0; j < 200; j++) {
+                BigInteger numberOfValues;
+                switch (j % 3) {
+                    case 0:
+                        numberOfValues = BigInteger.valueOf(1 + random.nextInt(100));
+                        break;
+                    case 1:
+                        numberOfValues = BigInteger.valueOf(1 + random.nextInt(Integer.MAX_VALUE));
+                        break;
+                    default:
+                        numberOfValues = new BigInteger(1 + random.nextInt(80), random).add(BigInteger.ONE);
+                }
+
+                BigInteger[] divRem = value.divideAndRemainder(numberOfValues);
+                value = divRem[0];
+                if (numberOfValues.bitLength() < 32) {
+                    assertEquals(gen.nextInt(numberOfValues.intValue()), divRem[1].intValue());
+                } else {
+                    assertEquals(gen.nextBigInteger(numberOfValues), divRem[1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNextPermutationLongString() throws Exception {
+        Random random = new Random(4321);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            builder.append((char) ('0' + i));
+        }
+        String from = builder.toString();
+
+        BigInteger seed = new BigInteger(2048, random);
+        Generator gen = new Generator(seed);
+        BigInteger value = seed;
+        for (int i = 0; i < 5; i++) {
+            BigInteger[] divRem = value.divideAndRemainder(Permutation.factorial(from.length()));
+            value = divRem[0];
+            assertEquals(gen.nextPermutation(from), Permutation.getKthPermutation(from, divRem[1]));
+        }
+        assertEquals(gen.nextBigInteger(value.add(BigInteger.ONE)), value);
+    }
+
+    @Test
+    public void testExtendedSameWhileEnoughEntropy() throws Exception {
+        Random random = new Random(77);
+        byte[] seed = new byte[64];
+        random.nextBytes(seed);
+
+        Generator gen = new Generator(seed);
+        Generator extended = new Generator(seed, true);
+
+        // 40 draws of at most 8 bits leave more than 64 bits in the 512-bit state.
+        for (int i = 0; i < 40; i++) {
+            int numberOfValues = 1 + random.nextInt(256);
+            assertEquals(gen.nextInt(numberOfValues), extended.nextInt(numberOfValues));
+        }
+    }
+
+    @Test
+    public void testExtendedNeverRunsDry() throws Exception {
+        Random random = new Random(78);
+        byte[] seed = new byte[64];
+        random.nextBytes(seed);
+
+        Generator gen = new Generator(seed);
+        Generator extended = new Generator(seed, true);
+
+        int[] counts = new int[26];
+        for (int i = 0; i < 2600; i++) {
+            gen.nextInt(26);
+            counts[extended.nextInt(26)]++;
+        }
+
+        // The plain generator is exhausted, the extended one is not.
+        assertEquals(gen.nextInt(26), 0);
+        for (int count : counts) {
+            assertTrue(count > 50);
+        }
+
+        // Extension is deterministic.
+        Generator again = new Generator(seed, true);
+        for (int i = 0; i < 2600; i++) {
+            again.nextInt(26);
+        }
+        assertEquals(again.nextBigInteger(BigInteger.ONE.shiftLeft(100)),
+                extended.nextBigInteger(BigInteger.ONE.shiftLeft(100)));
+    }
+
+    @Test
+    public void testNextInts() throws Exception {
+        Random random = new Random(18);
+        for (int round = 0; round < 200; round++) {
+            byte[] seed = new byte[64];
+            random.nextBytes(seed);
+            boolean extended = round % 4 == 0;
+            Generator expected = new Generator(seed, extended);
+            Generator actual = new Generator(seed, extended);
+
+            for (int draw = 0; draw < 10; draw++) {
+                int numberOfValues = 1 + random.nextInt(random.nextBoolean() ? 100 : 100000);
+                int count = random.nextInt(20);
+                int[] values = new int[count + 2];
+                actual.nextInts(numberOfValues, values, 1, count);
+                for (int i = 0; i < count; i++) {
+                    assertEquals(expected.nextInt(numberOfValues), values[1 + i]);
+                }
+            }
+            assertEquals(expected.nextInt(1000), actual.nextInt(1000));
+        }
+    }
+}
@@ -2,12 +2,14 @@ package ch.redelmann.polymorph.library;
 
 import ch.redelmann.polymorph.library.schema.Alphanumeric;
 import ch.redelmann.polymorph.library.schema.Safe;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.junit.Test;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -132,6 +134,134 @@ public class HistoryTest {
 
         assertEquals(history.getAll().size(), 2);
     }
+
+    @Test
+    public void testStreamingSameAsJSONArray() throws Exception {
+        Random random = new Random(5);
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String domain = "domain" + random.nextInt(100000) + "\"quoted\"\n";
+            int size = 8 + random.nextInt(20);
+            entries.add(new Entry(domain, random.nextBoolean() ? new Safe(size) : new Alphanumeric(size), i % 7));
+        }
+        History history = new History(entries);
+
+        JSONArray json = new JSONArray();
+        for (Entry entry : history.getAll()) {
+            json.put(entry.toJSON());
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        history.saveTo(output);
+        assertEquals(json.toString(), output.toString());
+
+        HistoryReader reader = new HistoryReader(new ByteArrayInputStream(output.toByteArray()));
+        for (Entry entry : history.getAll()) {
+            assertEquals(reader.read(), entry);
+        }
+        assertNull(reader.read());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testStreamingEmpty() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new History().saveTo(output);
+        assertEquals("[]", output.toString());
+
+        assertEquals(History.loadFrom(new ByteArrayInputStream("[]".getBytes())).getAll().size(), 0);
+        assertEquals(History.loadFrom(new ByteArrayInputStream(" [ ] ".getBytes())).getAll().size(), 0);
+    }
+
+    @Test
+    public void testStreamingIgnoresNonObjects() throws Exception {
+        String json = "[{\"domain\":\"github\"},,null,3,\n{\"domain\":\"google\",\"schema\":\"alpha\"},]";
+        List<Entry> entries = History.loadFrom(new ByteArrayInputStream(json.getBytes())).getAll();
+        assertEquals(entries.size(), 2);
+        assertEquals(entries.get(0), new Entry("github", new Safe(), 0));
+        assertEquals(entries.get(1), new Entry("google", new Alphanumeric(), 0));
+    }
+
+    @Test(expected = JSONException.class)
+    public void testStreamingMissingSeparator() throws Exception {
+        String json = "[{\"domain\":\"github\"} {\"domain\":\"google\"}]";
+        History.loadFrom(new ByteArrayInputStream(json.getBytes()));
+    }
+
+    @Test
+    public void testFindByPrefix() {
+        History history = new History();
+        history.add(new Entry("GitHub", new Safe(18), 0));
+        history.add(new Entry("gitlab", new Safe(18), 0));
+        history.add(new Entry("github", new Alphanumeric(12), 0));
+        history.add(new Entry("google", new Safe(18), 0));
+
+        List<Entry> found = history.findByPrefix("GIT", 10);
+        assertEquals(found.size(), 3);
+        assertEquals(found.get(0), new Entry("github", new Alphanumeric(12), 0));
+        assertEquals(found.get(1), new Entry("GitHub", new Safe(18), 0));
+        assertEquals(found.get(2), new Entry("gitlab", new Safe(18), 0));
+
+        assertEquals(history.findByPrefix("git", 2).size(), 2);
+        assertEquals(history.findByPrefix("", 10).size(), 4);
+        assertEquals(history.findByPrefix("h", 10).size(), 0);
+
+        // The index follows additions and removals.
+        history.remove(new Entry("github", new Alphanumeric(12), 0));
+        history.add(new Entry("gitea", new Safe(18), 0));
+        found = history.findByPrefix("git", 10);
+        assertEquals(found.size(), 3);
+        assertEquals(found.get(0).domain, "gitea");
+    }
+
+    @Test
+    public void testSearchSameAsScan() {
+        Random random = new Random(12);
+        History history = new History();
+        List<Entry> added = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder domain = new StringBuilder();
+            int length = 1 + random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                domain.append("abcDEF.".charAt(random.nextInt(7)));
+            }
+            Entry entry = new Entry(domain.toString(), new Safe(8 + random.nextInt(3)), 0);
+            history.add(entry);
+            added.add(entry);
+
+            // Removals after the index is built must be reflected.
+            if (i == 1500) {
+                history.findBySubstring("abc", 1);
+            }
+            if (i > 1500 && random.nextInt(4) == 0) {
+                history.remove(added.get(random.nextInt(added.size())));
+            }
+        }
+
+        for (int i = 0; i < 200; i++) {
+            StringBuilder query = new StringBuilder();
+            int length = random.nextInt(5);
+            for (int j = 0; j < length; j++) {
+                query.append("aBcdEf.".charAt(random.nextInt(7)));
+            }
+            String folded = query.toString().toLowerCase();
+            int limit = 1 + random.nextInt(50);
+
+            List<Entry> prefixes = new ArrayList<>();
+            List<Entry> substrings = new ArrayList<>();
+            for (Entry entry : history.getAll()) {
+                String domain = entry.domain.toLowerCase();
+                if (domain.startsWith(folded) && prefixes.size() < limit) {
+                    prefixes.add(entry);
+                }
+                if (domain.contains(folded) && substrings.size() < limit) {
+                    substrings.add(entry);
+                }
+            }
+
+            assertEquals(prefixes, history.findByPrefix(query.toString(), limit));
+            assertEquals(substrings, history.findBySubstring(query.toString(), limit));
+        }
+    }
 }
 
 
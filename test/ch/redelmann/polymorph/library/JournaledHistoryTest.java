@@ -0,0 +1,169 @@
+package ch.redelmann.polymorph.library;
+
+import ch.redelmann.polymorph.library.JournaledHistory.Durability;
+import ch.redelmann.polymorph.library.schema.Alphanumeric;
+import ch.redelmann.polymorph.library.schema.Safe;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class JournaledHistoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Entry GITHUB = new Entry("github", new Safe(18), 0);
+    private static final Entry GOOGLE = new Entry("google", new Alphanumeric(12), 1);
+    private static final Entry FACEBOOK = new Entry("facebook", new Safe(16), 2);
+
+    @Test
+    public void testReplay() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (JournaledHistory history = JournaledHistory.open(directory)) {
+            history.add(GITHUB);
+            history.add(GOOGLE);
+            history.add(FACEBOOK);
+            history.remove(GOOGLE);
+            history.update(Collections.singletonList(GITHUB),
+                    Collections.singletonList(new Entry("github", new Safe(18), 5)));
+        }
+        assertFalse(Files.exists(directory.resolve(JournaledHistory.SNAPSHOT)));
+
+        try (JournaledHistory history = JournaledHistory.open(directory)) {
+            List<Entry> all = history.getAll();
+            assertEquals(2, all.size());
+            assertEquals(FACEBOOK, all.get(0));
+            assertEquals(new Entry("github", new Safe(18), 5), all.get(1));
+        }
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (JournaledHistory history = JournaledHistory.open(directory)) {
+            history.add(GITHUB);
+            history.add(GOOGLE);
+            history.compact();
+            history.add(FACEBOOK);
+
+            // The snapshot is in the JSON format of History, and only the current journal remains.
+            try (InputStream input = Files.newInputStream(directory.resolve(JournaledHistory.SNAPSHOT))) {
+                assertEquals(Arrays.asList(GITHUB, GOOGLE), History.loadFrom(input).getAll());
+            }
+            assertEquals(1, journals(directory).size());
+        }
+
+        try (JournaledHistory history = JournaledHistory.open(directory)) {
+            assertEquals(Arrays.asList(FACEBOOK, GITHUB, GOOGLE), history.getAll());
+        }
+    }
+
+    @Test
+    public void testReplayIncludedJournal() throws Exception {
+        // Simulates a crash between the rename of the snapshot and the deletion of the journals.
+        Path directory = folder.getRoot().toPath();
+        Path saved = folder.newFolder().toPath();
+        try (JournaledHistory history = JournaledHistory.open(directory, Durability.NONE, Long.MAX_VALUE)) {
+            history.add(GITHUB);
+            history.remove(GITHUB);
+            history.add(new Entry("GitHub", new Safe(18), 1));
+            history.add(GOOGLE);
+            history.update(Collections.singletonList(GOOGLE), Collections.singletonList(FACEBOOK));
+            for (Path journal : journals(directory)) {
+                Files.copy(journal, saved.resolve(journal.getFileName()));
+            }
+            history.compact();
+        }
+        for (Path journal : journals(saved)) {
+            Files.copy(journal, directory.resolve(journal.getFileName()));
+        }
+
+        try (JournaledHistory history = JournaledHistory.open(directory)) {
+            List<Entry> all = history.getAll();
+            assertEquals(2, all.size());
+            assertEquals(FACEBOOK, all.get(0));
+            assertEquals(1, all.get(1).version);
+        }
+    }
+
+    @Test
+    public void testIncompleteLastLine() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (JournaledHistory history = JournaledHistory.open(directory)) {
+            history.add(GITHUB);
+            history.add(GOOGLE);
+        }
+        Path journal = journals(directory).get(0);
+        byte[] content = Files.readAllBytes(journal);
+        Files.write(journal, Arrays.copyOf(content, content.length - 5));
+
+        try (JournaledHistory history = JournaledHistory.open(directory)) {
+            assertEquals(Collections.singletonList(GITHUB), history.getAll());
+            history.add(FACEBOOK);
+        }
+        try (JournaledHistory history = JournaledHistory.open(directory)) {
+            assertEquals(Arrays.asList(FACEBOOK, GITHUB), history.getAll());
+        }
+    }
+
+    @Test(expected = org.json.JSONException.class)
+    public void testCorruptedJournal() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Files.write(directory.resolve("journal-000001.log"),
+                ("?{}\n+" + GITHUB.toJSON() + "\n").getBytes(StandardCharsets.UTF_8));
+        JournaledHistory.open(directory).close();
+    }
+
+    @Test
+    public void testConcurrentWritersAndCompaction() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        final int threads = 4;
+        final int entries = 300;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (final JournaledHistory history = JournaledHistory.open(directory, Durability.GROUP, 4096)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < entries; i++) {
+                        history.add(new Entry("domain-" + thread + "-" + i, new Safe(18), 0));
+                        if (i % 3 == 0) {
+                            history.remove(new Entry("domain-" + thread + "-" + i, new Safe(18), 0));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Compactions were triggered by the small threshold.
+        assertTrue(Files.exists(directory.resolve(JournaledHistory.SNAPSHOT)));
+        try (JournaledHistory history = JournaledHistory.open(directory)) {
+            assertEquals(threads * (entries - entries / 3), history.getAll().size());
+            assertTrue(history.contains(new Entry("domain-2-1", new Safe(18), 0)));
+            assertFalse(history.contains(new Entry("domain-2-0", new Safe(18), 0)));
+        }
+    }
+
+    private static List<Path> journals(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("journal-"))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+}
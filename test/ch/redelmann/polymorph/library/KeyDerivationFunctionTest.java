@@ -0,0 +1,58 @@
+package ch.redelmann.polymorph.library;
+
+import ch.redelmann.polymorph.library.crypto.SCrypt;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class KeyDerivationFunctionTest {
+
+    @Test
+    public void testForName() {
+        assertSame(KeyDerivationFunction.SCRYPT, KeyDerivationFunction.forName("scrypt"));
+        assertSame(KeyDerivationFunction.ARGON2ID, KeyDerivationFunction.forName("argon2id"));
+        assertSame(KeyDerivationFunction.SCRYPT, Configuration.DEFAULT_KDF);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownName() {
+        KeyDerivationFunction.forName("argon2d");
+    }
+
+    @Test
+    public void testValidity() {
+        assertTrue(KeyDerivationFunction.SCRYPT.isValid(14, 8, 1));
+        assertFalse(KeyDerivationFunction.SCRYPT.isValid(32, 8, 1));
+        assertFalse(KeyDerivationFunction.SCRYPT.isValid(14, 1 << 15, 1 << 15));
+
+        assertTrue(KeyDerivationFunction.ARGON2ID.isValid(16, 3, 4));
+        // At least 8 KiB per lane.
+        assertTrue(KeyDerivationFunction.ARGON2ID.isValid(5, 1, 4));
+        assertFalse(KeyDerivationFunction.ARGON2ID.isValid(5, 1, 5));
+        assertFalse(KeyDerivationFunction.ARGON2ID.isValid(24, 1, 1));
+        assertFalse(KeyDerivationFunction.ARGON2ID.isValid(16, 0, 1));
+    }
+
+    @Test
+    public void testMemory() {
+        assertEquals((128L * 8 << 14) + 128L * 8 * 2,
+                new Configuration(14, 8, 2, "").memoryBytes());
+        assertEquals(64L << 20,
+                new Configuration(16, 3, 4, "", false, KeyDerivationFunction.ARGON2ID).memoryBytes());
+        // Memory of Argon2id is rounded down to a multiple of 4 blocks per lane.
+        assertEquals(1024L * 24,
+                new Configuration(5, 1, 3, "", false, KeyDerivationFunction.ARGON2ID).memoryBytes());
+    }
+
+    @Test
+    public void testSCrypt() {
+        byte[] password = "password".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = "salt".getBytes(StandardCharsets.UTF_8);
+        byte[] output = new byte[64];
+        KeyDerivationFunction.SCRYPT.derive(password, password.length, salt, salt.length,
+                new Configuration(10, 4, 2, ""), output);
+        assertArrayEquals(SCrypt.scrypt(password, salt, 1 << 10, 4, 2, 64), output);
+    }
+}
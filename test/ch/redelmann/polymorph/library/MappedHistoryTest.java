@@ -0,0 +1,121 @@
+package ch.redelmann.polymorph.library;
+
+import ch.redelmann.polymorph.library.schema.Alphanumeric;
+import ch.redelmann.polymorph.library.schema.Safe;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MappedHistoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static History synthetic(int size, Random random) {
+        String[] suffixes = { ".com", ".ch", ".co.uk", ".google.com", "" };
+        History history = new History();
+        for (int i = 0; i < size; i++) {
+            String domain = "site" + random.nextInt(size) + suffixes[random.nextInt(suffixes.length)];
+            if (random.nextBoolean()) {
+                domain = domain.toUpperCase();
+            }
+            history.add(new Entry(domain,
+                    random.nextBoolean() ? new Safe(8 + random.nextInt(30)) : new Alphanumeric(300),
+                    random.nextInt(1000)));
+        }
+        return history;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        History history = synthetic(5000, new Random(15));
+        history.add(new Entry("bücher.ch", new Safe(18), 0));
+        history.add(new Entry("école.fr", new Safe(18), 0));
+        Path file = folder.newFile().toPath();
+        try (OutputStream output = Files.newOutputStream(file)) {
+            MappedHistory.write(history.getAll(), output);
+        }
+
+        MappedHistory mapped = MappedHistory.open(file);
+        List<Entry> all = history.getAll();
+        assertEquals(all.size(), mapped.size());
+        assertEquals(all, mapped.getAll());
+        for (int i = 0; i < all.size(); i += 97) {
+            assertEquals(all.get(i).domain, mapped.domain(i));
+            assertEquals(all.get(i), mapped.get(i));
+        }
+
+        // The binary format is much smaller than the JSON one.
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        history.saveTo(json);
+        assertTrue(Files.size(file) * 3 < json.size());
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        History history = synthetic(2000, new Random(16));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        MappedHistory.write(history.getAll(), output);
+        MappedHistory mapped = new MappedHistory(ByteBuffer.wrap(output.toByteArray()));
+
+        for (String prefix : new String[] { "", "SITE1", "site12", "site1999.co", "x", "site5.google.com" }) {
+            assertEquals(history.findByPrefix(prefix, 25), mapped.findByPrefix(prefix, 25));
+        }
+
+        for (Entry entry : history.getAll().subList(0, 100)) {
+            List<Entry> expected = new ArrayList<>();
+            for (Entry candidate : history.getAll()) {
+                if (candidate.domain.equalsIgnoreCase(entry.domain)) {
+                    expected.add(candidate);
+                }
+            }
+            assertEquals(expected, mapped.find(entry.domain.toLowerCase()));
+        }
+        assertTrue(mapped.find("missing").isEmpty());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        MappedHistory.write(Collections.<Entry>emptyList(), output);
+        MappedHistory mapped = new MappedHistory(ByteBuffer.wrap(output.toByteArray()));
+        assertEquals(0, mapped.size());
+        assertTrue(mapped.find("github").isEmpty());
+        assertTrue(mapped.findByPrefix("", 10).isEmpty());
+    }
+
+    @Test
+    public void testNegativeVersion() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            MappedHistory.write(Arrays.asList(new Entry("github", new Safe(), 1),
+                    new Entry("gitlab", new Safe(), -1)), output);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Nothing is written.
+            assertEquals(0, output.size());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidMagic() throws Exception {
+        new MappedHistory(ByteBuffer.wrap("[{\"domain\":\"github\"}]".getBytes("UTF-8")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        MappedHistory.write(synthetic(100, new Random(17)).getAll(), output);
+        new MappedHistory(ByteBuffer.wrap(Arrays.copyOf(output.toByteArray(), 40)));
+    }
+}
@@ -3,6 +3,7 @@ package ch.redelmann.polymorph.library;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -56,4 +57,54 @@ public class PermutationTest {
                     permutations[i % permutations.length]);
         }
     }
-}
\ No newline at end of file
+
+    /** Quadratic computation of the kth permutation, used as reference. */
+    private static String referenceKthPermutation(String string, BigInteger k) {
+        int size = string.length();
+        int[] radices = new int[size];
+        for (int i = 0; i < size; i++) {
+            BigInteger[] divRem = k.divideAndRemainder(BigInteger.valueOf(size - i));
+            radices[i] = divRem[1].intValue();
+            k = divRem[0];
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            for (int j = i + 1; j < size; j++) {
+                if (radices[j] >= radices[i]) {
+                    radices[j]++;
+                }
+            }
+        }
+        StringBuilder output = new StringBuilder(size);
+        for (int i : radices) {
+            output.append(string.charAt(i));
+        }
+        return output.toString();
+    }
+
+    @Test
+    public void testSameAsReference() throws Exception {
+        Random random = new Random(99);
+        for (int size : new int[]{1, 2, 5, 20, 21, 64, 100, 333}) {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                builder.append((char) ('!' + i));
+            }
+            String string = builder.toString();
+            for (int i = 0; i < 20; i++) {
+                BigInteger k = new BigInteger(random.nextInt(3000), random);
+                assertEquals(
+                        referenceKthPermutation(string, k),
+                        Permutation.getKthPermutation(string, k));
+            }
+        }
+    }
+
+    @Test
+    public void testFactorial() throws Exception {
+        assertEquals(Permutation.factorial(0), BigInteger.ONE);
+        assertEquals(Permutation.factorial(1), BigInteger.ONE);
+        assertEquals(Permutation.factorial(5), BigInteger.valueOf(120));
+        assertEquals(Permutation.factorial(20), BigInteger.valueOf(2432902008176640000L));
+        assertEquals(Permutation.factorial(30).divide(Permutation.factorial(29)), BigInteger.valueOf(30));
+    }
+}
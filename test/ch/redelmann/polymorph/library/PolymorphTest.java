@@ -1,10 +1,20 @@
 package ch.redelmann.polymorph.library;
 
+import ch.redelmann.polymorph.library.crypto.Argon2;
 import ch.redelmann.polymorph.library.schema.Safe;
 import ch.redelmann.polymorph.library.schema.Schema;
 import ch.redelmann.polymorph.library.schema.Alphanumeric;
+import org.json.JSONObject;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import static org.junit.Assert.*;
 
 public class PolymorphTest {
@@ -76,4 +86,180 @@ public class PolymorphTest {
                 Polymorph.derive(alpha, "facebook", password, getDefaultConfigWithCode(code)),
                 "T7qi");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void deriveAllPasswords() {
+        Entry entry1 = new Entry("github", new Safe(18), 0);
+        Entry entry2 = new Entry("facebook", new Safe(8), 0);
+        Entry entry3 = new Entry("github", new Alphanumeric(4), 0);
+
+        List<Entry> entries = new ArrayList<>();
+        entries.add(entry1);
+        entries.add(entry2);
+        entries.add(entry3);
+        History history = new History(entries);
+
+        String password = "pony1234";
+        String code = "AGDE2-DGXA4-33DLQ-WEDAP-GYPQ9";
+
+        Map<Entry, String> passwords = Polymorph.deriveAll(history, password, getDefaultConfigWithCode(code));
+
+        assertEquals(passwords.size(), 3);
+        assertEquals(new ArrayList<>(passwords.keySet()), history.getAll());
+        assertEquals(passwords.get(entry1), "5pZYE8$jY5nY]j}3|#");
+        assertEquals(passwords.get(entry2), "Kh0Zp~te");
+        assertEquals(passwords.get(entry3), "oJk9");
+    }
+
+    @Test
+    public void deriveAllStreamsPasswords() {
+        Configuration configuration = new Configuration(10, 1, 1, "code");
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            entries.add(new Entry("domain" + i, new Safe(12), 0));
+        }
+        History history = new History(entries);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Map<Entry, String> streamed = new ConcurrentHashMap<>();
+            Polymorph.deriveAll(history, "password", configuration, executor, streamed::put).join();
+
+            assertEquals(streamed.size(), entries.size());
+            for (Entry entry : entries) {
+                assertEquals(
+                        streamed.get(entry),
+                        Polymorph.derive(entry.schema, entry.domain, "password", configuration));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void deriveAllInterleaved() {
+        // Small configurations are interleaved by groups of entries, with the same passwords.
+        Configuration configuration = new Configuration(8, 2, 2, "interleaved", true);
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            entries.add(new Entry("domain" + i, i % 2 == 0 ? new Safe(8 + i % 13) : new Alphanumeric(4 + i % 20), 0));
+        }
+        History history = new History(entries);
+
+        int previous = Polymorph.getInterleaved();
+        Polymorph.setInterleaved(4);
+        try {
+            Map<Entry, String> passwords = Polymorph.deriveAll(history, "password", configuration);
+            assertEquals(new ArrayList<>(passwords.keySet()), history.getAll());
+            for (Entry entry : entries) {
+                assertEquals(Polymorph.derive(entry.schema, entry.domain, "password", configuration),
+                        passwords.get(entry));
+            }
+        } finally {
+            Polymorph.setInterleaved(previous);
+        }
+    }
+
+    @Test
+    public void deriveIntoCharArray() {
+        String password = "pony1234";
+        String code = "AGDE2-DGXA4-33DLQ-WEDAP-GYPQ9";
+
+        char[] output = new char[20];
+        Polymorph.derive(new Safe(18), "github".toCharArray(), password.toCharArray(),
+                getDefaultConfigWithCode(code), output);
+        assertEquals(new String(output, 0, 18), "5pZYE8$jY5nY]j}3|#");
+
+        Polymorph.derive(new Alphanumeric(4), "facebook".toCharArray(), password.toCharArray(),
+                getDefaultConfigWithCode(code), output);
+        assertEquals(new String(output, 0, 4), "T7qi");
+    }
+
+    @Test
+    public void extendedConfiguration() {
+        String password = "pony1234";
+        String code = "AGDE2-DGXA4-33DLQ-WEDAP-GYPQ9";
+        Configuration extended = new Configuration(
+                Configuration.DEFAULT_LOG_N,
+                Configuration.DEFAULT_R,
+                Configuration.DEFAULT_P,
+                code,
+                true);
+
+        // Short passwords are unchanged.
+        assertEquals(
+                Polymorph.derive(new Safe(18), "github", password, extended),
+                "5pZYE8$jY5nY]j}3|#");
+
+        // Long passwords do not degenerate.
+        String plain = Polymorph.derive(new Alphanumeric(300), "github", password, getDefaultConfigWithCode(code));
+        String extendedPassword = Polymorph.derive(new Alphanumeric(300), "github", password, extended);
+        assertEquals(extendedPassword.length(), 300);
+        assertTrue(plain.endsWith("aaaaaaaaaaaaaaaaaaaa"));
+        assertFalse(extendedPassword.endsWith("aaaaaaaaaaaaaaaaaaaa"));
+
+        assertEquals(Configuration.fromJSON(extended.toJSON()), extended);
+    }
+
+    @Test
+    public void argon2idConfiguration() {
+        Configuration configuration = new Configuration(10, 2, 4, "code", false, KeyDerivationFunction.ARGON2ID);
+
+        // The seed of passwords is the Argon2id hash of the password and code, salted with the domain.
+        byte[] seed = Argon2.argon2id("passwordcode".getBytes(StandardCharsets.UTF_8),
+                "github".getBytes(StandardCharsets.UTF_8), new byte[0], new byte[0], 1 << 10, 2, 4, 64);
+        String password = Polymorph.derive(new Safe(), "github", "password", configuration);
+        assertEquals(new Safe().generate(seed), password);
+        assertNotEquals(Polymorph.derive(new Safe(), "github", "password",
+                new Configuration(10, 2, 4, "code", false, KeyDerivationFunction.SCRYPT)), password);
+
+        char[] output = new char[new Safe().getSize()];
+        Polymorph.derive(new Safe(), "github".toCharArray(), "password".toCharArray(), configuration, output);
+        assertEquals(password, new String(output));
+
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            entries.add(new Entry("domain" + i, new Alphanumeric(10 + i), 0));
+        }
+        Map<Entry, String> passwords = Polymorph.deriveAll(new History(entries), "password", configuration);
+        for (Entry entry : entries) {
+            assertEquals(Polymorph.derive(entry.schema, entry.domain, "password", configuration),
+                    passwords.get(entry));
+        }
+
+        assertEquals(1024L << 10, configuration.memoryBytes());
+        assertEquals(configuration, Configuration.fromJSON(configuration.toJSON()));
+        assertEquals("argon2id", configuration.toJSON().getString("kdf"));
+    }
+
+    @Test
+    public void configurationWithoutKdf() {
+        // Configurations saved before the key derivation function was configurable use SCrypt.
+        Configuration configuration = Configuration.fromJSON(new JSONObject()
+                .put("log_n", 12).put("r", 8).put("p", 1).put("code", "code").put("extended", false));
+        assertEquals(KeyDerivationFunction.SCRYPT, configuration.kdf);
+        assertEquals(new Configuration(12, 8, 1, "code"), configuration);
+        assertNotEquals(new Configuration(12, 8, 1, "code", false, KeyDerivationFunction.ARGON2ID), configuration);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownKdf() {
+        Configuration.fromJSON(new JSONObject().put("kdf", "md5"));
+    }
+
+    @Test
+    public void safeLongerThanSize() {
+        // Passwords of the original implementation, for which Safe(5) draws 2 characters of each class.
+        Configuration configuration = new Configuration(4, 1, 1, "");
+        String[] domains = { "d21", "d32", "d38" };
+        String[] expected = { "M5=.W8", "%2/P8E", "G\\M85$" };
+        Safe safe = new Safe(5);
+        for (int i = 0; i < domains.length; i++) {
+            assertEquals(expected[i], Polymorph.derive(safe, domains[i], "pw", configuration));
+
+            char[] output = new char[safe.getMaxSize()];
+            assertEquals(6, Polymorph.derive(safe, domains[i].toCharArray(), "pw".toCharArray(), configuration, output));
+            assertEquals(expected[i], new String(output));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package ch.redelmann.polymorph.library;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class Utf8Test {
+
+    private static void assertSameAsString(String string) {
+        byte[] output = new byte[2 + Utf8.maxEncodedLength(string.length())];
+        int length = Utf8.encode(string, output, 2);
+        assertArrayEquals(string.getBytes(StandardCharsets.UTF_8), Arrays.copyOfRange(output, 2, 2 + length));
+    }
+
+    @Test
+    public void testEncode() throws Exception {
+        assertSameAsString("");
+        assertSameAsString("pony1234");
+        assertSameAsString("caf\u00e9 \u00fcber");
+        assertSameAsString("\u20ac\u4e2d\u6587");
+        assertSameAsString("\ud83d\ude00 smile");
+    }
+
+    @Test
+    public void testUnpairedSurrogates() throws Exception {
+        assertSameAsString("a\ud83db");
+        assertSameAsString("a\ude00b");
+        assertSameAsString("end\ud83d");
+    }
+}
@@ -0,0 +1,80 @@
+package ch.redelmann.polymorph.library.crypto;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class Argon2Test {
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    @Test
+    public void testRfcVector() {
+        // RFC 9106, section 5.3.
+        assertEquals("0d640df58d78766c08c037a34a8b53c9d01ef0452d75b65eb52520e96b01e659",
+                hex(Argon2.argon2id(filled(32, 1), filled(16, 2), filled(8, 3), filled(12, 4), 32, 3, 4, 32)));
+    }
+
+    @Test
+    public void testSameWithAnyExecutor() {
+        byte[] password = "password".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = "somesalt".getBytes(StandardCharsets.UTF_8);
+        Executor previous = Argon2.getLaneExecutor();
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            Argon2.setLaneExecutor(null);
+            byte[] sequential = Argon2.argon2id(password, salt, new byte[0], new byte[0], 256, 2, 4, 64);
+
+            Argon2.setLaneExecutor(pool);
+            assertArrayEquals(sequential, Argon2.argon2id(password, salt, new byte[0], new byte[0], 256, 2, 4, 64));
+
+            // Lanes rejected by the executor are computed by the calling thread.
+            Argon2.setLaneExecutor(command -> { throw new java.util.concurrent.RejectedExecutionException(); });
+            assertArrayEquals(sequential, Argon2.argon2id(password, salt, new byte[0], new byte[0], 256, 2, 4, 64));
+        } finally {
+            Argon2.setLaneExecutor(previous);
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLengths() {
+        byte[] password = "password".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = "somesalt".getBytes(StandardCharsets.UTF_8);
+        byte[] output = new byte[100];
+        Argon2.argon2id(password, 4, salt, 8, 64, 1, 1, output);
+        assertArrayEquals(output, Argon2.argon2id("pass".getBytes(StandardCharsets.UTF_8), salt,
+                new byte[0], new byte[0], 64, 1, 1, 100));
+        // Memory is rounded down to a multiple of 4 blocks per lane, but still changes the key.
+        assertFalse(Arrays.equals(Argon2.argon2id(password, salt, new byte[0], new byte[0], 67, 1, 2, 32),
+                Argon2.argon2id(password, salt, new byte[0], new byte[0], 64, 1, 2, 32)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLittleMemory() {
+        Argon2.argon2id(new byte[1], new byte[8], new byte[0], new byte[0], 31, 1, 4, 32);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoPass() {
+        Argon2.argon2id(new byte[1], new byte[8], new byte[0], new byte[0], 64, 0, 1, 32);
+    }
+}
@@ -0,0 +1,57 @@
+package ch.redelmann.polymorph.library.crypto;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Blake2bTest {
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testVectors() {
+        assertEquals("786a02f742015903c6c6fd852552d272912f4740e15847618a86e217f71f5419"
+                        + "d25e1031afee585313896444934eb04b903a685b1448b755d56f701afe9be2ce",
+                hex(new Blake2b(64).digest()));
+        // RFC 7693, appendix A.
+        assertEquals("ba80a53f981c4d0d6a2797b69f12f6e94c212f14685ac4b74b12bb6fdbffa2d1"
+                        + "7d87c5392aab792dc252d5de4533cc9518d38aa8dbf1925ab92386edd4009923",
+                hex(new Blake2b(64).update("abc".getBytes(StandardCharsets.US_ASCII)).digest()));
+    }
+
+    @Test
+    public void testIncremental() {
+        Random random = new Random(5);
+        for (int length = 0; length < 600; length += 37) {
+            byte[] input = new byte[length];
+            random.nextBytes(input);
+            byte[] expected = new Blake2b(48).update(input).digest();
+
+            Blake2b blake2b = new Blake2b(48);
+            for (int offset = 0; offset < length; ) {
+                int count = Math.min(length - offset, random.nextInt(200));
+                blake2b.update(input, offset, count);
+                offset += count;
+            }
+            assertArrayEquals(expected, blake2b.digest());
+        }
+    }
+
+    @Test
+    public void testReset() {
+        Blake2b blake2b = new Blake2b(64);
+        byte[] first = blake2b.update("abc".getBytes(StandardCharsets.US_ASCII)).digest();
+        byte[] second = blake2b.reset(64).update("abc".getBytes(StandardCharsets.US_ASCII)).digest();
+        assertArrayEquals(first, second);
+        assertEquals(32, blake2b.reset(32).digest().length);
+    }
+}
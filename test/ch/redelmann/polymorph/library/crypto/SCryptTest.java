@@ -0,0 +1,258 @@
+package ch.redelmann.polymorph.library.crypto;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+public class SCryptTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testVectors() throws Exception {
+        assertArrayEquals(
+                SCrypt.scrypt(new byte[0], new byte[0], 16, 1, 1, 64),
+                fromHex("77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442" +
+                        "fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906"));
+        assertArrayEquals(
+                SCrypt.scrypt(
+                        "password".getBytes(StandardCharsets.US_ASCII),
+                        "NaCl".getBytes(StandardCharsets.US_ASCII),
+                        1024, 8, 16, 64),
+                fromHex("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162" +
+                        "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640"));
+    }
+
+    @Test
+    public void testSameAsReference() throws Exception {
+        Random random = new Random(42);
+        int[][] parameters = {
+                {2, 1, 1, 64},
+                {16, 1, 1, 1},
+                {1024, 2, 1, 64},
+                {256, 3, 2, 33},
+                {512, 1, 4, 100},
+        };
+        for (int[] parameter : parameters) {
+            for (int passwordLength : new int[]{1, 8, 64, 65, 200}) {
+                byte[] password = new byte[passwordLength];
+                byte[] salt = new byte[random.nextInt(40)];
+                random.nextBytes(password);
+                random.nextBytes(salt);
+
+                assertArrayEquals(
+                        com.lambdaworks.crypto.SCrypt.scryptJ(
+                                password, salt, parameter[0], parameter[1], parameter[2], parameter[3]),
+                        SCrypt.scrypt(password, salt, parameter[0], parameter[1], parameter[2], parameter[3]));
+            }
+        }
+    }
+
+    @Test
+    public void testWorkspaceReuse() throws Exception {
+        Workspace workspace = new Workspace();
+        byte[] password = "pony1234".getBytes(StandardCharsets.US_ASCII);
+        byte[] salt = "github".getBytes(StandardCharsets.US_ASCII);
+
+        byte[] large = new byte[64];
+        SCrypt.scrypt(password, salt, 4096, 4, 2, large, workspace);
+        byte[] small = new byte[64];
+        SCrypt.scrypt(password, salt, 64, 1, 1, small, workspace);
+        byte[] again = new byte[64];
+        SCrypt.scrypt(password, salt, 4096, 4, 2, again, workspace);
+
+        assertArrayEquals(large, again);
+        assertArrayEquals(com.lambdaworks.crypto.SCrypt.scryptJ(password, salt, 64, 1, 1, 64), small);
+    }
+
+    @Test
+    public void testOffHeap() throws Exception {
+        byte[] password = "pony1234".getBytes(StandardCharsets.US_ASCII);
+        byte[] salt = "github".getBytes(StandardCharsets.US_ASCII);
+        byte[] expected = SCrypt.scrypt(password, salt, 1024, 2, 2, 64);
+
+        long threshold = Workspace.getOffHeapThreshold();
+        Workspace.setOffHeapThreshold(128 * 2 * 1024);
+        try {
+            Workspace workspace = new Workspace();
+            byte[] output = new byte[64];
+            SCrypt.scrypt(password, salt, 1024, 2, 2, output, workspace);
+            assertArrayEquals(expected, output);
+
+            // Below the threshold, the heap is used again.
+            SCrypt.scrypt(password, salt, 512, 2, 2, output, workspace);
+            assertArrayEquals(SCrypt.scrypt(password, salt, 512, 2, 2, 64), output);
+
+            SCrypt.scrypt(password, salt, 1024, 2, 2, output, workspace);
+            assertArrayEquals(expected, output);
+            workspace.wipe();
+        } finally {
+            Workspace.setOffHeapThreshold(threshold);
+        }
+    }
+
+    @Test
+    public void testConcurrentLanes() throws Exception {
+        byte[] password = "pony1234".getBytes(StandardCharsets.US_ASCII);
+        byte[] salt = "github".getBytes(StandardCharsets.US_ASCII);
+        byte[] expected = SCrypt.scrypt(password, salt, 1024, 2, 5, 64);
+
+        Executor previous = SCrypt.getLaneExecutor();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            SCrypt.setLaneExecutor(executor);
+            for (int i = 0; i < 10; i++) {
+                assertArrayEquals(expected, SCrypt.scrypt(password, salt, 1024, 2, 5, 64));
+            }
+
+            // Lanes rejected by the executor are computed by the calling thread.
+            SCrypt.setLaneExecutor(command -> {
+                throw new RejectedExecutionException();
+            });
+            assertArrayEquals(expected, SCrypt.scrypt(password, salt, 1024, 2, 5, 64));
+        } finally {
+            SCrypt.setLaneExecutor(previous);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testInterleaved() throws Exception {
+        Random random = new Random(17);
+        int[][] parameters = {
+                {16, 1, 1},
+                {1024, 2, 1},
+                {256, 3, 2},
+        };
+        for (int[] parameter : parameters) {
+            int count = 11;
+            byte[][] passwords = new byte[count][];
+            byte[][] salts = new byte[count][];
+            byte[][] expected = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                passwords[i] = new byte[1 + random.nextInt(80)];
+                salts[i] = new byte[random.nextInt(40)];
+                random.nextBytes(passwords[i]);
+                random.nextBytes(salts[i]);
+                expected[i] = SCrypt.scrypt(passwords[i], salts[i], parameter[0], parameter[1], parameter[2], 64);
+            }
+            for (int interleaved = 1; interleaved <= SCrypt.MAX_INTERLEAVED; interleaved++) {
+                byte[][] outputs = new byte[count][64];
+                SCrypt.scrypt(passwords, salts, parameter[0], parameter[1], parameter[2], outputs, interleaved);
+                for (int i = 0; i < count; i++) {
+                    assertArrayEquals(expected[i], outputs[i]);
+                }
+            }
+        }
+
+        // The workspaces can be released and created again.
+        SCrypt.releaseWorkspace();
+        byte[][] outputs = new byte[2][64];
+        SCrypt.scrypt(new byte[][] { new byte[0], new byte[0] }, new byte[][] { new byte[0], new byte[0] },
+                16, 1, 1, outputs, 2);
+        assertArrayEquals(SCrypt.scrypt(new byte[0], new byte[0], 16, 1, 1, 64), outputs[1]);
+    }
+
+    @Test
+    public void testScalarFallback() throws Exception {
+        // No other implementation of BlockMix is on the class path of these tests.
+        assertSame(BlockMix.SCALAR, SCrypt.getBlockMix());
+    }
+
+    /** Provider of BlockMix that can not be instantiated. */
+    public static final class FailingBlockMix extends DelegatingBlockMix {
+        public FailingBlockMix() {
+            throw new IllegalStateException("Not available.");
+        }
+    }
+
+    /** Provider of BlockMix whose dependencies are missing. */
+    public static final class UnlinkedBlockMix extends DelegatingBlockMix {
+        @Override
+        public boolean isSupported() {
+            throw new NoClassDefFoundError("jdk/incubator/vector/IntVector");
+        }
+    }
+
+    /** Provider of BlockMix that is supported. */
+    public static final class SupportedBlockMix extends DelegatingBlockMix {
+        @Override
+        public String getName() {
+            return "supported";
+        }
+    }
+
+    /** BlockMix delegating to the scalar implementation. */
+    public abstract static class DelegatingBlockMix implements BlockMix {
+        @Override
+        public String getName() {
+            return getClass().getSimpleName();
+        }
+
+        @Override
+        public boolean isSupported() {
+            return true;
+        }
+
+        @Override
+        public void toLayout(int[] words, int offset, int blocks) {
+            BlockMix.SCALAR.toLayout(words, offset, blocks);
+        }
+
+        @Override
+        public void fromLayout(int[] words, int offset, int blocks) {
+            BlockMix.SCALAR.fromLayout(words, offset, blocks);
+        }
+
+        @Override
+        public void blockMix(int[] in, int inOffset, int[] out, int outOffset, int[] x, int r) {
+            BlockMix.SCALAR.blockMix(in, inOffset, out, outOffset, x, r);
+        }
+    }
+
+    @Test
+    public void testBrokenProvidersAreSkipped() throws Exception {
+        Path services = folder.getRoot().toPath().resolve("META-INF/services");
+        Files.createDirectories(services);
+        Files.write(services.resolve(BlockMix.class.getName()), String.join("\n",
+                "ch.redelmann.polymorph.library.crypto.MissingBlockMix",
+                FailingBlockMix.class.getName(),
+                UnlinkedBlockMix.class.getName(),
+                SupportedBlockMix.class.getName()).getBytes(StandardCharsets.UTF_8));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { folder.getRoot().toURI().toURL() },
+                SCryptTest.class.getClassLoader())) {
+            assertTrue(SCrypt.loadBlockMix(null, loader) instanceof SupportedBlockMix);
+            assertTrue(SCrypt.loadBlockMix("supported", loader) instanceof SupportedBlockMix);
+            assertSame(BlockMix.SCALAR, SCrypt.loadBlockMix("UnlinkedBlockMix", loader));
+            assertSame(BlockMix.SCALAR, SCrypt.loadBlockMix("scalar", loader));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidN() throws Exception {
+        SCrypt.scrypt(new byte[0], new byte[0], 1000, 1, 1, 64);
+    }
+}
@@ -0,0 +1,294 @@
+package ch.redelmann.polymorph.library.daemon;
+
+import ch.redelmann.polymorph.library.ConcurrentHistory;
+import ch.redelmann.polymorph.library.Configuration;
+import ch.redelmann.polymorph.library.Entry;
+import ch.redelmann.polymorph.library.Generator;
+import ch.redelmann.polymorph.library.KeyDerivationFunction;
+import ch.redelmann.polymorph.library.Polymorph;
+import ch.redelmann.polymorph.library.schema.Alphanumeric;
+import ch.redelmann.polymorph.library.schema.Safe;
+import ch.redelmann.polymorph.library.schema.Schema;
+import ch.redelmann.polymorph.library.schema.SchemaFactory;
+import ch.redelmann.polymorph.library.schema.SchemaRegistry;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class DerivationDaemonTest {
+
+    private static final Configuration CONFIGURATION = new Configuration(8, 2, 1, "daemon");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static DerivationDaemon start(ConcurrentHistory history, int workers) throws IOException {
+        return DerivationDaemon.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), history,
+                workers, DerivationDaemon.DEFAULT_MAX_BATCH, 1 << 24);
+    }
+
+    @Test
+    public void testDerive() throws Exception {
+        try (DerivationDaemon daemon = start(new ConcurrentHistory(), 2);
+             DaemonClient client = DaemonClient.connect(daemon.getAddress(), daemon.getToken())) {
+            client.ping();
+            assertEquals(Polymorph.derive(new Safe(), "github", "password", CONFIGURATION),
+                    client.derive(new Safe(), "github", "password", CONFIGURATION));
+            Configuration extended = new Configuration(8, 1, 2, "é", true);
+            assertEquals(Polymorph.derive(new Alphanumeric(24), "gîthub", "pässword", extended),
+                    client.derive(new Alphanumeric(24), "gîthub", "pässword", extended));
+            Configuration argon2id = new Configuration(8, 1, 2, "", false, KeyDerivationFunction.ARGON2ID);
+            assertEquals(Polymorph.derive(new Safe(), "github", "password", argon2id),
+                    client.derive(new Safe(), "github", "password", argon2id));
+        }
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        Entry github = new Entry("github", new Safe(18), 2);
+        Entry gitlab = new Entry("GitLab", new Alphanumeric(12), 0);
+        Entry google = new Entry("google", new Safe(), 0);
+        ConcurrentHistory history = new ConcurrentHistory(Arrays.asList(github, gitlab, google));
+        try (DerivationDaemon daemon = start(history, 1);
+             DaemonClient client = DaemonClient.connect(daemon.getAddress(), daemon.getToken())) {
+            assertEquals(history.findByPrefix("git", 10), client.lookup("git", 10));
+            assertEquals(history.findByPrefix("g", 2), client.lookup("g", 2));
+            assertTrue(client.lookup("amazon", 10).isEmpty());
+
+            // Lookups see the updates of the history.
+            Entry amazon = new Entry("amazon", new Safe(), 0);
+            history.add(amazon);
+            assertEquals(Collections.singletonList(amazon), client.lookup("amazon", 10));
+        }
+    }
+
+    @Test
+    public void testRefused() throws Exception {
+        try (DerivationDaemon daemon = DerivationDaemon.start(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new ConcurrentHistory(),
+                1, 4, CONFIGURATION.memoryBytes());
+             DaemonClient client = DaemonClient.connect(daemon.getAddress(), daemon.getToken())) {
+            try {
+                client.derive(new Safe(), "github", "password", new Configuration(12, 2, 1, "large"));
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("memory"));
+            }
+            try {
+                client.lookup("github", -1);
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("limit"));
+            }
+
+            // The connection is still usable.
+            client.ping();
+        }
+    }
+
+    @Test
+    public void testOversizedSchema() throws Exception {
+        try (DerivationDaemon daemon = start(new ConcurrentHistory(), 1);
+             DaemonClient client = DaemonClient.connect(daemon.getAddress(), daemon.getToken())) {
+            try {
+                client.derive(new Safe(Protocol.MAX_SCHEMA_SIZE + 1), "github", "password", CONFIGURATION);
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("size"));
+            }
+            assertEquals(Polymorph.derive(new Safe(Protocol.MAX_SCHEMA_SIZE), "github", "password", CONFIGURATION),
+                    client.derive(new Safe(Protocol.MAX_SCHEMA_SIZE), "github", "password", CONFIGURATION));
+        }
+    }
+
+    /** Schema whose generation fails with an error. */
+    private static final class FailingSchema extends Schema {
+
+        static final String NAME = "daemon-test-failing";
+
+        FailingSchema(int size) {
+            super(size);
+        }
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+
+        @Override
+        protected String generate(Generator gen) {
+            throw new OutOfMemoryError("Simulated");
+        }
+    }
+
+    @Test
+    public void testWorkerError() throws Exception {
+        SchemaRegistry.getDefault().register(new SchemaFactory() {
+            @Override
+            public String getName() {
+                return FailingSchema.NAME;
+            }
+
+            @Override
+            public int getDefaultSize() {
+                return 1;
+            }
+
+            @Override
+            public Schema create(int size) {
+                return new FailingSchema(size);
+            }
+        });
+        try (DerivationDaemon daemon = start(new ConcurrentHistory(), 1);
+             DaemonClient client = DaemonClient.connect(daemon.getAddress(), daemon.getToken())) {
+            try {
+                client.derive(new FailingSchema(1), "github", "password", CONFIGURATION);
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("Simulated"));
+            }
+
+            // The only worker survived the error.
+            assertEquals(Polymorph.derive(new Safe(18), "github", "password", CONFIGURATION),
+                    client.derive(new Safe(18), "github", "password", CONFIGURATION));
+        }
+    }
+
+    @Test
+    public void testOversizedFirstFrame() throws Exception {
+        try (DerivationDaemon daemon = start(new ConcurrentHistory(), 1);
+             SocketChannel channel = SocketChannel.open(daemon.getAddress())) {
+            // Announces a frame of the maximal size, far larger than an AUTH request.
+            ByteBuffer header = ByteBuffer.allocate(4).putInt(Frame.MAX_SIZE);
+            header.flip();
+            channel.write(header);
+
+            // The daemon drops the connection without waiting for the payload.
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    public void testConcurrentClients() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try (DerivationDaemon daemon = start(new ConcurrentHistory(), 2)) {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                String domain = "domain" + (i % 8);
+                results.add(pool.submit(() -> {
+                    try (DaemonClient client = DaemonClient.connect(daemon.getAddress(), daemon.getToken())) {
+                        return client.derive(new Safe(), domain, "password", CONFIGURATION);
+                    }
+                }));
+            }
+            for (int i = 0; i < 64; i++) {
+                assertEquals(Polymorph.derive(new Safe(), "domain" + (i % 8), "password", CONFIGURATION),
+                        results.get(i).get(30, TimeUnit.SECONDS));
+            }
+
+            // Identical derivations of a batch run once.
+            assertTrue(daemon.getDerivations() <= 64);
+            assertTrue(daemon.getBatches() <= daemon.getDerivations());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnixDomainSocket() throws Exception {
+        Path socket = folder.getRoot().toPath().resolve("polymorph.sock");
+        DerivationDaemon daemon;
+        try {
+            daemon = DerivationDaemon.start(UnixDomainSocketAddress.of(socket), new ConcurrentHistory(),
+                    1, DerivationDaemon.DEFAULT_MAX_BATCH, 1 << 24);
+        } catch (UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+        assertNull(daemon.getToken());
+        if (Files.getFileStore(socket).supportsFileAttributeView("posix")) {
+            assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE),
+                    Files.getPosixFilePermissions(socket));
+        }
+        try (DaemonClient client = DaemonClient.connect(daemon.getAddress())) {
+            assertEquals(Polymorph.derive(new Safe(), "github", "password", CONFIGURATION),
+                    client.derive(new Safe(), "github", "password", CONFIGURATION));
+        } finally {
+            daemon.close();
+        }
+        assertFalse(Files.exists(socket));
+    }
+
+    @Test
+    public void testAuthentication() throws Exception {
+        ConcurrentHistory history = new ConcurrentHistory(Collections.singletonList(new Entry("github", new Safe(), 0)));
+        try (DerivationDaemon daemon = start(history, 1)) {
+            assertEquals(64, daemon.getToken().length());
+            try (DerivationDaemon other = start(new ConcurrentHistory(), 1)) {
+                assertNotEquals(daemon.getToken(), other.getToken());
+            }
+
+            // Without the token, even pings are refused, and the connection is closed.
+            try (DaemonClient client = DaemonClient.connect(daemon.getAddress())) {
+                try {
+                    client.lookup("git", 10);
+                    fail();
+                } catch (IOException e) {
+                    assertTrue(e.getMessage().contains("Authentication failed."));
+                }
+                try {
+                    client.ping();
+                    fail();
+                } catch (IOException e) {
+                    // Closed by the daemon.
+                }
+            }
+
+            String wrong = daemon.getToken().substring(1) + "x";
+            try {
+                DaemonClient.connect(daemon.getAddress(), wrong).close();
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("Authentication failed."));
+            }
+
+            try (DaemonClient client = DaemonClient.connect(daemon.getAddress(), daemon.getToken())) {
+                assertEquals(history.findByPrefix("git", 10), client.lookup("git", 10));
+            }
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        DerivationDaemon daemon = start(new ConcurrentHistory(), 1);
+        try (DaemonClient client = DaemonClient.connect(daemon.getAddress(), daemon.getToken())) {
+            client.ping();
+            daemon.close();
+            try {
+                client.ping();
+                fail();
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+    }
+}
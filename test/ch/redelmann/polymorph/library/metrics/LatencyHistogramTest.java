@@ -0,0 +1,51 @@
+package ch.redelmann.polymorph.library.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        Random random = new Random(5);
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            int bucket = LatencyHistogram.bucket(value);
+            long reported = LatencyHistogram.value(bucket);
+            assertTrue(Math.abs(reported - value) <= value / 32);
+            assertTrue(bucket >= LatencyHistogram.bucket(value / 2));
+        }
+        for (long value = 0; value < 32; value++) {
+            assertEquals(value, LatencyHistogram.value(LatencyHistogram.bucket(value)));
+        }
+        LatencyHistogram.bucket(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentiles() {
+        Random random = new Random(11);
+        long[] values = new long[100000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1000 + (long) (1e6 * -Math.log(1 - random.nextDouble()));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[49999], histogram.getP50(), values[49999] / 32.0);
+        assertEquals(values[98999], histogram.getP99(), values[98999] / 32.0);
+        assertEquals(values[99899], histogram.getP999(), values[99899] / 32.0);
+        assertEquals(values[0], histogram.getPercentile(0), values[0] / 32.0);
+        assertEquals(values[values.length - 1], histogram.getPercentile(1), values[values.length - 1] / 32.0);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getP99());
+    }
+}
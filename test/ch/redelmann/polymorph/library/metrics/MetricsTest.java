@@ -0,0 +1,141 @@
+package ch.redelmann.polymorph.library.metrics;
+
+import ch.redelmann.polymorph.library.Configuration;
+import ch.redelmann.polymorph.library.Entry;
+import ch.redelmann.polymorph.library.History;
+import ch.redelmann.polymorph.library.Polymorph;
+import ch.redelmann.polymorph.library.schema.Safe;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    private static final Configuration CONFIGURATION = new Configuration(8, 1, 1, "metrics");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDisabled() {
+        assertFalse(Metrics.isEnabled());
+        assertNull(Metrics.start(Stage.DERIVE));
+    }
+
+    @Test
+    public void testStages() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        Metrics.addListener(registry);
+        try {
+            assertTrue(Metrics.isEnabled());
+            for (int i = 0; i < 10; i++) {
+                Polymorph.derive(new Safe(), "domain" + i, "password", CONFIGURATION);
+            }
+            Polymorph.derive(new Safe(), "domain".toCharArray(), "password".toCharArray(), CONFIGURATION,
+                    new char[new Safe().getSize()]);
+
+            History history = new History();
+            history.add(new Entry("github", new Safe(), 0));
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            history.saveTo(output);
+            History.loadFrom(new ByteArrayInputStream(output.toByteArray()));
+        } finally {
+            Metrics.removeListener(registry);
+        }
+        assertFalse(Metrics.isEnabled());
+
+        for (Stage stage : new Stage[] { Stage.DERIVE, Stage.SCRYPT, Stage.SEED, Stage.GENERATE, Stage.PERMUTATION }) {
+            assertEquals(stage.name(), 11, registry.getCount(stage));
+        }
+        assertEquals(1, registry.getCount(Stage.HISTORY_LOAD));
+        assertEquals(1, registry.getCount(Stage.HISTORY_SAVE));
+
+        // Stages are nested in the derivation.
+        LatencyHistogram derive = registry.getHistogram(Stage.DERIVE);
+        LatencyHistogram scrypt = registry.getHistogram(Stage.SCRYPT);
+        assertTrue(derive.getMean() >= scrypt.getMean());
+        assertTrue(derive.getP50() > 0);
+        assertTrue(registry.toString().contains("SCRYPT count=11"));
+
+        // Derivations after the removal of the listener are not recorded.
+        Polymorph.derive(new Safe(), "domain", "password", CONFIGURATION);
+        assertEquals(11, registry.getCount(Stage.DERIVE));
+    }
+
+    @Test
+    public void testInterleavedDerivations() {
+        int count = 4 * Runtime.getRuntime().availableProcessors();
+        History history = new History();
+        for (int i = 0; i < count; i++) {
+            history.add(new Entry("domain" + i, new Safe(), 0));
+        }
+
+        MetricsRegistry registry = new MetricsRegistry();
+        int previous = Polymorph.getInterleaved();
+        Polymorph.setInterleaved(4);
+        Metrics.addListener(registry);
+        try {
+            Polymorph.deriveAll(history, "password", CONFIGURATION);
+        } finally {
+            Metrics.removeListener(registry);
+            Polymorph.setInterleaved(previous);
+        }
+
+        // Each derivation is recorded, while interleaved hashes are recorded once per group.
+        assertEquals(count, registry.getCount(Stage.DERIVE));
+        assertEquals(count, registry.getCount(Stage.GENERATE));
+        assertEquals(count / 4, registry.getCount(Stage.SCRYPT));
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("ch.redelmann.polymorph.Derive");
+            recording.enable("ch.redelmann.polymorph.SCrypt").withThreshold(Duration.ZERO);
+            recording.start();
+            assertTrue(Metrics.isEnabled());
+            for (int i = 0; i < 3; i++) {
+                Polymorph.derive(new Safe(), "domain" + i, "password", CONFIGURATION);
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+        assertFalse(Metrics.isEnabled());
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        List<String> names = events.stream()
+                .map(event -> event.getEventType().getName())
+                .filter(name -> name.startsWith("ch.redelmann.polymorph."))
+                .collect(Collectors.toList());
+        assertEquals(3, names.stream().filter("ch.redelmann.polymorph.Derive"::equals).count());
+        assertEquals(3, names.stream().filter("ch.redelmann.polymorph.SCrypt"::equals).count());
+
+        // Stages that are not enabled in the recording are not committed.
+        assertFalse(names.contains("ch.redelmann.polymorph.Seed"));
+
+        // Events span their stages, so that the hashes are nested in the derivations.
+        List<RecordedEvent> derives = events.stream()
+                .filter(event -> event.getEventType().getName().equals("ch.redelmann.polymorph.Derive"))
+                .collect(Collectors.toList());
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("ch.redelmann.polymorph.SCrypt")) {
+                assertTrue(event.getDuration().toNanos() > 0);
+                assertTrue(derives.stream().anyMatch(derive -> !derive.getStartTime().isAfter(event.getStartTime())
+                        && !derive.getEndTime().isBefore(event.getEndTime())));
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ch.redelmann.polymorph.library.schema;
+
+import ch.redelmann.polymorph.library.Entry;
+import ch.redelmann.polymorph.library.Generator;
+import ch.redelmann.polymorph.library.History;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SchemaRegistryTest {
+
+    /** Schema of PIN codes, made only of digits. */
+    public static class Pin extends Schema {
+
+        public static final String NAME = "pin";
+
+        public Pin(int size) {
+            super(size);
+        }
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+
+        @Override
+        protected String generate(Generator gen) {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < getSize(); i++) {
+                builder.append(gen.nextDigit());
+            }
+            return builder.toString();
+        }
+    }
+
+    /** Factory of {@link Pin} schemas, discovered through {@link java.util.ServiceLoader}. */
+    public static class PinFactory implements SchemaFactory {
+
+        @Override
+        public String getName() {
+            return Pin.NAME;
+        }
+
+        @Override
+        public int getDefaultSize() {
+            return 4;
+        }
+
+        @Override
+        public Schema create(int size) {
+            return new Pin(size);
+        }
+    }
+
+    @Test
+    public void testInterning() {
+        SchemaRegistry registry = new SchemaRegistry();
+        Schema safe = registry.get(Safe.NAME, 18);
+        assertEquals(new Safe(18), safe);
+        assertSame(safe, registry.get(Safe.NAME, 18));
+        assertSame(safe, registry.get(Safe.NAME));
+        assertNotSame(safe, registry.get(Safe.NAME, 19));
+        assertEquals(new Alphanumeric(12), registry.get(Alphanumeric.NAME, 12));
+    }
+
+    @Test
+    public void testEntriesShareSchemas() throws Exception {
+        String json = "[{\"domain\":\"a\",\"schema\":\"safe\",\"size\":18},"
+                + "{\"domain\":\"b\",\"schema\":\"safe\",\"size\":18},"
+                + "{\"domain\":\"c\",\"schema\":\"safe\"},"
+                + "{\"domain\":\"d\",\"schema\":\"alpha\"}]";
+        List<Entry> entries = History.loadFrom(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))).getAll();
+        assertSame(entries.get(0).schema, entries.get(1).schema);
+        assertSame(entries.get(0).schema, entries.get(2).schema);
+        assertEquals(new Alphanumeric(Alphanumeric.DEFAULT_SIZE), entries.get(3).schema);
+    }
+
+    @Test
+    public void testServiceLoader() {
+        SchemaRegistry registry = SchemaRegistry.getDefault();
+        assertTrue(registry.getNames().contains(Pin.NAME));
+        assertEquals(new Pin(4), registry.get(Pin.NAME));
+
+        Entry entry = Entry.fromJSON(new JSONObject("{\"domain\":\"bank\",\"schema\":\"pin\",\"size\":6}"));
+        assertEquals(new Pin(6), entry.schema);
+        assertTrue(entry.schema.generate(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }).matches("[0-9]{6}"));
+    }
+
+    @Test
+    public void testRegister() {
+        SchemaRegistry registry = new SchemaRegistry();
+        assertFalse(registry.getNames().contains(Pin.NAME));
+        assertTrue(registry.register(new PinFactory()));
+        assertFalse(registry.register(new PinFactory()));
+        assertEquals(new Pin(4), registry.get(Pin.NAME));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknown() {
+        new SchemaRegistry().get("unknown", 12);
+    }
+}
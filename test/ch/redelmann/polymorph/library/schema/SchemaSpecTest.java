@@ -0,0 +1,146 @@
+package ch.redelmann.polymorph.library.schema;
+
+import ch.redelmann.polymorph.library.Generator;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SchemaSpecTest {
+
+    /** Reference implementation of {@link Safe}, drawing characters one by one. */
+    private static String safe(Generator gen, int size) {
+        int min = Math.max(1, size / 8);
+        int max = 1 + (size - 1) / 4;
+        int nUpper = gen.nextInt(min, max);
+        int nDigit = gen.nextInt(min, max);
+        int nSpecial = gen.nextInt(min, max);
+        int nLower = size - nUpper - nSpecial - nDigit;
+
+        StringBuilder builder = new StringBuilder();
+        for (int j = 0; j < nUpper; j++) {
+            builder.append(gen.nextUpperLetter());
+        }
+        for (int j = 0; j < nDigit; j++) {
+            builder.append(gen.nextDigit());
+        }
+        for (int j = 0; j < nSpecial; j++) {
+            builder.append(gen.nextSpecialChar());
+        }
+        for (int j = 0; j < nLower; j++) {
+            builder.append(gen.nextLowerLetter());
+        }
+        return gen.nextPermutation(builder.toString());
+    }
+
+    /** Reference implementation of {@link Alphanumeric}, drawing characters one by one. */
+    private static String alphanumeric(Generator gen, int size) {
+        int min = Math.max(1, size / 8);
+        int max = 1 + (size - 1) / 4;
+        int nUpper = gen.nextInt(min, max);
+        int nDigit = gen.nextInt(min, max);
+        int nLower = size - nUpper - nDigit;
+
+        StringBuilder builder = new StringBuilder();
+        for (int j = 0; j < nUpper; j++) {
+            builder.append(gen.nextUpperLetter());
+        }
+        for (int j = 0; j < nDigit; j++) {
+            builder.append(gen.nextDigit());
+        }
+        for (int j = 0; j < nLower; j++) {
+            builder.append(gen.nextLowerLetter());
+        }
+        return gen.nextPermutation(builder.toString());
+    }
+
+    @Test
+    public void testBuiltInsUnchanged() {
+        Random random = new Random(18);
+        for (int size = 3; size <= 64; size++) {
+            for (int round = 0; round < 20; round++) {
+                byte[] seed = new byte[64];
+                random.nextBytes(seed);
+                // Long passwords need an extended generator.
+                boolean extended = size > 20 || round % 2 == 0;
+
+                if (size >= 4) {
+                    assertEquals(safe(new Generator(seed, extended), size),
+                            new Safe(size).generate(seed, extended));
+                }
+                assertEquals(alphanumeric(new Generator(seed, extended), size),
+                        new Alphanumeric(size).generate(seed, extended));
+            }
+        }
+    }
+
+    @Test
+    public void testLongerThanSize() {
+        // Safe passwords of 5 characters have 6 characters when 2 characters of each class are drawn.
+        Safe safe = new Safe(5);
+        assertEquals(6, safe.getMaxSize());
+        Random random = new Random(5);
+        int longer = 0;
+        for (int round = 0; round < 200; round++) {
+            byte[] seed = new byte[64];
+            random.nextBytes(seed);
+            String expected = safe(new Generator(seed, false), 5);
+            assertEquals(expected, safe.generate(seed));
+
+            char[] output = new char[6];
+            assertEquals(expected.length(), safe.generate(seed, output));
+            assertEquals(expected, new String(output, 0, expected.length()));
+            if (expected.length() > 5) {
+                longer++;
+                try {
+                    safe.generate(seed, new char[5]);
+                    fail();
+                } catch (IllegalArgumentException e) {
+                    // The password does not fit.
+                }
+            }
+        }
+        assertTrue(longer > 0);
+        assertEquals(18, new Safe().getMaxSize());
+    }
+
+    @Test
+    public void testCustomSchema() {
+        SchemaSpec spec = new SchemaSpec(12)
+                .add(CharClass.range('A', 'F'), 2, 4)
+                .fill(CharClass.DIGIT)
+                .add(new CharClass("-"), 1, 1);
+        Schema schema = new CompiledSchema("hex-ish", spec);
+        assertEquals("hex-ish", schema.getName());
+        assertEquals(12, schema.getSize());
+
+        Random random = new Random(19);
+        for (int round = 0; round < 100; round++) {
+            byte[] seed = new byte[64];
+            random.nextBytes(seed);
+            String password = schema.generate(seed);
+            assertEquals(12, password.length());
+            assertTrue(password.matches("[A-F0-9-]{12}"));
+            assertEquals(1, password.replaceAll("[^-]", "").length());
+            int letters = password.replaceAll("[^A-F]", "").length();
+            assertTrue(letters >= 2 && letters <= 4);
+            assertEquals(password, schema.generate(seed));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoFill() {
+        new SchemaSpec(8).add(CharClass.DIGIT, 8, 8).compile();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTwoFills() {
+        new SchemaSpec(8).fill(CharClass.DIGIT).fill(CharClass.LOWER);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMinimaTooLarge() {
+        new SchemaSpec(8).add(CharClass.DIGIT, 5, 6).add(CharClass.UPPER, 4, 4).fill(CharClass.LOWER).compile();
+    }
+}
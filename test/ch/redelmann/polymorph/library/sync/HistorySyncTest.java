@@ -0,0 +1,161 @@
+package ch.redelmann.polymorph.library.sync;
+
+import ch.redelmann.polymorph.library.Entry;
+import ch.redelmann.polymorph.library.History;
+import ch.redelmann.polymorph.library.schema.Alphanumeric;
+import ch.redelmann.polymorph.library.schema.Safe;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HistorySyncTest {
+
+    /** Replica counting the exchanges and the entries it sends. */
+    private static final class CountingReplica implements Replica {
+
+        final Replica replica;
+        int exchanges = 0;
+        int sent = 0;
+
+        CountingReplica(Replica replica) {
+            this.replica = replica;
+        }
+
+        @Override
+        public Fingerprint fingerprint(Entry from, Entry to) {
+            exchanges++;
+            return replica.fingerprint(from, to);
+        }
+
+        @Override
+        public Entry median(Entry from, Entry to) {
+            exchanges++;
+            return replica.median(from, to);
+        }
+
+        @Override
+        public List<Entry> entries(Entry from, Entry to) {
+            exchanges++;
+            List<Entry> entries = replica.entries(from, to);
+            sent += entries.size();
+            return entries;
+        }
+
+        @Override
+        public void apply(List<Entry> entries) {
+            exchanges++;
+            replica.apply(entries);
+        }
+    }
+
+    private static List<Entry> synthetic(int size, Random random) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry("domain" + i + ".com",
+                    random.nextBoolean() ? new Safe(18) : new Alphanumeric(12), random.nextInt(3)));
+        }
+        return entries;
+    }
+
+    @Test
+    public void testFewDifferences() {
+        List<Entry> entries = synthetic(20000, new Random(16));
+        History a = new History(entries);
+        History b = new History(entries);
+
+        Entry added = new Entry("new.com", new Safe(18), 0);
+        a.add(added);
+        Entry removed = entries.get(1234);
+        b.remove(removed);
+        Entry old = entries.get(777);
+        Entry updated = new Entry(old.domain, old.schema, old.version + 1);
+        b.remove(old);
+        b.add(updated);
+
+        CountingReplica local = new CountingReplica(new HistoryReplica(a));
+        CountingReplica remote = new CountingReplica(new HistoryReplica(b));
+        assertEquals(3, HistorySync.sync(local, remote));
+
+        // Without tombstones, the removed entry comes back.
+        assertEquals(a.getAll(), b.getAll());
+        assertTrue(b.getAll().contains(removed));
+        assertTrue(a.getAll().contains(updated));
+        assertFalse(a.getAll().contains(old));
+
+        // Only small ranges around the differences are exchanged.
+        assertTrue(local.sent + remote.sent < 3 * 16);
+        assertTrue(local.exchanges + remote.exchanges < 3 * 4 * 20);
+
+        // Once in sync, a single exchange per side suffices.
+        local.exchanges = 0;
+        remote.exchanges = 0;
+        assertEquals(0, HistorySync.sync(local, remote));
+        assertEquals(2, local.exchanges);
+        assertEquals(2, remote.exchanges);
+    }
+
+    @Test
+    public void testDisjoint() {
+        List<Entry> entries = synthetic(1000, new Random(17));
+        History a = new History(entries.subList(0, 600));
+        History b = new History(entries.subList(400, 1000));
+        b.add(new Entry("DOMAIN1.com", entries.get(1).schema, entries.get(1).version));
+
+        HistorySync.sync(new HistoryReplica(a), new HistoryReplica(b));
+
+        // The tie between the two cases of the domain is resolved the same way on both sides.
+        assertEquals(a.getAll(), b.getAll());
+        assertEquals(1000, a.getAll().size());
+        assertTrue(a.getAll().contains(entries.get(1)));
+    }
+
+    @Test
+    public void testRandomized() {
+        Random random = new Random(18);
+        for (int round = 0; round < 20; round++) {
+            History a = new History();
+            History b = new History();
+            for (int i = 0; i < 500; i++) {
+                Entry entry = new Entry("d" + random.nextInt(300), new Safe(8 + random.nextInt(2)), random.nextInt(4));
+                int side = random.nextInt(3);
+                if (side != 1) {
+                    a.add(entry);
+                }
+                if (side != 0) {
+                    b.add(entry);
+                }
+            }
+
+            // The expected result keeps the winner of each entry.
+            History expected = new History(a.getAll());
+            for (Entry entry : b.getAll()) {
+                for (Entry existing : expected.getAll()) {
+                    if (History.ORDER.compare(existing, entry) == 0
+                            && HistorySync.resolve(existing, entry) == entry) {
+                        expected.remove(existing);
+                    }
+                }
+                expected.add(entry);
+            }
+
+            HistorySync.sync(new HistoryReplica(a), new HistoryReplica(b));
+            assertEquals(expected.getAll(), a.getAll());
+            assertEquals(expected.getAll(), b.getAll());
+        }
+    }
+
+    @Test
+    public void testResolve() {
+        Entry a = new Entry("github", new Safe(18), 1);
+        Entry b = new Entry("GitHub", new Safe(18), 2);
+        Entry c = new Entry("GitHub", new Safe(18), 1);
+        assertSame(b, HistorySync.resolve(a, b));
+        assertSame(b, HistorySync.resolve(b, a));
+        assertSame(a, HistorySync.resolve(a, c));
+        assertSame(a, HistorySync.resolve(c, a));
+    }
+}
@@ -0,0 +1,139 @@
+package ch.redelmann.polymorph.vector;
+
+import ch.redelmann.polymorph.library.crypto.BlockMix;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/** BlockMix computing the Salsa20/8 core on 128-bit vectors, using the Java Vector API.
+ *
+ * The 16 words of a block are kept as four vectors, each holding one diagonal of the 4x4 matrix
+ * of Salsa20. The four quarter-rounds of a column round then run as one quarter-round on vectors.
+ * Rotating the lanes of three of the vectors turns rows into diagonals for the row round,
+ * and rotating them back restores the layout.
+ *
+ * Blocks are stored in this diagonal layout throughout ROMix, so that they are loaded and stored
+ * as contiguous vectors. The layout keeps the first word of each block in place.
+ */
+public final class VectorBlockMix implements BlockMix {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_128;
+
+    /** The word of RFC 7914 stored at each position of the layout. */
+    private static final int[] LAYOUT = { 0, 5, 10, 15, 12, 1, 6, 11, 8, 13, 2, 7, 4, 9, 14, 3 };
+
+    /** The position in the layout of each word of RFC 7914. */
+    private static final int[] INVERSE = new int[16];
+
+    static {
+        for (int i = 0; i < 16; i++) {
+            INVERSE[LAYOUT[i]] = i;
+        }
+    }
+
+    private static final VectorShuffle<Integer> ROTATE_1 = VectorShuffle.fromValues(SPECIES, 1, 2, 3, 0);
+    private static final VectorShuffle<Integer> ROTATE_2 = VectorShuffle.fromValues(SPECIES, 2, 3, 0, 1);
+    private static final VectorShuffle<Integer> ROTATE_3 = VectorShuffle.fromValues(SPECIES, 3, 0, 1, 2);
+
+    @Override
+    public String getName() {
+        return "vector";
+    }
+
+    /** Returns whether the platform has vectors of at least 128 bits.
+     *
+     * @return {@code true} if the preferred vectors of the platform hold at least 4 words.
+     */
+    @Override
+    public boolean isSupported() {
+        return IntVector.SPECIES_PREFERRED.length() >= SPECIES.length();
+    }
+
+    @Override
+    public void toLayout(int[] words, int offset, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            permute(words, offset + 16 * i, LAYOUT);
+        }
+    }
+
+    @Override
+    public void fromLayout(int[] words, int offset, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            permute(words, offset + 16 * i, INVERSE);
+        }
+    }
+
+    /** Permutes the 16 words of a block in place, following the cycles of the permutation.
+     *
+     * @param words  The words.
+     * @param offset The offset of the block.
+     * @param source The position of the word moved to each position.
+     */
+    private static void permute(int[] words, int offset, int[] source) {
+        int moved = 0;
+        for (int start = 0; start < 16; start++) {
+            if ((moved >>> start & 1) != 0) {
+                continue;
+            }
+            int first = words[offset + start];
+            int j = start;
+            moved |= 1 << start;
+            for (int k = source[j]; k != start; k = source[j]) {
+                words[offset + j] = words[offset + k];
+                moved |= 1 << k;
+                j = k;
+            }
+            words[offset + j] = first;
+        }
+    }
+
+    @Override
+    public void blockMix(int[] in, int inOffset, int[] out, int outOffset, int[] x, int r) {
+        int last = inOffset + (2 * r - 1) * 16;
+        IntVector x0 = IntVector.fromArray(SPECIES, in, last);
+        IntVector x1 = IntVector.fromArray(SPECIES, in, last + 4);
+        IntVector x2 = IntVector.fromArray(SPECIES, in, last + 8);
+        IntVector x3 = IntVector.fromArray(SPECIES, in, last + 12);
+
+        for (int i = 0; i < 2 * r; i++) {
+            int block = inOffset + i * 16;
+            x0 = x0.lanewise(VectorOperators.XOR, IntVector.fromArray(SPECIES, in, block));
+            x1 = x1.lanewise(VectorOperators.XOR, IntVector.fromArray(SPECIES, in, block + 4));
+            x2 = x2.lanewise(VectorOperators.XOR, IntVector.fromArray(SPECIES, in, block + 8));
+            x3 = x3.lanewise(VectorOperators.XOR, IntVector.fromArray(SPECIES, in, block + 12));
+
+            IntVector y0 = x0, y1 = x1, y2 = x2, y3 = x3;
+            for (int round = 0; round < 8; round += 2) {
+                // Columns, which are the diagonals of the layout.
+                y3 = y3.lanewise(VectorOperators.XOR, y0.add(y1).lanewise(VectorOperators.ROL, 7));
+                y2 = y2.lanewise(VectorOperators.XOR, y3.add(y0).lanewise(VectorOperators.ROL, 9));
+                y1 = y1.lanewise(VectorOperators.XOR, y2.add(y3).lanewise(VectorOperators.ROL, 13));
+                y0 = y0.lanewise(VectorOperators.XOR, y1.add(y2).lanewise(VectorOperators.ROL, 18));
+
+                // Rows, once turned into diagonals.
+                y1 = y1.rearrange(ROTATE_1);
+                y2 = y2.rearrange(ROTATE_2);
+                y3 = y3.rearrange(ROTATE_3);
+                y1 = y1.lanewise(VectorOperators.XOR, y0.add(y3).lanewise(VectorOperators.ROL, 7));
+                y2 = y2.lanewise(VectorOperators.XOR, y1.add(y0).lanewise(VectorOperators.ROL, 9));
+                y3 = y3.lanewise(VectorOperators.XOR, y2.add(y1).lanewise(VectorOperators.ROL, 13));
+                y0 = y0.lanewise(VectorOperators.XOR, y3.add(y2).lanewise(VectorOperators.ROL, 18));
+                y1 = y1.rearrange(ROTATE_3);
+                y2 = y2.rearrange(ROTATE_2);
+                y3 = y3.rearrange(ROTATE_1);
+            }
+            x0 = x0.add(y0);
+            x1 = x1.add(y1);
+            x2 = x2.add(y2);
+            x3 = x3.add(y3);
+
+            // Even blocks go to the first half of the output, odd blocks to the second.
+            int target = outOffset + ((i >> 1) + (i & 1) * r) * 16;
+            x0.intoArray(out, target);
+            x1.intoArray(out, target + 4);
+            x2.intoArray(out, target + 8);
+            x3.intoArray(out, target + 12);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ch.redelmann.polymorph.vector;
+
+import ch.redelmann.polymorph.library.Configuration;
+import ch.redelmann.polymorph.library.Polymorph;
+import ch.redelmann.polymorph.library.crypto.BlockMix;
+import ch.redelmann.polymorph.library.crypto.SCrypt;
+import ch.redelmann.polymorph.library.schema.Safe;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VectorBlockMixTest {
+
+    private static final VectorBlockMix VECTOR = new VectorBlockMix();
+
+    @Test
+    public void testSelected() {
+        assertTrue(VECTOR.isSupported());
+        assertEquals("vector", SCrypt.getBlockMix().getName());
+    }
+
+    @Test
+    public void testLayout() {
+        Random random = new Random(3);
+        int[] words = random.ints(64).toArray();
+        int[] copy = words.clone();
+
+        VECTOR.toLayout(words, 16, 2);
+        assertArrayEquals(Arrays.copyOfRange(copy, 0, 16), Arrays.copyOfRange(words, 0, 16));
+        assertArrayEquals(Arrays.copyOfRange(copy, 48, 64), Arrays.copyOfRange(words, 48, 64));
+        assertEquals(copy[16], words[16]);
+        assertEquals(copy[32], words[32]);
+        assertFalse(Arrays.equals(copy, words));
+
+        VECTOR.fromLayout(words, 16, 2);
+        assertArrayEquals(copy, words);
+    }
+
+    @Test
+    public void testSameAsScalar() {
+        Random random = new Random(7);
+        for (int r = 1; r <= 9; r++) {
+            int words = 32 * r;
+            int[] in = random.ints(words + 5).toArray();
+            int[] expected = new int[words + 3];
+            int[] actual = new int[words + 3];
+            BlockMix.SCALAR.blockMix(in, 5, expected, 3, new int[16], r);
+
+            int[] layout = in.clone();
+            VECTOR.toLayout(layout, 5, 2 * r);
+            VECTOR.blockMix(layout, 5, actual, 3, new int[16], r);
+            VECTOR.fromLayout(actual, 3, 2 * r);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testRfcVectors() {
+        // Test vectors of RFC 7914, section 12.
+        assertEquals("77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442"
+                        + "fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906",
+                hex(SCrypt.scrypt(new byte[0], new byte[0], 16, 1, 1, 64)));
+        assertEquals("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+                        + "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640",
+                hex(SCrypt.scrypt("password".getBytes(StandardCharsets.UTF_8),
+                        "NaCl".getBytes(StandardCharsets.UTF_8), 1024, 8, 16, 64)));
+        assertEquals("7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2"
+                        + "d5432955613f0fcf62d49705242a9af9e61e85dc0d651e40dfcf017b45575887",
+                hex(SCrypt.scrypt("pleaseletmein".getBytes(StandardCharsets.UTF_8),
+                        "SodiumChloride".getBytes(StandardCharsets.UTF_8), 16384, 8, 1, 64)));
+    }
+
+    @Test
+    public void testSameDerivations() throws Exception {
+        Random random = new Random(11);
+        for (int i = 0; i < 20; i++) {
+            byte[] password = new byte[1 + random.nextInt(40)];
+            byte[] salt = new byte[random.nextInt(40)];
+            random.nextBytes(password);
+            random.nextBytes(salt);
+            int n = 2 << random.nextInt(9);
+            int r = 1 + random.nextInt(8);
+            int p = 1 + random.nextInt(3);
+            assertArrayEquals(com.lambdaworks.crypto.SCrypt.scryptJ(password, salt, n, r, p, 64),
+                    SCrypt.scrypt(password, salt, n, r, p, 64));
+        }
+
+        // Interleaved derivations keep their blocks in the layout of the vector implementation too.
+        byte[][] passwords = new byte[5][];
+        byte[][] salts = new byte[5][];
+        byte[][] outputs = new byte[5][64];
+        for (int i = 0; i < 5; i++) {
+            passwords[i] = ("password" + i).getBytes(StandardCharsets.UTF_8);
+            salts[i] = ("salt" + i).getBytes(StandardCharsets.UTF_8);
+        }
+        SCrypt.scrypt(passwords, salts, 256, 4, 2, outputs, 3);
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(com.lambdaworks.crypto.SCrypt.scryptJ(passwords[i], salts[i], 256, 4, 2, 64), outputs[i]);
+        }
+
+        // The seed of the derivation of a password only depends on SCrypt.
+        Configuration configuration = new Configuration(10, 8, 1, "vector");
+        byte[] seed = com.lambdaworks.crypto.SCrypt.scryptJ(
+                "passwordvector".getBytes(StandardCharsets.UTF_8),
+                "github".getBytes(StandardCharsets.UTF_8), 1 << 10, 8, 1, 64);
+        assertEquals(new Safe().generate(seed),
+                Polymorph.derive(new Safe(), "github", "password", configuration));
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}